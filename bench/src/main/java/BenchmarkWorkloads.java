@@ -0,0 +1,134 @@
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+/**
+ * class BenchmarkWorkloads
+ * Description: The workloads measured by the benchmarks of the dambench
+ * package. The classes of dam are in the default package, which a class in
+ * a named package (as JMH requires) cannot refer to, so every workload is
+ * set up here and handed out as a Callable. The benchmarks look the
+ * factories up by reflection once, outside of the measured code.
+ */
+public abstract class BenchmarkWorkloads
+{
+  /**
+   * static fftConstruction : int -> Callable<Object>
+   * @param noOfSamples : The number of samples to transform
+   * @return Callable<Object> : Calculates the FFT of 'noOfSamples' random
+   *                            samples, padded to a power of 2
+   */
+  public static Callable<Object> fftConstruction(int noOfSamples)
+  {
+    final float[] samples = randomSamples(noOfSamples, 1);
+    return new Callable<Object>()
+    {
+      public Object call()
+      {
+        return new FFT(samples);
+      }
+    };
+  }
+
+  /**
+   * static calculateMSE : int -> Callable<Object>
+   * @param noOfSamples : The number of samples of both transforms
+   * @return Callable<Object> : Calculates the Mean Squared Error between the
+   *                            FFTs of two different sets of random samples
+   */
+  public static Callable<Object> calculateMSE(int noOfSamples)
+  {
+    final FFT first = new FFT(randomSamples(noOfSamples, 1));
+    final FFT second = new FFT(randomSamples(noOfSamples, 2));
+    return new Callable<Object>()
+    {
+      public Object call()
+      {
+        return first.calculateMSE(second);
+      }
+    };
+  }
+
+  /**
+   * static complexArithmetic : int -> Callable<Object>
+   * @param noOfNumbers : The number of pairs of complex numbers
+   * @return Callable<Object> : Multiplies, adds, subtracts and takes the
+   *                            absolute value of 'noOfNumbers' pairs of
+   *                            ComplexNumbers made by ComplexNumbers.make
+   */
+  public static Callable<Object> complexArithmetic(int noOfNumbers)
+  {
+    Random random = new Random(noOfNumbers);
+    final ComplexNumber[] first = new ComplexNumber[noOfNumbers];
+    final ComplexNumber[] second = new ComplexNumber[noOfNumbers];
+    for(int i = 0; i<noOfNumbers; i++)
+    {
+      first[i] = ComplexNumbers.make(random.nextGaussian(),
+    		  random.nextGaussian());
+      second[i] = ComplexNumbers.make(random.nextGaussian(),
+    		  random.nextGaussian());
+    }
+    return new Callable<Object>()
+    {
+      public Object call()
+      {
+        ComplexNumber sum = ComplexNumbers.make(0, 0);
+        double absolutes = 0;
+        for(int i = 0; i<first.length; i++)
+        {
+          ComplexNumber product = first[i].multiply(second[i]);
+          sum = sum.add(product).subtract(second[i]);
+          absolutes += product.absolute();
+        }
+        return absolutes + sum.getRealPart() + sum.getImaginaryPart();
+      }
+    };
+  }
+
+  /**
+   * static readSamples : String -> Callable<Object>
+   * @param filePath : The path of a WAVE file
+   * @return Callable<Object> : Validates the header of the file at
+   *                            'filePath' and reads all its samples
+   */
+  public static Callable<Object> readSamples(final String filePath)
+  {
+    return new Callable<Object>()
+    {
+      public Object call()
+      {
+        return AudioProcessableFiles.make(filePath).getSamples();
+      }
+    };
+  }
+
+  /**
+   * static validateMP3File : String -> Callable<Object>
+   * @param filePath : The path of an MP3 file
+   * @return Callable<Object> : Validates the first frame header of the file
+   *                            at 'filePath', without decoding it
+   */
+  public static Callable<Object> validateMP3File(final String filePath)
+  {
+    return new Callable<Object>()
+    {
+      public Object call()
+      {
+        return AudioProcessableFiles.make(filePath).isValidFile();
+      }
+    };
+  }
+
+  /**
+   * static randomSamples : int, long -> float[]
+   * @return float[] : 'noOfSamples' samples of white noise in [-1, 1), the
+   *                   same for the same 'seed'
+   */
+  private static float[] randomSamples(int noOfSamples, long seed)
+  {
+    Random random = new Random(seed);
+    float[] samples = new float[noOfSamples];
+    for(int i = 0; i<noOfSamples; i++)
+      samples[i] = random.nextFloat() * 2 - 1;
+    return samples;
+  }
+}
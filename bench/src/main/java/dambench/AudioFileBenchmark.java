@@ -0,0 +1,61 @@
+package dambench;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * class AudioFileBenchmark
+ * Description: The throughput of opening the sample files: validating the
+ * header of a WAVE file and reading all its samples, and validating the
+ * header of an MP3 file. The paths are relative to the bench directory and
+ * can be changed with -p wavFile=... -p mp3File=...
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AudioFileBenchmark
+{
+  @Param({"../SampleAudioFiles/z01.wav"})
+  public String wavFile;
+
+  @Param({"../SampleAudioFiles/Sor3508.mp3"})
+  public String mp3File;
+
+  private Callable<Object> readSamples;
+  private Callable<Object> validateMP3File;
+
+  @Setup
+  public void setUp() throws Exception
+  {
+    readSamples = Workloads.get("readSamples", String.class, wavFile);
+    validateMP3File = Workloads.get("validateMP3File", String.class,
+    		mp3File);
+  }
+
+  @Benchmark
+  public Object readSamples() throws Exception
+  {
+    return readSamples.call();
+  }
+
+  @Benchmark
+  public Object validateMP3File() throws Exception
+  {
+    return validateMP3File.call();
+  }
+}
@@ -0,0 +1,49 @@
+package dambench;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * class ComplexNumbersBenchmark
+ * Description: The throughput of the arithmetic of ComplexNumbers, i.e.
+ * multiply, add, subtract and absolute over an array of pairs. Every
+ * operation allocates a new ComplexNumber, which the gc profiler shows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ComplexNumbersBenchmark
+{
+  @Param({"1024"})
+  public int noOfNumbers;
+
+  private Callable<Object> complexArithmetic;
+
+  @Setup
+  public void setUp() throws Exception
+  {
+    complexArithmetic = Workloads.get("complexArithmetic", int.class,
+    		noOfNumbers);
+  }
+
+  @Benchmark
+  public Object arithmetic() throws Exception
+  {
+    return complexArithmetic.call();
+  }
+}
@@ -0,0 +1,58 @@
+package dambench;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * class FFTBenchmark
+ * Description: The throughput of the FFT of the samples of a file and of
+ * the Mean Squared Error between two FFTs. The sizes are powers of 2 and
+ * the sample counts of 1 and 10 seconds at 44100 Hz, which are padded to
+ * the next power of 2.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FFTBenchmark
+{
+  @Param({"65536", "44100", "524288", "441000"})
+  public int noOfSamples;
+
+  private Callable<Object> fftConstruction;
+  private Callable<Object> calculateMSE;
+
+  @Setup
+  public void setUp() throws Exception
+  {
+    fftConstruction = Workloads.get("fftConstruction", int.class,
+    		noOfSamples);
+    calculateMSE = Workloads.get("calculateMSE", int.class, noOfSamples);
+  }
+
+  @Benchmark
+  public Object construct() throws Exception
+  {
+    return fftConstruction.call();
+  }
+
+  @Benchmark
+  public Object calculateMSE() throws Exception
+  {
+    return calculateMSE.call();
+  }
+}
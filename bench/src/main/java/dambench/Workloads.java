@@ -0,0 +1,30 @@
+package dambench;
+
+import java.util.concurrent.Callable;
+
+/**
+ * class Workloads
+ * Description: Looks up the workloads of BenchmarkWorkloads, which is in the
+ * default package, by reflection.
+ */
+final class Workloads
+{
+  private Workloads()
+  {
+  }
+
+  /**
+   * static get : String, Class<?>, Object -> Callable<Object>
+   * @param name : The name of the static factory of BenchmarkWorkloads
+   * @param parameterType : The type of the only parameter of the factory
+   * @param argument : The argument to call the factory with
+   * @return Callable<Object> : The workload made by the factory
+   */
+  @SuppressWarnings("unchecked")
+  static Callable<Object> get(String name, Class<?> parameterType,
+		  Object argument) throws Exception
+  {
+    return (Callable<Object>) Class.forName("BenchmarkWorkloads")
+    		.getMethod(name, parameterType).invoke(null, argument);
+  }
+}
@@ -8,7 +8,10 @@ public class AssertTests {
    *            : if false the 'errorMsg' is printed through standard error
    *            and the program exits through status other than 0.
    */
-  private static int exitStatus = 0;
+  private static volatile int exitStatus = 0;
+  // false while a DamServer request runs: an error which would end the
+  // program then only ends the request
+  private static volatile boolean exitOnFatalError = true;
 
   public static boolean assertTrue(String errorMsg, boolean isTrue) 
   {
@@ -25,7 +28,11 @@ public class AssertTests {
 		  boolean toExit) 
   {
      assertTrue(errorMsg, isTrue);
-     if (!isTrue && toExit) System.exit(1);
+     if (!isTrue && toExit) 
+     {
+        if (exitOnFatalError) System.exit(1);
+        throw new FatalError(errorMsg);
+     }
      return isTrue;
   }
 
@@ -33,4 +40,41 @@ public class AssertTests {
   {
      System.exit(exitStatus);
   }
+
+  /**
+   * static setExitOnFatalError : boolean -> void
+   * @param toExit : if false, an assertTrue which should exit throws a
+   *                 FatalError instead
+   */
+  public static void setExitOnFatalError(boolean toExit) 
+  {
+     exitOnFatalError = toExit;
+  }
+
+  /**
+   * static resetExitStatus : -> int
+   * @return int : The status the program would exit with, which is set
+   *               back to 0
+   */
+  public static int resetExitStatus() 
+  {
+     int status = exitStatus;
+     exitStatus = 0;
+     return status;
+  }
+
+  /**
+   * class FatalError
+   * Description: Thrown instead of exiting when an assertTrue which should
+   * exit fails while setExitOnFatalError(false). Its message was printed.
+   */
+  public static class FatalError extends RuntimeException 
+  {
+     private static final long serialVersionUID = 1L;
+
+     FatalError(String errorMsg) 
+     {
+        super(errorMsg);
+     }
+  }
 }
\ No newline at end of file
@@ -6,6 +6,36 @@ public interface AudioProcessableFile
    */
   float[] getSamples();
     
+  /**
+   * openSampleSource : -> SampleSource
+   * @return : A new SampleSource which reads the samples of this audio file
+   *           from the first to the last, without holding all of them in
+   *           memory unless they already are
+   */
+  SampleSource openSampleSource();
+
+  /**
+   * getSamplingRate : -> int
+   * @return : The sampling rate, in Hz, of the samples of getSamples and
+   *           openSampleSource, i.e. the analysis rate if one is given
+   */
+  int getSamplingRate();
+
+  /**
+   * getSpectrum : -> FFT
+   * @return : The FFT of the samples of this audio file. The FFT is only
+   *           calculated the first time it is asked for.
+   */
+  FFT getSpectrum();
+
+  /**
+   * getLandmarks : -> long[]
+   * @return : The landmarks of the samples of this audio file, see
+   *           Fingerprints. They are only extracted the first time they are
+   *           asked for.
+   */
+  long[] getLandmarks();
+
   /**
    * validateFile: -> void
    * @effect: Validates the file to check if it is one of the supported formats
@@ -25,12 +55,36 @@ public interface AudioProcessableFile
    */
   void compare(AudioProcessableFile fileToCmp);
 
+  /**
+   * matches : AudioProcessableFile -> boolean
+   * @param fileToCmp : The AudioProcessableFile to compare
+   * @return boolean : true iff the Mean Squared Error between the FFT result
+   *                   of this and 'fileToCmp' is 0. Nothing is printed.
+   */
+  boolean matches(AudioProcessableFile fileToCmp);
+
   /**
    * getFileLength : -> long
    * @return long : The size of the data in the file
    */
   long getFileLength();
 	
+  /**
+   * getContentHash : -> long
+   * @return long : A 64 bit ContentHash of the audio data of this file and
+   *                of its format, equal for two files whose samples are
+   *                bit-identical, 0 if the data could not be read. It is
+   *                only calculated the first time it is asked for.
+   */
+  long getContentHash();
+
+  /**
+   * getSourcePath : -> String
+   * @return String : The path this audio file was made from, under which
+   *                  it is kept in the SpectrumStore
+   */
+  String getSourcePath();
+
   /**
    * getFileShortName : -> String
    * @return String : The short name of the file corresponding to this
@@ -38,4 +92,20 @@ public interface AudioProcessableFile
   String getFileShortName();
 
   boolean isValidFile();
+
+  /**
+   * getMemorySize : -> long
+   * @return long : The bytes taken by the samples, the spectrum and the
+   *                landmarks of this audio file kept so far, on the heap or
+   *                off it
+   */
+  long getMemorySize();
+
+  /**
+   * release : -> void
+   * @effect : Drops the samples and the spectrum of this audio file, giving
+   *           back the memory they take off the heap, if any. They are read
+   *           and calculated again if they are asked for later.
+   */
+  void release();
 }
\ No newline at end of file
@@ -4,14 +4,20 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Locale;
 
   /**
    * class AudioProcessableFiles:Description: This class converts a physical 
    * path to an instance of AudioProcessableFile. The instance is only returned
    * if and only if the file is of supported type.
    *  
-   * CURRENT SUPPORTED TYPE/s: ["WAVE"]
+   * CURRENT SUPPORTED TYPE/s: ["WAVE", "MP3"]
    * 
    * WAVE: The audio file's header is validated against a specific format for a
    * WAVE file. If the header is valid below are the operations possible on an
@@ -21,6 +27,25 @@ import java.util.HashMap;
    * Compares another instance of AudioProcessableFile with this. c)
    * getFileLength: Returns the file length of the audio file corresponding to
    * this.
+   * 
+   * MP3: The header of the first frame is validated as MPEG-1 Layer III. The
+   * samples are decoded in memory by an MP3Decoder, the operations are the
+   * same as for a WAVE file.
+   * 
+   * If an analysis rate is given through the "--rate" option, the samples of
+   * both types are converted to it by a Resampler while they are read, so
+   * every spectrum is calculated at the same rate.
+   * 
+   * Two files of the same length whose audio data have the same
+   * ContentHash match without their spectra being calculated, unless the
+   * threshold is 0, which nothing matches at.
+   * 
+   * If an OffHeapArena is open, the samples of both types and their spectra
+   * are kept in it instead of on the heap, and given back to it by release.
+   * 
+   * The audio file itself is only open, through FileHandles, while its
+   * header or its samples are being read, so an instance holds no open file
+   * in between, and neither does a file 'make' finds invalid.
    */
 
 public abstract class AudioProcessableFiles {
@@ -31,9 +56,36 @@ public abstract class AudioProcessableFiles {
    *            : The filePath for which to create a AudioProcessableFile
    * @return processableFile: If the value of 'filePath' is null throws
    *         NullPointerException, else returns an instance of type
-   *         AudioProcessableFile
+   *         AudioProcessableFile. If a SpectrumStore is open and has an up
+   *         to date record for 'filePath', the file is neither validated
+   *         nor decoded, the stored spectrum and landmarks are used.
    */
   public static AudioProcessableFile make(String filePath) 
+  {
+     long startTime = RunStats.startTimer();
+     SpectrumStore store = SpectrumStore.getOpenStore();
+     AudioProcessableFile processableFile;
+     if (filePath != null && store != null && store.contains(filePath))
+     {
+        processableFile = new StoredAudioProcessableFile(filePath, store);
+     }
+     else
+     {
+        processableFile = makeDecoded(filePath);
+     }
+     RunStats.record(RunStats.MAKE, startTime);
+     return processableFile;
+  }
+
+  /**
+   * makeDecoded : String -> AudioProcessableFile
+   * 
+   * @param filePath
+   *            : The filePath for which to create a AudioProcessableFile
+   * @return processableFile: Same as make, without looking in the 
+   *         SpectrumStore
+   */
+  private static AudioProcessableFile makeDecoded(String filePath) 
   {
      if (filePath != null) 
      {
@@ -49,16 +101,7 @@ public abstract class AudioProcessableFiles {
            AudioProcessableFile mp3ProcessableFile = new 
         		   MP3AudioProcessableFile(filePath);
            if (!mp3ProcessableFile.isValidFile()) return null;
-           filePath = getConvertedFilePath(filePath,
-        		   mp3ProcessableFile.getFileShortName());
-           AudioProcessableFile wavProcessableFile = null;
-           if(filePath != null)
-           {	
-              wavProcessableFile = new WAVAudioProcessableFile(
-              filePath, mp3ProcessableFile);
-              if (!wavProcessableFile.isValidFile()) return null;
-           }
-           return wavProcessableFile;
+           return mp3ProcessableFile;
         }
         else
         {
@@ -80,20 +123,29 @@ public abstract class AudioProcessableFiles {
   private static abstract class AudioProcessableBase implements
   AudioProcessableFile
   {
+     // Largest part of a file that is mapped at a time to be hashed
+     private final static int HASH_WINDOW_BYTES = 1 << 24;
      protected boolean isValidFile = true;
      protected float[] samples = null;
-     protected FileInputStream audioFileInputStream;
+     // The samples, if they are kept in the OffHeapArena instead
+     protected OffHeapArena.Block offHeapSamples = null;
+     protected FFT spectrum = null;
+     protected long[] landmarks = null;
      protected File audioFile;
      protected String filePath;
+     // The path given to make, under which the file is kept in the store
+     protected String sourcePath;
+     // The sampling rate of the file, from its header
+     protected int samplingRate;
+     // The ContentHash of the file, once calculated
+     private long contentHash;
+     private boolean isContentHashed = false;
      /* @see AudioProcessableFile#readSamples() */
      public abstract float[] getSamples();
 
      /* @see AudioProcessableFile#validateFile() */
      public abstract boolean validateFile();
 
-     /* @see AudioProcessableFile#compare(AudioProcessableFile) */
-     public abstract void compare(AudioProcessableFile ap);
-
      /* @see AudioProcessableFile#getFileLength() */
      public abstract long getFileLength();
 
@@ -104,26 +156,319 @@ public abstract class AudioProcessableFiles {
      {
         return isValidFile;
      }
+
+     /* @see AudioProcessableFile#getSourcePath() */
+     public String getSourcePath()
+     {
+        return sourcePath;
+     }
+
+     /**
+      * keepSamples : float[] -> void
+      * @param readSamples : All the samples of this, just read or decoded
+      * @effect : Keeps 'readSamples' as the samples of this, copied into a
+      *           Block of the open OffHeapArena if there is one with room,
+      *           else as they are
+      */
+     protected void keepSamples(float[] readSamples)
+     {
+        OffHeapArena arena = OffHeapArena.getOpenArena();
+        if (arena != null)
+        offHeapSamples = arena.allocate(4L * readSamples.length);
+        if (offHeapSamples == null)
+        {
+           if (arena != null)
+           RunStats.count(RunStats.OFF_HEAP_FALLBACKS, 1);
+           samples = readSamples;
+        }
+        else
+        {
+           offHeapSamples.asFloatBuffer().put(readSamples);
+        }
+     }
+
+     /**
+      * hasSamples : -> boolean
+      * @return boolean : true iff the samples of this are kept, on the heap
+      *                   or off it
+      */
+     protected boolean hasSamples()
+     {
+        return samples != null || offHeapSamples != null;
+     }
+
+     /**
+      * getKeptSamples : -> float[]
+      * @return float[] : The kept samples of this, a copy if they are kept
+      *                   off the heap
+      */
+     protected float[] getKeptSamples()
+     {
+        if (samples != null)
+        return samples;
+        FloatBuffer kept = offHeapSamples.asFloatBuffer();
+        float[] copy = new float[kept.limit()];
+        kept.get(copy);
+        return copy;
+     }
+
+     /**
+      * openKeptSamples : -> SampleSource
+      * @return SampleSource : A SampleSource over the kept samples of this,
+      *                        where they are kept
+      */
+     protected SampleSource openKeptSamples()
+     {
+        if (samples != null)
+        return SampleSources.fromArray(samples);
+        return SampleSources.fromBuffer(offHeapSamples.asFloatBuffer());
+     }
+
+     /* @see AudioProcessableFile#release() */
+     public synchronized void release()
+     {
+        if (offHeapSamples != null)
+        OffHeapArena.getOpenArena().free(offHeapSamples);
+        offHeapSamples = null;
+        samples = null;
+        if (spectrum != null)
+        spectrum.release();
+        spectrum = null;
+     }
+
+     /* @see AudioProcessableFile#getMemorySize() */
+     public synchronized long getMemorySize()
+     {
+        long size = 0;
+        if (samples != null)
+        size += 4L * samples.length;
+        if (offHeapSamples != null)
+        size += offHeapSamples.getLength();
+        if (spectrum != null)
+        size += spectrum.getMemorySize();
+        if (landmarks != null)
+        size += 8L * landmarks.length;
+        return size;
+     }
+
+     /* @see AudioProcessableFile#getSamplingRate() */
+     public int getSamplingRate()
+     {
+        int analysisRate = RunOptions.getAnalysisRate();
+        return analysisRate == 0 ? samplingRate : analysisRate;
+     }
+
+     /**
+      * toAnalysisRate : SampleSource, int -> SampleSource
+      * @param source : A source of the samples of this
+      * @param samplingRate : The sampling rate of 'source'
+      * @return SampleSource : 'source' converted to the analysis rate asked
+      *                        for through "--rate", else 'source' itself
+      */
+     protected SampleSource toAnalysisRate(SampleSource source, 
+    		 int samplingRate)
+     {
+        int analysisRate = RunOptions.getAnalysisRate();
+        if (analysisRate == 0 || analysisRate == samplingRate)
+        return source;
+        return new Resampler(source, samplingRate, analysisRate);
+     }
+
+     /* @see AudioProcessableFile#getSpectrum() */
+     public synchronized FFT getSpectrum()
+     {
+        if (spectrum != null)
+        {
+           RunStats.count(RunStats.SPECTRUM_CACHE_HITS, 1);
+        }
+        else
+        {
+           spectrum = new FFT(getSamples());
+           SpectrumStore store = SpectrumStore.getOpenStore();
+           if (store != null && sourcePath != null)
+           store.putSpectrum(sourcePath, getFileLength(), spectrum);
+        }
+        return spectrum;
+     }
+
+     /* @see AudioProcessableFile#getLandmarks() */
+     public synchronized long[] getLandmarks()
+     {
+        if (landmarks == null)
+        {
+           SampleSource source = openSampleSource();
+           try
+           {
+              landmarks = Fingerprints.extract(source);
+           }
+           finally
+           {
+              source.close();
+           }
+           SpectrumStore store = SpectrumStore.getOpenStore();
+           if (store != null && sourcePath != null)
+           store.putLandmarks(sourcePath, getFileLength(), landmarks);
+        }
+        return landmarks;
+     }
+
+     /* @see AudioProcessableFile#getContentHash() */
+     public synchronized long getContentHash()
+     {
+        if (!isContentHashed)
+        {
+           contentHash = hashContent();
+           isContentHashed = true;
+           SpectrumStore store = SpectrumStore.getOpenStore();
+           if (store != null && sourcePath != null && contentHash != 0)
+           store.putContentHash(sourcePath, getFileLength(), contentHash);
+        }
+        return contentHash;
+     }
+
+     /**
+      * hashContent : -> long
+      * @return long : The ContentHash of the audio data of this file, 0 if
+      *                it could not be read
+      */
+     protected abstract long hashContent();
+
+     /**
+      * hashFileBytes : ContentHash, long, long -> boolean
+      * @param hash : The hash to take the bytes into
+      * @param offset : The offset in the file of the first byte to hash
+      * @param length : The number of bytes to hash, at most those up to the
+      *                 end of the file
+      * @return boolean : false iff the file could not be read
+      * @effect : Takes the bytes into 'hash' straight from the file mapped
+      *           into memory, HASH_WINDOW_BYTES at a time
+      */
+     protected boolean hashFileBytes(ContentHash hash, long offset, 
+    		 long length)
+     {
+        FileInputStream data = null;
+        try
+        {
+           data = FileHandles.open(audioFile);
+           FileChannel channel = data.getChannel();
+           long end = offset + Math.min(length, 
+        		   Math.max(0, channel.size() - offset));
+           for (long position = offset; position < end; 
+        		   position += HASH_WINDOW_BYTES)
+           {
+              hash.update(channel.map(FileChannel.MapMode.READ_ONLY, 
+            		  position, Math.min(HASH_WINDOW_BYTES, end - position)));
+           }
+           RunStats.count(RunStats.BYTES_READ, end - offset);
+           return true;
+        }
+        catch (IOException e)
+        {
+           AssertTests.assertTrue(filePath + " I/O Error", false);
+           return false;
+        }
+        finally
+        {
+           FileHandles.close(data);
+        }
+     }
+
+     /*
+      * @see AudioProcessableFiles.AudioProcessableBase#compare
+      * (AudioProcessableFile)
+      */
+     public void compare(AudioProcessableFile fileToCmp) 
+     {
+        if (matches(fileToCmp))
+        {
+           printMatch(this, fileToCmp);
+        }
+     }
      
+     /*
+      * @see AudioProcessableFiles.AudioProcessableBase#matches
+      * (AudioProcessableFile)
+      */
+     public boolean matches(AudioProcessableFile fileToCmp) 
+     {
+        long startTime = RunStats.startTimer();
+        boolean isMatch = matchesFile(fileToCmp);
+        RunStats.record(RunStats.COMPARE, startTime);
+        RunStats.count(RunStats.PAIRS_COMPARED, 1);
+        return isMatch;
+     }
+
+     /**
+      * matchesFile : AudioProcessableFile -> boolean
+      * @return boolean : Same as matches, without timing the comparison
+      */
+     private boolean matchesFile(AudioProcessableFile fileToCmp) 
+     {
+        if (getFileLength() != fileToCmp.getFileLength()) 
+        {
+           // printNoMatchAndExit();
+        }
+        // Two files match if the MSE between their spectra, or the total
+        // STFT error between them, is less than this
+        double threshold = RunOptions.getThreshold();
+        // Bit-identical samples have an error of 0, so only files of the
+        // same length are hashed, and equal hashes need no spectrum
+        if (threshold > 0 && getFileLength() == fileToCmp.getFileLength())
+        {
+           long hash = getContentHash();
+           if (hash != 0 && hash == fileToCmp.getContentHash())
+           {
+              RunStats.count(RunStats.HASH_MATCHES, 1);
+              return true;
+           }
+        }
+        if (RunOptions.isSet("--stft"))
+        {
+           int frameSize = RunOptions.getFrameSize();
+           SampleSource thisSource = openSampleSource();
+           SampleSource fileToCmpSource = null;
+           try
+           {
+              fileToCmpSource = fileToCmp.openSampleSource();
+              STFT thisSTFT = new STFT(thisSource, frameSize, frameSize / 2);
+              STFT fileToCmpSTFT = new STFT(fileToCmpSource, frameSize,
+            		  frameSize / 2);
+              return STFT.calculateSquaredError(thisSTFT, fileToCmpSTFT,
+            		  threshold) < threshold;
+           }
+           finally
+           {
+              // The comparison may stop before the end of the samples
+              thisSource.close();
+              if (fileToCmpSource != null)
+              fileToCmpSource.close();
+           }
+        }
+        FFT thisFFT = getSpectrum();
+        FFT fileToCmpFFT = fileToCmp.getSpectrum();
+        return thisFFT.calculateMSE(fileToCmpFFT, threshold) < threshold;
+     }
+
         
   /**
-   * fetchFileIntoFileInputStream : -> void
+   * openAudioFile : -> FileInputStream
    * 
-   * @effect: Creates and loads a new FileInputStream with the file
-   *          located at 'filePath'. If file not found throws FileNotFound
-   *          Exception.
+   * @return FileInputStream : A new stream of the file located at
+   *         'filePath', opened through FileHandles, which the caller closes
+   *         as soon as it is read. If the file is not found prints standard
+   *         error, makes this invalid and returns null.
    */
-  protected void fetchFileIntoFileInputStream() 
+  protected FileInputStream openAudioFile() 
   {
-     audioFile = new File(filePath);
      try
      {
-        audioFileInputStream = new FileInputStream(audioFile);
+        return FileHandles.open(audioFile);
      }
      catch (FileNotFoundException e)
      {
         AssertTests.assertTrue(filePath + " File not found", false);
         isValidFile = false;
+        return null;
      }
   }
   }
@@ -145,6 +490,20 @@ public abstract class AudioProcessableFiles {
      private final static int WAVE_SAMPLING_RATE_48000 = 48000;
      private final static int BITS_PER_SAMPLE_8 = 8;
      private final static int BITS_PER_SAMPLE_16 = 16;
+     // 16 bit samples are signed, 8 bit samples are unsigned around 128
+     private final static float MAX_16_BIT_SAMPLE = 32768f;
+     private final static int ZERO_8_BIT_SAMPLE = 128;
+     private final static float MAX_8_BIT_SAMPLE = 128f;
+     // Largest part of the data chunk that is mapped at a time
+     private final static int MAX_MAPPED_BYTES = 1 << 24;
+     // Bytes of the file read at once to find the chunks before the samples
+     private final static int HEADER_READ_BYTES = 4096;
+     // 'RIFF', its chunkSize and 'WAVE'
+     private final static int RIFF_HEADER_BYTES = 12;
+     // The id and the size which start every chunk
+     private final static int CHUNK_HEADER_BYTES = 8;
+     // The part of the 'fmt ' chunk read, up to the bits per sample
+     private final static int FORMAT_BYTES = 16;
 
      // Instance Variables
      private long fileLength;
@@ -155,7 +514,7 @@ public abstract class AudioProcessableFiles {
      private int bytesPerFrame;
      private int samplesPerFrame;
      private int frameLength;
-     private AudioProcessableFile mp3Processable = null;
+     private long dataOffset;
      /**
       * Constructor : String -> WAVAudioProcessableFile
       * 
@@ -168,110 +527,95 @@ public abstract class AudioProcessableFiles {
       WAVAudioProcessableFile(String filePath) 
       {
          this.filePath = filePath;
-         fetchFileIntoFileInputStream();
+         this.sourcePath = filePath;
+         audioFile = new File(filePath);
          validateFile();
       }
-      WAVAudioProcessableFile(String filePath, AudioProcessableFile mp3File) {
-      this.filePath = filePath;
-      fetchFileIntoFileInputStream();
-      validateFile();
-      mp3Processable = mp3File;
-      }
-      /* @see AudioProcessableFiles.AudioProcessableBase#validateFile() */
+      /**
+       * validateFile : -> boolean
+       * @effect : Reads the header of the file with one positioned read of
+       *           its first HEADER_READ_BYTES, and walks its chunks by their
+       *           sizes, skipping the chunks other than 'fmt ' and 'data'
+       *           (e.g. 'LIST' or 'fact'), till the data chunk, whose offset
+       *           is kept for the samples to be mapped from. Only the chunk
+       *           headers past the first read are read again, one positioned
+       *           read each.
+       * @see AudioProcessableFiles.AudioProcessableBase#validateFile()
+       */
       public boolean validateFile() 
       {
        	 if(!isValidFile()) return false;
-         byte[] arrayFor2Bytes = new byte[2];
-         byte[] arrayFor4Bytes = new byte[4];
+         FileInputStream audioFileInputStream = openAudioFile();
+         if (audioFileInputStream == null) return false;
          try
          {
-            String notSupportedFormatError = " is not a supported format";
-            // First 4 bytes are 'RIFF'
-            audioFileInputStream.read(arrayFor4Bytes);
-            String riffErr = filePath + notSupportedFormatError;
-            long riffLitEnd = getLittleEndian(arrayFor4Bytes, 0, 4);
-            isValidFile = AssertTests.assertTrue(riffErr,
-            		riffLitEnd == RIFF_HEXA_EQUIVALENT);
-            if (!isValidFile) return isValidFile;
-            // Skip the chunkSize
-            audioFileInputStream.skip(4);
-
-            // These 4 bytes should be WAVE'
-            audioFileInputStream.read(arrayFor4Bytes);
-            String waveErr = filePath + notSupportedFormatError;
-            long waveLitEnd = getLittleEndian(arrayFor4Bytes, 0, 4);
-            isValidFile = AssertTests.assertTrue(waveErr,
-            		waveLitEnd == WAVE_HEXA_EQUIVALENT);
+            FileChannel channel = audioFileInputStream.getChannel();
+            ByteBuffer header = readHeader(channel, 0);
+            long headerStart = 0;
+            // First 4 bytes are 'RIFF', then the chunkSize, then 'WAVE'
+            String formatError = filePath + " is not a supported format";
+            isValidFile = AssertTests.assertTrue(formatError,
+            		header.limit() >= RIFF_HEADER_BYTES &&
+            		header.getInt(0) == RIFF_HEXA_EQUIVALENT &&
+            		header.getInt(8) == WAVE_HEXA_EQUIVALENT);
             if (!isValidFile) return isValidFile;
-            // These 4 bytes should be 'fmt '
-            audioFileInputStream.read(arrayFor4Bytes);
-            String fmtError = filePath + " The chunk should be type fmt";
-            long fmtLitEnd = getLittleEndian(arrayFor4Bytes, 0, 4);
-            isValidFile = AssertTests.assertTrue(fmtError,
-            		fmtLitEnd == fmt_HEXA_EQUIVALENT);
-            if (!isValidFile) return false;
-            // Skip the chunkSize
-            audioFileInputStream.skip(4);
-            // The AudioFormat should be 1 i.e. PCM (Linear Quantization)
-            audioFileInputStream.read(arrayFor2Bytes);
-            String pcmError = filePath+ " The Audio Format should be of type"
-            		+ " PCM";
-            long pcmLitEnd = getLittleEndian(arrayFor2Bytes, 0, 2);
-            isValidFile = AssertTests.assertTrue(pcmError,
-            pcmLitEnd == AUDIO_FORMAT_EQUIVALENT);
-            if (!isValidFile) return isValidFile;
-            // These 2 bytes should mention number of channels & should be
-            // 2(Stereo) or 1(Mono)
-            audioFileInputStream.read(arrayFor2Bytes);
-            String noOfChanError = filePath + " The audio should be of type"
-            		+ " Stereo or Mono";
-            noOfChannels = (int) getLittleEndian(arrayFor2Bytes, 0, 2);
-            isValidFile = AssertTests.assertTrue(noOfChanError,
-            noOfChannels == STEREO_EQUIVALENT || noOfChannels == 
-            MONO_EQUIVALENT);
-            if (!isValidFile) return isValidFile;
-            // The Sample rate should be 11.025kHz or 22.05kHz or 44.1kHz or
-            // 48kHz
-            audioFileInputStream.read(arrayFor4Bytes);
-            String samRtError = filePath + "The sampling rate should be "
-            		+ "11.025 kHz or 22.05 kHz or 44.1 kHz or 48kHz";
-            long samRtLitEnd = getLittleEndian(arrayFor4Bytes, 0, 4);
-            isValidFile = AssertTests.assertTrue(samRtError,samRtLitEnd == 
-            		WAVE_SAMPLING_RATE_11025 || samRtLitEnd == 
-            		WAVE_SAMPLING_RATE_22050 || samRtLitEnd == 
-            		WAVE_SAMPLING_RATE_44100 || samRtLitEnd == 
-            		WAVE_SAMPLING_RATE_48000);
-            if (!isValidFile) return isValidFile;
-            // Skip the ByteRate(4 Bytes) and BlockAlign(2 Bytes)
-            audioFileInputStream.skip(6);
-
-            // Bits per Sample should be 8 or 16
-            audioFileInputStream.read(arrayFor2Bytes);
-            String bitError = filePath
-            		+ " There should be 8 or 16 bits/sample";
-            bitsPerSample = (int) getLittleEndian(arrayFor2Bytes, 0, 2);
-            isValidFile = AssertTests.assertTrue(bitError,
-            		(bitsPerSample == BITS_PER_SAMPLE_8 || bitsPerSample == 
-            		BITS_PER_SAMPLE_16));
-            if (!isValidFile) return isValidFile;
-            bytesPerSample = bitsPerSample / 8;
 
-            // The data chunk gets started and should start with 'data' for
-            // 4 bytes
-            audioFileInputStream.read(arrayFor4Bytes);
+            String fmtError = filePath + " The chunk should be type fmt";
+            boolean hasFormat = false;
+            boolean hasData = false;
+            long chunkStart = RIFF_HEADER_BYTES;
+            while (true)
+            {
+               if (chunkStart + CHUNK_HEADER_BYTES > 
+            		   headerStart + header.limit())
+               {
+                  header = readHeader(channel, chunkStart);
+                  headerStart = chunkStart;
+               }
+               // The file ends before its data chunk
+               if (header.limit() < CHUNK_HEADER_BYTES) break;
+               int inHeader = (int) (chunkStart - headerStart);
+               int chunkId = header.getInt(inHeader);
+               long chunkSize = header.getInt(inHeader + 4) & 0xFFFFFFFFL;
+               if (chunkId == data_HEXA_EQUIVALENT)
+               {
+                  // The format is needed to read the samples
+                  isValidFile = AssertTests.assertTrue(fmtError, hasFormat);
+                  if (!isValidFile) return isValidFile;
+                  fileLength = chunkSize;
+                  dataOffset = chunkStart + CHUNK_HEADER_BYTES;
+                  hasData = true;
+                  break;
+               }
+               if (chunkId == fmt_HEXA_EQUIVALENT)
+               {
+                  if (inHeader + CHUNK_HEADER_BYTES + FORMAT_BYTES > 
+                		  header.limit())
+                  {
+                     header = readHeader(channel, chunkStart);
+                     headerStart = chunkStart;
+                     inHeader = 0;
+                  }
+                  isValidFile = AssertTests.assertTrue(fmtError,
+                		  chunkSize >= FORMAT_BYTES && header.limit() >= 
+                		  CHUNK_HEADER_BYTES + FORMAT_BYTES);
+                  if (!isValidFile) return isValidFile;
+                  if (!readFormat(header, inHeader + CHUNK_HEADER_BYTES))
+                  return false;
+                  hasFormat = true;
+               }
+               // Chunks start at even offsets
+               chunkStart += CHUNK_HEADER_BYTES + chunkSize + (chunkSize & 1);
+            }
             String dataError = filePath
             		+ " There should be a proper data chunk";
-            long dataLitEnd = getLittleEndian(arrayFor4Bytes, 0, 4);
-            isValidFile = AssertTests.assertTrue(dataError,
-            		dataLitEnd == data_HEXA_EQUIVALENT);
+            isValidFile = AssertTests.assertTrue(hasFormat ? dataError : 
+            		fmtError, hasData);
             if (!isValidFile) return isValidFile;
-            // The next 4 bytes determine the length of the data chunk
-            audioFileInputStream.read(arrayFor4Bytes);
-            fileLength = getLittleEndian(arrayFor4Bytes, 0, 4);
 
             bytesPerFrame = bytesPerSample * noOfChannels;
             samplesPerFrame = bytesPerFrame / bytesPerSample;
-            frameLength = (int) fileLength / bytesPerFrame;
+            frameLength = (int) (fileLength / bytesPerFrame);
             noOfSamplesPerChannel = (frameLength * samplesPerFrame)
             		/ noOfChannels;
             }
@@ -280,125 +624,501 @@ public abstract class AudioProcessableFiles {
             AssertTests.assertTrue(filePath + " Invalid File Header", false);
             return false;
          }
+         finally
+         {
+            // The samples are read through a mapping of their own
+            FileHandles.close(audioFileInputStream);
+         }
          return true;
       }
+
+      /**
+       * readFormat : ByteBuffer, int -> boolean
+       * @param header : The little endian bytes holding the 'fmt ' chunk
+       * @param offset : The index in 'header' of the body of the chunk
+       * @return boolean : false iff the format is not supported
+       * @effect : Keeps the number of channels, the sampling rate and the
+       *           bits per sample of the format, or prints standard error
+       */
+      private boolean readFormat(ByteBuffer header, int offset)
+      {
+         // The AudioFormat should be 1 i.e. PCM (Linear Quantization)
+         String pcmError = filePath+ " The Audio Format should be of type"
+        		 + " PCM";
+         int audioFormat = header.getShort(offset) & 0xFFFF;
+         isValidFile = AssertTests.assertTrue(pcmError,
+        		 audioFormat == AUDIO_FORMAT_EQUIVALENT);
+         if (!isValidFile) return isValidFile;
+         // These 2 bytes should mention number of channels & should be
+         // 2(Stereo) or 1(Mono)
+         String noOfChanError = filePath + " The audio should be of type"
+        		 + " Stereo or Mono";
+         noOfChannels = header.getShort(offset + 2) & 0xFFFF;
+         isValidFile = AssertTests.assertTrue(noOfChanError,
+        		 noOfChannels == STEREO_EQUIVALENT || noOfChannels == 
+        		 MONO_EQUIVALENT);
+         if (!isValidFile) return isValidFile;
+         // The Sample rate should be 11.025kHz or 22.05kHz or 44.1kHz or
+         // 48kHz
+         String samRtError = filePath + "The sampling rate should be "
+        		 + "11.025 kHz or 22.05 kHz or 44.1 kHz or 48kHz";
+         long samRtLitEnd = header.getInt(offset + 4) & 0xFFFFFFFFL;
+         isValidFile = AssertTests.assertTrue(samRtError,samRtLitEnd == 
+        		 WAVE_SAMPLING_RATE_11025 || samRtLitEnd == 
+        		 WAVE_SAMPLING_RATE_22050 || samRtLitEnd == 
+        		 WAVE_SAMPLING_RATE_44100 || samRtLitEnd == 
+        		 WAVE_SAMPLING_RATE_48000);
+         if (!isValidFile) return isValidFile;
+         samplingRate = (int) samRtLitEnd;
+         // Bits per Sample, after the ByteRate(4 Bytes) and BlockAlign(2
+         // Bytes), should be 8 or 16
+         String bitError = filePath
+        		 + " There should be 8 or 16 bits/sample";
+         bitsPerSample = header.getShort(offset + 14) & 0xFFFF;
+         isValidFile = AssertTests.assertTrue(bitError,
+        		 (bitsPerSample == BITS_PER_SAMPLE_8 || bitsPerSample == 
+        		 BITS_PER_SAMPLE_16));
+         if (!isValidFile) return isValidFile;
+         bytesPerSample = bitsPerSample / 8;
+         return true;
+      }
+
+      /**
+       * static readHeader : FileChannel, long -> ByteBuffer
+       * @return ByteBuffer : The little endian bytes of the file from
+       *                      'position' on, at most HEADER_READ_BYTES of
+       *                      them, read with one positioned read
+       */
+      private static ByteBuffer readHeader(FileChannel channel, long position)
+    		  throws IOException
+      {
+         ByteBuffer header = ByteBuffer.allocate(HEADER_READ_BYTES);
+         channel.read(header, position);
+         header.flip();
+         return header.order(ByteOrder.LITTLE_ENDIAN);
+      }
       /* @see AudioProcessableFiles.AudioProcessableBase#getFileShortName() */
       public String getFileShortName() 
       {
-    	 if(mp3Processable!=null)
-         return mp3Processable.getFileShortName();
          return audioFile.getName();
       }
       
       /* (non-Javadoc)
        * @see AudioProcessableFiles.AudioProcessableBase#getSamples()
        */
-      public float[] getSamples() 
+      public synchronized float[] getSamples() 
       {
-         if (samples == null)
-         samples = readSamples();
-         return samples;
+         if (!hasSamples())
+         {
+            long startTime = RunStats.startTimer();
+            keepSamples(readSamples());
+            RunStats.record(RunStats.READ_SAMPLES, startTime);
+         }
+         return getKeptSamples();
       }
 
-      /* @see AudioProcessableFiles.AudioProcessableBase#readSamples() */
-      public float[] readSamples() {
-      float[] readSamples = new float[noOfSamplesPerChannel];
-      byte[] twoByteArray = new byte[2];
-      float toDivide = (float) (2 << 15);
-      for (int i = 0; i < noOfSamplesPerChannel; i++)
+      /* @see AudioProcessableFile#openSampleSource() */
+      public synchronized SampleSource openSampleSource()
       {
-         try
+         if (hasSamples())
+         return openKeptSamples();
+         return toAnalysisRate(new MappedSampleSource(), samplingRate);
+      }
+
+      /**
+       * readSamples : -> float[]
+       * @return float[] : The samples of the first channel of every frame,
+       *                   scaled to [-1, 1), at the analysis rate. Frames
+       *                   past the end of a truncated file are left as 0.
+       */
+      public float[] readSamples() 
+      {
+         int analysisRate = RunOptions.getAnalysisRate();
+         float[] readSamples = new float[analysisRate == 0 ? 
+        		 noOfSamplesPerChannel : (int) Resampler.getOutputLength(
+        		 noOfSamplesPerChannel, samplingRate, analysisRate)];
+         SampleSource source = toAnalysisRate(new MappedSampleSource(),
+        		 samplingRate);
+         int samplesRead = 0;
+         int count = 0;
+         while (count >= 0 && samplesRead < readSamples.length)
          {
-            audioFileInputStream.read(twoByteArray);
-            readSamples[i] = (float) getLittleEndian(twoByteArray, 0, 2)
-            		/ toDivide;
-            audioFileInputStream.skip(2 * noOfChannels / bytesPerSample);
+            count = source.read(readSamples, samplesRead,
+            		readSamples.length - samplesRead);
+            samplesRead += Math.max(count, 0);
          }
-         catch (IOException e)
+         source.close();
+         return readSamples;
+      }
+
+      /**
+       * class MappedSampleSource
+       * Description: A SampleSource which maps the data chunk of the file
+       * into memory, a window of at most MAX_MAPPED_BYTES at a time, and
+       * decodes the little endian samples straight from the mapped bytes.
+       * The file is only open while a window is mapped, as a mapping stays
+       * valid once its file is closed.
+       */
+      private class MappedSampleSource implements SampleSource
+      {
+         private final int noOfFrames;
+         private MappedByteBuffer window = null;
+         private int windowFirstFrame = 0;
+         private int framesInWindow = 0;
+         private int nextFrame = 0;
+
+         /**
+          * Constructor : -> MappedSampleSource
+          * @effect : The constructor implicitly returns an instance of type
+          *           MappedSampleSource which starts at the first frame
+          */
+         MappedSampleSource()
+         {
+            long bytesInFile = Math.max(0, audioFile.length() - dataOffset);
+            long framesInFile = bytesInFile / bytesPerFrame;
+            noOfFrames = (int) Math.min(noOfSamplesPerChannel, framesInFile);
+         }
+
+         /* @see SampleSource#read(float[], int, int) */
+         public int read(float[] buffer, int offset, int length)
          {
-            AssertTests.assertTrue(filePath + " I/O Error", false);
+            if (nextFrame >= noOfFrames) return -1;
+            int count = 0;
+            while (count < length && nextFrame < noOfFrames)
+            {
+               if (nextFrame >= windowFirstFrame + framesInWindow
+            		   && !mapWindow()) break;
+               int inWindow = nextFrame - windowFirstFrame;
+               int framesToDecode = Math.min(length - count,
+            		   framesInWindow - inWindow);
+               decodeFrames(window, inWindow, buffer, offset + count,
+            		   framesToDecode);
+               count += framesToDecode;
+               nextFrame += framesToDecode;
+            }
+            RunStats.count(RunStats.BYTES_READ, (long) count * bytesPerFrame);
+            RunStats.count(RunStats.SAMPLES_DECODED, count);
+            return count;
+         }
+
+         /* @see SampleSource#close() */
+         public void close()
+         {
+            // The file is closed once every window is mapped
+            nextFrame = noOfFrames;
+            window = null;
+         }
+
+         /**
+          * mapWindow : -> boolean
+          * @return boolean : false iff the window could not be mapped
+          * @effect : Maps the window of the data chunk starting at
+          *           'nextFrame'
+          */
+         private boolean mapWindow()
+         {
+            windowFirstFrame = nextFrame;
+            framesInWindow = Math.min(MAX_MAPPED_BYTES / bytesPerFrame,
+            		noOfFrames - nextFrame);
+            FileInputStream data = null;
+            try
+            {
+               data = FileHandles.open(audioFile);
+               window = data.getChannel().map(
+            		   FileChannel.MapMode.READ_ONLY,
+            		   dataOffset + (long) windowFirstFrame * bytesPerFrame,
+            		   (long) framesInWindow * bytesPerFrame);
+               window.order(ByteOrder.LITTLE_ENDIAN);
+               return true;
+            }
+            catch (IOException e)
+            {
+               AssertTests.assertTrue(filePath + " I/O Error", false);
+               framesInWindow = 0;
+               nextFrame = noOfFrames;
+               return false;
+            }
+            finally
+            {
+               FileHandles.close(data);
+            }
          }
       }
-      return readSamples;
+
+      /**
+       * decodeFrames : ByteBuffer, int, float[], int, int -> void
+       * @param data : The little endian frames of the data chunk
+       * @param firstFrame : The index in 'data' of the first frame to decode
+       * @param into : The array into which the samples are decoded
+       * @param offset : The index of 'into' for the first sample
+       * @param noOfFrames : The number of frames to decode
+       * @effect : Decodes the first channel of 'noOfFrames' frames into
+       *           'into', scaled to [-1, 1)
+       */
+      private void decodeFrames(ByteBuffer data, int firstFrame, float[] into,
+    		  int offset, int noOfFrames)
+      {
+         int position = firstFrame * bytesPerFrame;
+         if (bitsPerSample == BITS_PER_SAMPLE_16)
+         {
+            for (int i = 0; i < noOfFrames; i++, position += bytesPerFrame)
+            {
+               into[offset + i] = data.getShort(position) / MAX_16_BIT_SAMPLE;
+            }
+         }
+         else
+         {
+            for (int i = 0; i < noOfFrames; i++, position += bytesPerFrame)
+            {
+               into[offset + i] = ((data.get(position) & 0xFF)
+            		   - ZERO_8_BIT_SAMPLE) / MAX_8_BIT_SAMPLE;
+            }
+         }
       }
       
-      /*
-       * @see AudioProcessableFiles.AudioProcessableBase#compare
-       * (AudioProcessableFile)
+      /**
+       * hashContent : -> long
+       * @return long : The ContentHash of the format of the samples and of
+       *                the bytes of the data chunk
+       * @see AudioProcessableFiles.AudioProcessableBase#hashContent()
        */
-       public void compare(AudioProcessableFile fileToCmp) 
-       {
-          if (getFileLength() != fileToCmp.getFileLength()) 
-          {
-             // printNoMatchAndExit();
-          }
-          FFT thisFFT = new FFT(getSamples());
-          FFT fileToCmpFFT = new FFT(fileToCmp.getSamples());
-          int mse = thisFFT.calculateMSE(fileToCmpFFT.getTransformedSamples());
-          if (mse == 0)
-          {
-             String fileToCmpShrtName = fileToCmp.getFileShortName();
-             printMatchAndExit(getFileShortName(), fileToCmpShrtName);
-          }
-       }
-       
+      protected long hashContent()
+      {
+         ContentHash hash = new ContentHash(0);
+         hash.update(samplingRate);
+         hash.update(noOfChannels);
+         hash.update(bitsPerSample);
+         return hashFileBytes(hash, dataOffset, fileLength) ? 
+        		 hash.digest() : 0;
+      }
+      
        /* @see AudioProcessableFiles.AudioProcessableBase#getFileLength() */
        public long getFileLength()
        {
           return fileLength;
        }
   }
-  /**
-   * getLittleEndian : byte[], int, int -> long
-   * 
-   * @param arr
-   *            : The array of type byte, the values of which will be
-   *            converted to little endian
-   * @param offset
-   *            : The offset from where to start in 'arr'
-   * @param numOfBytes
-   *            : The number of indexes to convert
-   * @return val : The little endian value of the values in the arr starting
-   *         from 'offset' and ending at 'numOfBytes' from 'offset'
-   */
-   private static long getLittleEndian(byte[] arr, int offset, int numOfBytes) 
+   /**
+    * printMatch : AudioProcessableFile, AudioProcessableFile -> void
+    * @param file1 : The file of the first path
+    * @param file2 : The file of the second path which matches 'file1'
+    * @effect : Prints the 'MATCH' message for 'file1' and 'file2' through
+    *           Standard output
+    */
+   static void printMatch(AudioProcessableFile file1, 
+		   AudioProcessableFile file2)
    {
-      numOfBytes--;
-      int endIndex = offset + numOfBytes;
-      long val = 0;
-      if (endIndex > arr.length) return val;
-      val = arr[endIndex] & 0xFF;
-      for (int i = 0; i < numOfBytes; i++) 
-      {
-         val = (val << 8) + (arr[--endIndex] & 0xFF);
-      }
-      return val;
+      printMatchAndExit(file1.getFileShortName(), file2.getFileShortName());
    }
-   private static void printMatchAndExit(String fileName1, String fileName2) 
+
+   /**
+    * printMatchAndExit : String, String -> void
+    * @effect : Prints the 'MATCH' message for the files of short names
+    *           'fileName1' and 'fileName2' through Standard output
+    */
+   static void printMatchAndExit(String fileName1, String fileName2) 
    {
       System.out.println("MATCH " + fileName1 + " " + fileName2);
    }
 
-   private static String getConvertedFilePath(String filePath, 
-		   String shortName)
+   /**
+    * printGroup : String[] -> void
+    * @param shortNames : The short names of the files of a group of files
+    *                     which match each other
+    * @effect : Prints the 'MATCH' message for the whole group through
+    *           Standard output
+    */
+   static void printGroup(String[] shortNames)
    {
-      String newFilePath = "/tmp/" + shortName + ".wav";
-      //String lamePath = "/course/cs5500f14/bin/lame";
-      String lamePath = "/usr/local/bin/lame";
-      ProcessBuilder pb = new ProcessBuilder(lamePath,"--decode", filePath,
-    		  newFilePath);
-      try
-      {
-         Process p = pb.start();
-         return newFilePath;
-      }
-      catch (IOException e) 
-      {
-         AssertTests.assertTrue("Invalid File", false);
-         return null;
-      }
-   }   
+      StringBuilder line = new StringBuilder("MATCH");
+      for(String shortName : shortNames)
+         line.append(' ').append(shortName);
+      System.out.println(line);
+   }
+
+   /**
+    * printResult : String, String, String -> void
+    * @param result : "MATCH", "NO MATCH" or "ERROR"
+    * @param path1 : The path of the first file of a pair, as it was given
+    * @param path2 : The path of the second file of the pair
+    * @effect : Prints the result of the pair through Standard output
+    */
+   static void printResult(String result, String path1, String path2)
+   {
+      System.out.println(result + " " + path1 + " " + path2);
+   }
+
+   /**
+    * printLocation : AudioProcessableFile, AudioProcessableFile, double,
+    *                 double -> void
+    * @param clip : The file of the first path
+    * @param recording : The file of the second path in which 'clip' was
+    *                    found
+    * @param seconds : The time in 'recording' at which 'clip' starts
+    * @param score : The normalized cross-correlation there
+    * @effect : Prints the 'MATCH' message for 'clip' and 'recording' with
+    *           the time and the score through Standard output
+    */
+   static void printLocation(AudioProcessableFile clip, 
+		   AudioProcessableFile recording, double seconds, double score)
+   {
+      System.out.println("MATCH " + clip.getFileShortName() + " " + 
+    		  recording.getFileShortName() + String.format(Locale.ROOT,
+    		  " at %.3fs score %.4f", seconds, score));
+   }
+
    
+  /**
+   * class StoredAudioProcessableFile
+   * Description: An audio file whose spectrum, landmarks and ContentHash
+   * are taken from the SpectrumStore. The file itself is only decoded if
+   * its samples are asked for, or if the store does not have the part that
+   * is asked for.
+   */
+  private static class StoredAudioProcessableFile extends AudioProcessableBase
+  {
+     private final SpectrumStore store;
+     private AudioProcessableFile decodedFile = null;
+     // true iff the spectrum was calculated by the decoded file
+     private boolean isSpectrumDecoded = false;
+
+     /**
+      * Constructor : String, SpectrumStore -> StoredAudioProcessableFile
+      * 
+      * @param filePath
+      *            : The file path which 'store' has an up to date record for
+      * @param store
+      *            : The open SpectrumStore
+      * @effect : The constructor implicitly returns an instance of type
+      *         StoredAudioProcessableFile
+      */
+     StoredAudioProcessableFile(String filePath, SpectrumStore store)
+     {
+        this.filePath = filePath;
+        this.sourcePath = filePath;
+        this.store = store;
+        audioFile = new File(filePath);
+     }
+
+     /**
+      * getDecodedFile : -> AudioProcessableFile
+      * @return AudioProcessableFile : The file made from 'filePath' without
+      *                                the store, made the first time it is
+      *                                needed
+      */
+     private synchronized AudioProcessableFile getDecodedFile()
+     {
+        if (decodedFile == null)
+        {
+           decodedFile = makeDecoded(filePath);
+           isValidFile = AssertTests.assertTrue(filePath + 
+        		   " could not be decoded", decodedFile != null, true);
+        }
+        return decodedFile;
+     }
+
+     /* @see AudioProcessableFiles.AudioProcessableBase#getSamples() */
+     public float[] getSamples()
+     {
+        return getDecodedFile().getSamples();
+     }
+
+     /* @see AudioProcessableFile#openSampleSource() */
+     public SampleSource openSampleSource()
+     {
+        return getDecodedFile().openSampleSource();
+     }
+
+     /* @see AudioProcessableFile#getSamplingRate() */
+     public int getSamplingRate()
+     {
+        return getDecodedFile().getSamplingRate();
+     }
+
+     /* @see AudioProcessableFile#getSpectrum() */
+     public synchronized FFT getSpectrum()
+     {
+        if (spectrum == null)
+        {
+           spectrum = store.getSpectrum(filePath);
+           if (spectrum != null)
+           RunStats.count(RunStats.STORE_HITS, 1);
+        }
+        if (spectrum == null)
+        {
+           spectrum = getDecodedFile().getSpectrum();
+           // Owned by the decoded file as well
+           spectrum.retain();
+           isSpectrumDecoded = true;
+        }
+        return spectrum;
+     }
+
+     /* @see AudioProcessableFile#getMemorySize() */
+     public synchronized long getMemorySize()
+     {
+        if (decodedFile == null)
+        return super.getMemorySize();
+        long size = super.getMemorySize() + decodedFile.getMemorySize();
+        // A spectrum shared with the decoded file is only counted there
+        return isSpectrumDecoded ? size - spectrum.getMemorySize() : size;
+     }
+
+     /* @see AudioProcessableFile#release() */
+     public synchronized void release()
+     {
+        super.release();
+        isSpectrumDecoded = false;
+        if (decodedFile != null)
+        decodedFile.release();
+     }
+
+     /* @see AudioProcessableFile#getLandmarks() */
+     public synchronized long[] getLandmarks()
+     {
+        if (landmarks == null)
+        {
+           landmarks = store.getLandmarks(filePath);
+           if (landmarks != null)
+           RunStats.count(RunStats.STORE_HITS, 1);
+        }
+        if (landmarks == null)
+        landmarks = getDecodedFile().getLandmarks();
+        return landmarks;
+     }
+
+     /* @see AudioProcessableFiles.AudioProcessableBase#hashContent() */
+     protected long hashContent()
+     {
+        long hash = store.getContentHash(filePath);
+        if (hash != 0)
+        {
+           RunStats.count(RunStats.STORE_HITS, 1);
+           return hash;
+        }
+        return getDecodedFile().getContentHash();
+     }
+
+     /* @see AudioProcessableFiles.AudioProcessableBase#validateFile() */
+     public boolean validateFile()
+     {
+        // The file did not change since it was validated and stored
+        return isValidFile;
+     }
+
+     /* @see AudioProcessableFiles.AudioProcessableBase#getFileLength() */
+     public long getFileLength()
+     {
+        return store.getFileLength(filePath);
+     }
+
+     /* @see AudioProcessableFiles.AudioProcessableBase#getFileShortName() */
+     public String getFileShortName()
+     {
+        return audioFile.getName();
+     }
+  }
+
   private static class MP3AudioProcessableFile extends AudioProcessableBase 
   {
      // First 16bits of the header that contain the frame sync,
@@ -448,13 +1168,59 @@ public abstract class AudioProcessableFiles {
       private MP3AudioProcessableFile(String filePath) 
       {
          this.filePath = filePath;
-         fetchFileIntoFileInputStream();
+         this.sourcePath = filePath;
+         audioFile = new File(filePath);
          validateFile();
       }
+
+      /* @see AudioProcessableFiles.AudioProcessableBase#getSamples() */
       @Override
-      public float[] getSamples() 
+      public synchronized float[] getSamples() 
       {
-         return null;
+         if (!hasSamples())
+         {
+            long startTime = RunStats.startTimer();
+            SampleSource decoder = openSampleSource();
+            float[] decoded = new float[1 << 16];
+            int noOfSamples = 0;
+            int count;
+            while ((count = decoder.read(decoded, noOfSamples,
+            		decoded.length - noOfSamples)) > 0)
+            {
+               noOfSamples += count;
+               if (noOfSamples == decoded.length)
+               {
+                  float[] grown = new float[decoded.length * 2];
+                  System.arraycopy(decoded, 0, grown, 0, noOfSamples);
+                  decoded = grown;
+               }
+            }
+            decoder.close();
+            keepSamples(Arrays.copyOf(decoded, noOfSamples));
+            RunStats.record(RunStats.DECODE, startTime);
+         }
+         return getKeptSamples();
+      }
+      
+      /* @see AudioProcessableFile#openSampleSource() */
+      @Override
+      public synchronized SampleSource openSampleSource() 
+      {
+         if (hasSamples())
+         {
+            return openKeptSamples();
+         }
+         try
+         {
+            return toAnalysisRate(new MP3Decoder(FileHandles.open(
+            		audioFile)), samplingRate);
+         }
+         catch (FileNotFoundException e)
+         {
+            isValidFile = AssertTests.assertTrue(filePath + 
+            		" File not found", false);
+            return SampleSources.fromArray(new float[0]);
+         }
       }
       
       @Override
@@ -466,6 +1232,8 @@ public abstract class AudioProcessableFiles {
           * Verifying if it is Layer3 with/without CRC
           */
          if (!isValidFile()) return isValidFile;
+         FileInputStream audioFileInputStream = openAudioFile();
+         if (audioFileInputStream == null) return false;
          try
          {
             /**
@@ -528,7 +1296,7 @@ public abstract class AudioProcessableFiles {
             		 + ": Sampling Rate is invalid", samplingRateIndex != 3);
              if (!isValidFile) return false;
              
-             int samplingRate = samplingRateMap.get(samplingRateIndex);
+             samplingRate = samplingRateMap.get(samplingRateIndex);
 
              // Obtaining bit required for padding in header.
              int intPadding = byteRateFreqPad & 0x00000002;
@@ -566,21 +1334,33 @@ public abstract class AudioProcessableFiles {
             AssertTests.assertTrue(filePath + " Invalid File Header", false);
             return false;
          }
+         finally
+         {
+            // The samples are decoded through a stream of their own
+            FileHandles.close(audioFileInputStream);
+         }
          return true;
       }
       
+      /**
+       * hashContent : -> long
+       * @return long : The ContentHash of all the bytes of the file, as the
+       *                same frames always decode to the same samples
+       * @see AudioProcessableFiles.AudioProcessableBase#hashContent()
+       */
       @Override
-      public void compare(AudioProcessableFile fileToCmp) 
+      protected long hashContent()
       {
-         // Not needed file will e converted to WAV before comparison
+         ContentHash hash = new ContentHash(0);
+         return hashFileBytes(hash, 0, audioFile.length()) ? 
+        		 hash.digest() : 0;
       }
       
       @Override
       public long getFileLength() 
       {
-         // Returns 0 as this method will not be used
-         // as a valid MP3 will be converted to WAV
-         return 0;
+         // The compressed length, the samples are only known once decoded
+         return audioFile.length();
       }
       
       @Override
@@ -0,0 +1,181 @@
+/**
+ * class ClipLocator
+ * Description: Finds where a short clip occurs in a long recording through
+ * the normalized cross-correlation of their samples, calculated with the
+ * FFT by overlap-save.
+ *
+ * The FFT of the clip, zero padded to the block size N, is calculated once.
+ * The recording is streamed through blocks of N samples, each overlapping
+ * the previous one by m-1 samples, m being the length of the clip. For a
+ * block x the inverse FFT of X * conj(C) gives the correlation of the clip
+ * with the recording at the N-m+1 lags from the start of the block which do
+ * not wrap around, so every lag is calculated once. The cost is
+ * O(n log N) for a recording of n samples, with N about 2m.
+ *
+ * The score at a lag is the correlation divided by the norms of the clip
+ * and of the m samples of the recording at that lag, i.e. the cosine of
+ * the angle between them: 1 if the recording is the clip there, scaled by
+ * any positive gain.
+ */
+public class ClipLocator
+{
+  // Constants
+  // The smallest block, so that short clips do not need many small FFTs
+  private static final int MIN_BLOCK_SIZE = 1 << 16;
+  // Windows of the recording with less energy than this are silence
+  private static final double SILENCE = 1e-12;
+
+  private final int clipLength;
+  private final int blockSize;
+  private final double clipNorm;
+  // The bins 0 to N/2 of the FFT of the zero padded clip
+  private final double[] clipReal;
+  private final double[] clipImag;
+
+  /**
+   * Constructor: float[] -> ClipLocator
+   * @param clip : The samples of the clip to look for, at least one
+   * @Effect: The constructor implicitly returns an instance of ClipLocator
+   *          which has calculated the FFT of 'clip'
+   */
+  ClipLocator(float[] clip)
+  {
+    clipLength = clip.length;
+    blockSize = Math.max(MIN_BLOCK_SIZE,
+    		2 * FFT.getNearestPowerOfTwo(clipLength));
+    clipReal = new double[FFT.getNoOfBins(blockSize)];
+    clipImag = new double[FFT.getNoOfBins(blockSize)];
+    double sumOfSquares = 0;
+    for(int i = 0; i<clipLength; i++)
+    {
+      sumOfSquares += (double) clip[i] * clip[i];
+      if((i & 1) == 0)
+        clipReal[i >> 1] = clip[i];
+      else
+        clipImag[i >> 1] = clip[i];
+    }
+    clipNorm = Math.sqrt(sumOfSquares);
+    FFT.performRealFFT(clipReal, clipImag, blockSize);
+  }
+
+  /**
+   * locate : SampleSource -> Location
+   * @param recording : The source of the samples of the recording, at the
+   *                    same sampling rate as the clip
+   * @return Location : The lag at which the clip has the highest score in
+   *                    'recording', with the clip entirely inside it. Its
+   *                    offset is -1 if the recording is shorter than the
+   *                    clip.
+   */
+  public Location locate(SampleSource recording)
+  {
+    int newLags = blockSize - clipLength + 1;
+    float[] block = new float[blockSize];
+    double[] real = new double[FFT.getNoOfBins(blockSize)];
+    double[] imag = new double[FFT.getNoOfBins(blockSize)];
+    double[] energies = new double[blockSize + 1];
+    Location best = new Location();
+    long blockStart = 0;
+    int inBlock = 0;
+    boolean endOfRecording = false;
+    while(true)
+    {
+      while(!endOfRecording && inBlock < blockSize)
+      {
+        int count = recording.read(block, inBlock, blockSize - inBlock);
+        if(count < 0)
+          endOfRecording = true;
+        else
+          inBlock += count;
+      }
+      int lags = Math.min(newLags, inBlock - clipLength + 1);
+      if(lags <= 0)
+        break;
+      correlate(block, inBlock, real, imag);
+      // energies[i] is the energy of the first i samples of the block
+      for(int i = 0; i<inBlock; i++)
+        energies[i + 1] = energies[i] + (double) block[i] * block[i];
+      for(int lag = 0; lag<lags; lag++)
+      {
+        double energy = energies[lag + clipLength] - energies[lag];
+        if(energy < SILENCE || clipNorm == 0)
+          continue;
+        double correlation = (lag & 1) == 0 ? real[lag >> 1] : imag[lag >> 1];
+        double score = correlation / (clipNorm * Math.sqrt(energy));
+        if(score > best.score)
+        {
+          best.score = score;
+          best.offset = blockStart + lag;
+        }
+      }
+      if(endOfRecording && lags < newLags)
+        break;
+      // The samples the next lags still need stay in the block
+      System.arraycopy(block, newLags, block, 0, inBlock - newLags);
+      inBlock -= newLags;
+      blockStart += newLags;
+    }
+    return best;
+  }
+
+  /**
+   * correlate : float[], int, double[], double[] -> void
+   * @param block : The samples of a block of the recording
+   * @param inBlock : The number of samples in 'block', the rest being 0
+   * @effect : Writes the circular correlation of the clip with 'block' into
+   *           'real' and 'imag', packed as FFT.performInverseRealFFT leaves
+   *           it: lag 2n in 'real' and lag 2n+1 in 'imag' at index n
+   */
+  private void correlate(float[] block, int inBlock, double[] real,
+		  double[] imag)
+  {
+    for(int i = 0; i<blockSize; i += 2)
+    {
+      real[i >> 1] = i < inBlock ? block[i] : 0;
+      imag[i >> 1] = i + 1 < inBlock ? block[i + 1] : 0;
+    }
+    FFT.performRealFFT(real, imag, blockSize);
+    for(int bin = 0; bin<real.length; bin++)
+    {
+      // X * conj(C)
+      double productReal = real[bin] * clipReal[bin] +
+    		  imag[bin] * clipImag[bin];
+      double productImag = imag[bin] * clipReal[bin] -
+    		  real[bin] * clipImag[bin];
+      real[bin] = productReal;
+      imag[bin] = productImag;
+    }
+    FFT.performInverseRealFFT(real, imag, blockSize);
+  }
+
+  /**
+   * class Location
+   * Description: Where a clip was found in a recording
+   */
+  static class Location
+  {
+    // The index of the sample of the recording where the clip starts
+    long offset = -1;
+    // The normalized cross-correlation there, at most 1
+    double score = 0;
+
+    /**
+     * getOffset : -> long
+     * @return long : The index of the sample of the recording where the
+     *                clip starts, -1 if it was not found
+     */
+    long getOffset()
+    {
+      return offset;
+    }
+
+    /**
+     * getScore : -> double
+     * @return double : The normalized cross-correlation at the offset
+     */
+    double getScore()
+    {
+      return score;
+    }
+  }
+}
@@ -11,23 +11,49 @@ public class CommandLineArgsParser
    * If not valid prints standard error and exits with status other than 0.
    */
   public static void validateCommand(String[] args, String pattern)
+  {
+    AssertTests.assertTrue("incorrect command line", 
+    		isValidCommand(args, pattern), true);
+  }
+
+  /**
+   * static isValidCommand : String[], String -> boolean
+   * @param args : The arguments of a command
+   * @param pattern : The pattern against which to evaluate 'args'
+   * @return boolean : true iff 'args' match 'pattern'
+   */
+  public static boolean isValidCommand(String[] args, String pattern)
   {
     CommandLineArgsParser cp = new CommandLineArgsParser();
-    cp.validateCommandLineArgs(args, pattern);
+    return cp.validateCommandLineArgs(args, pattern);
+  }
+
+  /**
+   * static splitLine : String -> String[]
+   * @param line : A command written on one line, e.g. sent to a DamServer
+   * @return String[] : The arguments of 'line', separated by tabs if it
+   *                    has any (so that paths may contain spaces), else by
+   *                    spaces
+   */
+  public static String[] splitLine(String line)
+  {
+    String trimmed = line.trim();
+    if(trimmed.isEmpty())
+      return new String[0];
+    return trimmed.split(trimmed.indexOf('\t') >= 0 ? "\t+" : " +");
   }
     	
   /**
-   * validateCommandLineArgs : String[] -> void
+   * validateCommandLineArgs : String[] -> boolean
    * @param args : the command line arguments
-   * @effect: Validates the 'args' against the instance variable 'pattern', 
-   * If not valid prints standard error and exits with status other than 0.
+   * @return boolean : true iff the 'args' match the 'pattern'
    * Assumptions: Splits the pattern by " "
    * a) if any splitted sub pattern has '-',
    *    assumes that the args at that index should be same as this sub pattern
    * b) if any splitted sub pattern has '<'
    *    assumes that it is a value and does not checks it  
    */
-  private void validateCommandLineArgs(String[] args, String pattern)
+  private boolean validateCommandLineArgs(String[] args, String pattern)
   {
     boolean validArgs = true;
     String[] splittedPattern = pattern.split(" ");
@@ -55,6 +81,6 @@ public class CommandLineArgsParser
         }
       }
     }
-    AssertTests.assertTrue("incorrect command line", validArgs, true);
+    return validArgs;
   }
 }
\ No newline at end of file
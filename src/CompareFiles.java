@@ -1,25 +1,106 @@
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Class: CompareFiles: This class processes the paths of files/directories 
  * provided to us, gets those files and stores it in an array. The 2 array's 
  * that we get (1 array for the first path provided, if valid and the 2nd 
  * array for the second path, if valid) are then converted to 
- * AudioProcessableFiles type and stored in a 
- * HashMap<String, AudioProcessableFile> where the String corresponds to the
- * file path and AudioProcessableFile is the file present following the path.
- * We then compare the files and print the appropriate message.
+ * AudioProcessableFiles type and kept in a FileCache by file path, within
+ * the bytes asked for through the "--cache" option.
+ * We then compare the files and print the appropriate message. Once the
+ * files do not all fit in the cache, the files of the first path are taken
+ * in blocks which fill about half of it, so that every file of the second
+ * path is processed once per block rather than once per file, and every
+ * other block goes through the second path backwards, starting with the
+ * files the previous block used last, which the cache still keeps. The
+ * files in use are never evicted.
  * 
+ * If more than one thread is asked for through the "-t" option, the files
+ * go through a pipeline: they are loaded, transformed and compared in
+ * stages which run at the same time on worker threads and are connected by
+ * bounded queues. The MATCH messages are still printed in the same order as
+ * the sequential run would print them. The pipeline keeps every file till
+ * all the pairs are compared.
+ * 
+ * If the "--fingerprint" option is given, the files of the second path are
+ * put into a FingerprintIndex and every file of the first path is looked up
+ * in it, instead of being compared with every file of the second path.
+ * If the "--stft" option is given, every pair is compared frame by frame
+ * and no whole file FFT is calculated.
+ * If the "--store" option is given, the spectra and landmarks are read from
+ * and saved to a SpectrumStore.
+ * If the "--prefilter" option is given, every pair first goes through the
+ * cheap tests of a Prefilter and only the pairs it passes are compared,
+ * so the FFTs of the files no pair needs are never calculated. Without
+ * "-t", the files of the first path are put in buckets by the size of
+ * their FFT first, and a file of the second path is only paired with the
+ * files of its bucket.
+ * If the "--locate" option is given, every file of the first path is
+ * looked for inside every file of the second path by cross-correlation
+ * (see ClipLocator), and the time where it is found is printed.
+ * If the "--stats" option is given, the RunStats of the run are printed on
+ * standard error at the end.
+ *
+ * If the "--batch" option is given, the pairs of files listed in a manifest
+ * are compared one by one instead (see compareManifest), and a result is
+ * printed for every pair as soon as it is decided.
+ * A DamServer keeps one CompareFiles for all its requests, so the files
+ * processed by a request, with their samples and spectra, are reused by
+ * the next ones until they change or are evicted.
+ * If the "--offheap" option is given, the samples and spectra are kept in
+ * an OffHeapArena, and an evicted file gives its memory back at once.
+ * At most "--max-open" audio files are open at any time (see FileHandles).
+ * If the "-r" option is given, the directories are scanned with their
+ * subdirectories for audio files (see DirectoryScanner), and without "-t",
+ * "--fingerprint" or "--locate" the files of the second directory are
+ * compared as soon as they are found, so the MATCH messages come in the
+ * order the files of the second directory are found, and for each of them
+ * in the order of the files of the first path.
+ * If the "--dedupe" option is given with the same directory twice, its
+ * files are grouped by matching each one only with the first file of
+ * every group found before it, and one line is printed per group.
  *
  */
 
 public class CompareFiles 
 {
-	 Map<String, AudioProcessableFile> filesProcessed;
+	 // Marks the end of the paths going through the queues of the pipeline
+	 private static final String END_OF_FILES = new String("");
+	 // The lowest score at which a clip is found in a recording
+	 private static final double LOCATE_MATCH_SCORE = 0.9;
+	 
+	 // The files processed so far by path
+	 FileCache filesProcessed;
+	 // The cascade of tests the pairs go through first, null if not asked for
+	 private Prefilter prefilter = null;
+	 // Held to read while a pair of the batch is compared, and to write
+	 // while files are evicted, so that no file is released in use
+	 private final ReadWriteLock fileUse = new ReentrantReadWriteLock();
 	 
 	 /**
 	  * CompareFiles: String[] -> void
@@ -28,13 +109,274 @@ public class CompareFiles
 	  * prints the appropriate message.
 	  */
 	 CompareFiles(String[] args)
+	 {
+		  this();
+		  compare(args);
+		  finish();
+	 }
+	 
+	 /**
+	  * CompareFiles: -> void
+	  * @effect: Sets up the comparison of files as the options of the run
+	  * ask for, without comparing any.
+	  */
+	 CompareFiles()
+	 {
+		  if(RunOptions.isSet("--stats"))
+			   RunStats.enable();
+		  filesProcessed = new FileCache(RunOptions.getCacheBytes());
+		  if(RunOptions.isSet("--offheap"))
+			   OffHeapArena.open(RunOptions.getOffHeapBytes());
+		  FileHandles.setMaxOpen(RunOptions.getMaxOpenFiles());
+		  if(RunOptions.isSet("--store"))
+			   SpectrumStore.open(RunOptions.getString("--store", null));
+		  if(RunOptions.isSet("--prefilter") && 
+				  !RunOptions.isSet("--fingerprint") && !RunOptions.isSet("--stft"))
+			   prefilter = new Prefilter(RunOptions.getString("--prefilter", 
+					   "all"), RunOptions.getThreshold());
+	 }
+	 
+	 /**
+	  * compare: String[] -> void
+	  * @param args : "-f|-d <pathname> -f|-d <pathname>"
+	  * @effect: Compares the files of the two paths as the options of the
+	  * run ask for and prints the appropriate messages.
+	  */
+	 void compare(String[] args)
 	 {
 		  File[] firstPathFiles;
 		  File[] secondPathFiles;
+		  if(RunOptions.isSet("--dedupe"))
+		  {
+			   AssertTests.assertTrue("incorrect command line : --dedupe needs"
+					   + " the same directory twice", args[0].equals("-d") &&
+					   args[2].equals("-d") && isSameFile(args[1], args[3]),
+					   true);
+			   dedupeFiles(parseArgAndPath(args[0], args[1]));
+			   return;
+		  }
 		  firstPathFiles = parseArgAndPath(args[0], args[1]);
+		  int threads = RunOptions.getThreads();
+		  if(RunOptions.isSet("-r") && args[2].equals("-d") && threads <= 1 &&
+				  !RunOptions.isSet("--locate") && 
+				  !RunOptions.isSet("--fingerprint"))
+		  {
+			   compareAllFilesAsFound(firstPathFiles, scanDirectory(args[3]));
+			   return;
+		  }
 		  secondPathFiles = parseArgAndPath(args[2], args[3]);
-		  filesProcessed = new HashMap<String, AudioProcessableFile>();
-		  compareAllFiles(firstPathFiles,secondPathFiles);	
+		  if(RunOptions.isSet("--locate"))
+		  {
+			   locateAllFiles(firstPathFiles, secondPathFiles);
+		  }
+		  else if(RunOptions.isSet("--fingerprint"))
+		  {
+			   compareAllFilesByFingerprint(firstPathFiles, secondPathFiles);
+		  }
+		  else if(threads > 1)
+		  {
+			   compareAllFilesInPipeline(firstPathFiles, secondPathFiles,
+					   threads);
+		  }
+		  else
+		  {
+			   compareAllFiles(firstPathFiles,secondPathFiles);
+		  }
+	 }
+	 
+	 /**
+	  * compareManifest: String -> void
+	  * @param manifestPath: The path of the manifest, "-" for standard input
+	  * @effect: Reads the manifest a line at a time, every line being the
+	  * paths of two files separated by a tab or, if there is none, by
+	  * spaces, and compares the two files of every line as the run without
+	  * "--fingerprint" or "--locate" would. Prints "MATCH", "NO MATCH" or
+	  * "ERROR" followed by the two paths as soon as the pair is decided,
+	  * with "-t" threads in the order the pairs are decided. Empty lines
+	  * and lines starting with '#' are skipped. The files are shared by all
+	  * the pairs, the least recently used being evicted after a pair once
+	  * the "--cache" bytes are reached. A file which cannot be processed
+	  * only ends its pair.
+	  */
+	 void compareManifest(String manifestPath)
+	 {
+		  BufferedReader manifest = null;
+		  try
+		  {
+			   manifest = new BufferedReader(new InputStreamReader(
+					   manifestPath.equals("-") ? System.in : 
+						   new FileInputStream(manifestPath), "UTF-8"));
+		  }
+		  catch(IOException e)
+		  {
+			   AssertTests.assertTrue(manifestPath + ":Invalid Manifest", 
+					   false, true);
+		  }
+		  int threads = RunOptions.getThreads();
+		  // The reading of the manifest waits while every thread is busy
+		  // and 'threads' pairs wait for one
+		  ExecutorService comparers = threads <= 1 ? null : 
+			  new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+					  new ArrayBlockingQueue<Runnable>(threads),
+					  new ThreadPoolExecutor.CallerRunsPolicy());
+		  AssertTests.setExitOnFatalError(false);
+		  try
+		  {
+			   String line;
+			   int lineCount = 0;
+			   while((line = manifest.readLine()) != null)
+			   {
+				    lineCount++;
+				    final String[] pair = CommandLineArgsParser.splitLine(line);
+				    if(pair.length == 0 || pair[0].startsWith("#"))
+					     continue;
+				    if(!AssertTests.assertTrue("incorrect manifest line " + 
+						    lineCount + " : " + line, pair.length == 2))
+					     continue;
+				    Runnable comparison = new Runnable()
+				    {
+					     public void run()
+					     {
+						      comparePair(pair[0], pair[1]);
+						      trimCache();
+					     }
+				    };
+				    if(comparers == null)
+					     comparison.run();
+				    else
+					     comparers.execute(comparison);
+			   }
+			   if(comparers != null)
+			   {
+				    comparers.shutdown();
+				    comparers.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+			   }
+		  }
+		  catch(IOException e)
+		  {
+			   AssertTests.assertTrue(manifestPath + " could not be read : " + e,
+					   false);
+		  }
+		  catch(InterruptedException e)
+		  {
+			   AssertTests.assertTrue("Comparison interrupted", false);
+			   Thread.currentThread().interrupt();
+		  }
+		  finally
+		  {
+			   if(comparers != null)
+				    comparers.shutdownNow();
+			   AssertTests.setExitOnFatalError(true);
+		  }
+	 }
+	 
+	 /**
+	  * comparePair: String String -> void
+	  * @param file1Path: The path of the first file of a pair
+	  * @param file2Path: The path of the second file of the pair
+	  * @effect: Compares the two files and prints the result of the pair.
+	  */
+	 private void comparePair(String file1Path, String file2Path)
+	 {
+		  String result = "ERROR";
+		  fileUse.readLock().lock();
+		  try
+		  {
+			   AudioProcessableFile path1File = getProcessableFile(file1Path);
+			   AudioProcessableFile path2File = getProcessableFile(file2Path);
+			   if(path1File != null && path2File != null)
+				    result = (prefilter == null || 
+				    prefilter.passes(path1File, path2File)) && 
+				    path1File.matches(path2File) ? "MATCH" : "NO MATCH";
+		  }
+		  catch(AssertTests.FatalError e)
+		  {
+			   // Its message was printed, only the pair ends
+		  }
+		  catch(RuntimeException e)
+		  {
+			   AssertTests.assertTrue("Processing failed : " + e, false);
+		  }
+		  finally
+		  {
+			   fileUse.readLock().unlock();
+		  }
+		  AudioProcessableFiles.printResult(result, file1Path, file2Path);
+	 }
+	 
+	 /**
+	  * finish: -> void
+	  * @effect: Prints the reports asked for, writes the SpectrumStore and
+	  * exits with the status of the run.
+	  */
+	 void finish()
+	 {
+		  if(prefilter != null)
+			   prefilter.printReport();
+		  SpectrumStore.closeOpenStore();
+		  if(RunStats.isEnabled())
+			   RunStats.printJSON();
+		  AssertTests.exitWithValidStatus();
+	 }
+	 
+	 /**
+	  * printReports: -> void
+	  * @effect: Prints the report of the prefilter and the RunStats, if
+	  * asked for, on standard error.
+	  */
+	 void printReports()
+	 {
+		  if(prefilter != null)
+			   prefilter.printReport();
+		  if(RunStats.isEnabled())
+			   RunStats.printJSON();
+	 }
+	 
+	 /**
+	  * evictChangedFiles: -> void
+	  * @effect: Drops the processed files whose size or last modified time
+	  * changed since they were processed, so that they are processed again.
+	  */
+	 void evictChangedFiles()
+	 {
+		  release(filesProcessed.evictChanged());
+	 }
+	 
+	 /**
+	  * trimCache: String[] -> void
+	  * @param pinned: The paths of the files still in use
+	  * @effect: Drops the least recently used processed files other than
+	  * the 'pinned' ones till the bytes they take are within the "--cache"
+	  * bytes. Only called between two comparisons, as a comparison expects
+	  * the files it processed to stay.
+	  */
+	 void trimCache(String... pinned)
+	 {
+		  release(filesProcessed.trim(pinned));
+	 }
+	 
+	 /**
+	  * release: List<AudioProcessableFile> -> void
+	  * @effect: Forgets what the prefilter extracted from the 'evicted'
+	  * files, and releases them once no pair uses them.
+	  */
+	 private void release(List<AudioProcessableFile> evicted)
+	 {
+		  if(evicted.isEmpty())
+			   return;
+		  if(prefilter != null)
+			   for(AudioProcessableFile f : evicted)
+				    prefilter.forget(f);
+		  fileUse.writeLock().lock();
+		  try
+		  {
+			   for(AudioProcessableFile f : evicted)
+				    f.release();
+		  }
+		  finally
+		  {
+			   fileUse.writeLock().unlock();
+		  }
 	 }
 	 
 	 /**
@@ -75,7 +417,9 @@ public class CompareFiles
 	  * validateDirAndGetFiles: Sting -> File[]
 	  * @param : path corresponding to -d
 	  * @return : checks if the path corresponds to a directory, if yes 
-	  * gets all the files present in the directory.
+	  * gets all the files present in the directory, or with "-r" the audio
+	  * files of the directory and of its subdirectories (see
+	  * DirectoryScanner).
 	  */
 	 private File[] validateDirAndGetFiles(String path)
 	 {
@@ -90,6 +434,8 @@ public class CompareFiles
 						   true);
 		    	 return null;
 			   }
+			   if(RunOptions.isSet("-r"))
+				    return scanDirectory(path).listAll();
 			   listOfFiles = dirOfFiles.listFiles();
 		  }
 		  else
@@ -101,6 +447,156 @@ public class CompareFiles
 		  return listOfFiles;
 	 }
 	  
+	 /**
+	  * scanDirectory: String -> DirectoryScanner
+	  * @param : path corresponding to -d
+	  * @return : the scan of the audio files of the directory and of its
+	  * subdirectories, started, if the path corresponds to a directory.
+	  */
+	 private DirectoryScanner scanDirectory(String path)
+	 {
+		  AssertTests.assertTrue(path+":Invalid Directory", 
+				  new File(path).isDirectory(), true);
+		  return new DirectoryScanner(path, filesProcessed);
+	 }
+	 
+	 /**
+	  * compareAllFilesAsFound: File[] DirectoryScanner -> void
+	  * @param: firstPathNameFiles, files corresponding to the first pathname 
+	  * @param: secondPathScanner, the scan of the directory of the second
+	  * pathname
+	  * @effect: Same as compareAllFiles, but compares every file of the
+	  * second path with all the files of the first path as soon as the scan
+	  * finds it, and prints its matches then, so the first matches of a
+	  * large tree come before it is all scanned. The files of the first
+	  * path are kept in the cache till the end.
+	  */
+	 private void compareAllFilesAsFound(File[] firstPathNameFiles,
+			 DirectoryScanner secondPathScanner)
+	 {
+		  int NoOfFilesInPath1 = firstPathNameFiles.length;
+		  AudioProcessableFile[] path1Files = 
+				  new AudioProcessableFile[NoOfFilesInPath1];
+		  // The files of the first path and the file of the second path in use
+		  String[] pinned = new String[NoOfFilesInPath1 + 1];
+		  for(int path1Count=0; path1Count<NoOfFilesInPath1; path1Count++)
+		  {
+			   pinned[path1Count] = firstPathNameFiles[path1Count].getPath();
+			   path1Files[path1Count] = getProcessableFile(pinned[path1Count]);
+		  }
+		  Map<Integer, List<Integer>> rowsByBucket = getRowsByBucket(path1Files);
+		  try
+		  {
+			   File file2;
+			   while((file2 = secondPathScanner.next()) != null)
+			   {
+				    pinned[NoOfFilesInPath1] = file2.getPath();
+				    AudioProcessableFile path2File = 
+						    getProcessableFile(file2.getPath());
+				    for(int path1Count : getRowsToCompare(rowsByBucket, path2File))
+				    {
+					     AudioProcessableFile path1File = path1Files[path1Count];
+					     if(prefilter != null && !prefilter.passes(path1File, path2File))
+						      continue;
+					     if(path1File.matches(path2File))
+						      AudioProcessableFiles.printMatch(path1File, path2File);
+				    }
+				    trimCache(pinned);
+			   }
+		  }
+		  finally
+		  {
+			   secondPathScanner.close();
+		  }
+	 }
+	 
+	 /**
+	  * isSameFile: String String -> boolean
+	  * @param path1: A path
+	  * @param path2: Another path
+	  * @return: true iff both paths lead to the same file or directory
+	  */
+	 private boolean isSameFile(String path1, String path2)
+	 {
+		  try
+		  {
+			   return new File(path1).getCanonicalFile().equals(
+					   new File(path2).getCanonicalFile());
+		  }
+		  catch(IOException e)
+		  {
+			   return false;
+		  }
+	 }
+	 
+	 /**
+	  * dedupeFiles: File[] -> void
+	  * @param: files, the files of the directory given twice
+	  * @effect: Groups the files which match each other and prints one
+	  * MATCH line per group of more than one file, with the short names of
+	  * its files. Every file is compared only with the first file of every
+	  * group found before it, never with itself nor twice with the same
+	  * file, so a directory of n files in g groups takes about n * g
+	  * comparisons instead of n * n. A file matching the first files of
+	  * several groups joins them into one (see DuplicateGroups). The first
+	  * files of the groups are gone through forwards and backwards in turn,
+	  * as in compareAllFiles, so that a cache too small for all of them
+	  * still keeps the ones compared next.
+	  */
+	 private void dedupeFiles(File[] files)
+	 {
+		  int noOfFiles = files.length;
+		  DuplicateGroups groups = new DuplicateGroups(noOfFiles);
+		  String[] shortNames = new String[noOfFiles];
+		  // The indices of the first files of the groups found so far
+		  List<Integer> firstFiles = new ArrayList<Integer>();
+		  boolean backwards = true;
+		  for(int fileCount=0; fileCount<noOfFiles; fileCount++)
+		  {
+			   String path = files[fileCount].getPath();
+			   AudioProcessableFile file = getProcessableFile(path);
+			   if(file == null)
+				    continue;
+			   shortNames[fileCount] = file.getFileShortName();
+			   // The first files used last, which the cache still keeps,
+			   // are compared first
+			   backwards = !backwards;
+			   int noOfFirstFiles = firstFiles.size();
+			   for(int step=0; step<noOfFirstFiles; step++)
+			   {
+				    int firstFile = firstFiles.get(backwards ? 
+						    noOfFirstFiles - 1 - step : step);
+				    AudioProcessableFile groupFile = 
+						    getProcessableFile(files[firstFile].getPath());
+				    if(groupFile == null)
+					     continue;
+				    if(prefilter != null && !prefilter.passes(groupFile, file))
+					     continue;
+				    if(groupFile.matches(file))
+					     groups.union(firstFile, fileCount);
+				    trimCache(path);
+			   }
+			   // The groups joined by the file keep only their first file
+			   Iterator<Integer> firstFilesLeft = firstFiles.iterator();
+			   while(firstFilesLeft.hasNext())
+			   {
+				    int firstFile = firstFilesLeft.next();
+				    if(groups.find(firstFile) != firstFile)
+					     firstFilesLeft.remove();
+			   }
+			   if(groups.find(fileCount) == fileCount)
+				    firstFiles.add(fileCount);
+			   trimCache(path);
+		  }
+		  for(List<Integer> group : groups.getGroups())
+		  {
+			   String[] groupNames = new String[group.size()];
+			   for(int member=0; member<groupNames.length; member++)
+				    groupNames[member] = shortNames[group.get(member)];
+			   AudioProcessableFiles.printGroup(groupNames);
+		  }
+	 }
+	 
 	 /**
 	  * compareAllFiles: File[] File[] -> void
 	  * @param: firstPathNameFiles, files corresponding to the first pathname 
@@ -108,73 +604,579 @@ public class CompareFiles
 	  * pathname
 	  * @effect: Converts the files to AudioProcessableFile type and compares
 	  * each AudioProcessableFile obtained from the first path with each
-	  * AudioProcessableFile obtained from the second path. 
+	  * AudioProcessableFile obtained from the second path. The files of the
+	  * first path are taken in blocks, which are compared with the files of
+	  * the second path forwards and backwards in turn, trimming the cache
+	  * after every file of the second path. The matches of a block are
+	  * printed in the order of the sequential run once it is done.
 	  */
 	 private void compareAllFiles(File[] firstPathNameFiles,File[] secondPathNameFiles)
 	 {
 		  int NoOfFilesInPath1 = firstPathNameFiles.length;
 		  int NoOfFilesInPath2 = secondPathNameFiles.length;
-		  for(int path1Count=0; path1Count<NoOfFilesInPath1; path1Count++)
+		  int rowsPerBlock = 1;
+		  boolean backwards = true;
+		  int rows;
+		  for(int blockStart=0; blockStart<NoOfFilesInPath1; blockStart+=rows)
 		  {
-			   String file1Path = firstPathNameFiles[path1Count].getPath();
-			   AudioProcessableFile path1File = getProcessableFile(file1Path);
-			   if(path1File==null)
-				   continue;
-			   for(int path2Count=0; path2Count<NoOfFilesInPath2;path2Count++)
+			   rows = Math.min(rowsPerBlock, NoOfFilesInPath1 - blockStart);
+			   AudioProcessableFile[] path1Files = new AudioProcessableFile[rows];
+			   AudioProcessableFile[] path2Files = 
+					   new AudioProcessableFile[NoOfFilesInPath2];
+			   boolean[][] matches = new boolean[rows][NoOfFilesInPath2];
+			   // The files of the block and the file of the second path in use
+			   String[] pinned = new String[rows + 1];
+			   for(int row=0; row<rows; row++)
 			   {
-				    String file2Path = secondPathNameFiles[path2Count].getPath();
-				    AudioProcessableFile path2File = 
-						  getProcessableFile(file2Path);
-				    if(path2File==null)
-					    continue;
-				    path1File.compare(path2File);
+				    pinned[row] = firstPathNameFiles[blockStart + row].getPath();
+				    path1Files[row] = getProcessableFile(pinned[row]);
+			   }
+			   Map<Integer, List<Integer>> rowsByBucket = 
+					   getRowsByBucket(path1Files);
+			   backwards = !backwards;
+			   boolean isTrimmed = false;
+			   for(int step=0; step<NoOfFilesInPath2; step++)
+			   {
+				    int path2Count = backwards ? NoOfFilesInPath2 - 1 - step : step;
+				    pinned[rows] = secondPathNameFiles[path2Count].getPath();
+				    AudioProcessableFile path2File = getProcessableFile(pinned[rows]);
+				    path2Files[path2Count] = path2File;
+				    for(int row : getRowsToCompare(rowsByBucket, path2File))
+				    {
+					     AudioProcessableFile path1File = path1Files[row];
+					     if(prefilter != null && !prefilter.passes(path1File, path2File))
+						      continue;
+					     matches[row][path2Count] = path1File.matches(path2File);
+				    }
+				    List<AudioProcessableFile> evicted = filesProcessed.trim(pinned);
+				    isTrimmed |= !evicted.isEmpty();
+				    release(evicted);
 			   }
+			   for(int row=0; row<rows; row++)
+				    for(int path2Count=0; path2Count<NoOfFilesInPath2; path2Count++)
+					     if(matches[row][path2Count])
+						      AudioProcessableFiles.printMatch(path1Files[row], 
+								      path2Files[path2Count]);
+			   // While all the files fit in the cache a block is one file
+			   if(isTrimmed)
+				    rowsPerBlock = getRowsPerBlock(path1Files);
 		  }
-		  deleteAllMp3Files();
-		  AssertTests.exitWithValidStatus();
 	 }
 	 
 	 /**
-	  * getProcessableFile: String -> AudioProcessableFile
-	  * @param filePath: Place where the required file is stored
-	  * @return: AudioProcessibleFile of the given file, also the file 
-	  * is added to the HashMap.
+	  * getRowsByBucket: AudioProcessableFile[] -> Map<Integer, List<Integer>>
+	  * @param path1Files: Files of the first path, null for the invalid ones
+	  * @return: The indices of the valid 'path1Files' by the bucket of the
+	  * prefilter they are in (see Prefilter.getBucket), all in bucket 0
+	  * without a prefilter.
 	  */
-	 private AudioProcessableFile getProcessableFile(String filePath)
+	 private Map<Integer, List<Integer>> getRowsByBucket(
+			 AudioProcessableFile[] path1Files)
+	 {
+		  Map<Integer, List<Integer>> rowsByBucket = 
+				  new HashMap<Integer, List<Integer>>();
+		  for(int row=0; row<path1Files.length; row++)
+		  {
+			   if(path1Files[row] == null)
+				    continue;
+			   int bucket = prefilter == null ? 0 : 
+				   prefilter.getBucket(path1Files[row]);
+			   if(!rowsByBucket.containsKey(bucket))
+				    rowsByBucket.put(bucket, new ArrayList<Integer>());
+			   rowsByBucket.get(bucket).add(row);
+		  }
+		  return rowsByBucket;
+	 }
+	 
+	 /**
+	  * getRowsToCompare: Map<Integer, List<Integer>> AudioProcessableFile
+	  * -> List<Integer>
+	  * @param rowsByBucket: The files of the first path by bucket, as
+	  * returned by getRowsByBucket
+	  * @param path2File: A file of the second path, null if it is invalid
+	  * @return: The indices of the files of the first path in the bucket of
+	  * 'path2File', in order, the only ones it can match. The pairs with
+	  * the files of the other buckets are counted by the prefilter but
+	  * never visited.
+	  */
+	 private List<Integer> getRowsToCompare(
+			 Map<Integer, List<Integer>> rowsByBucket, 
+			 AudioProcessableFile path2File)
+	 {
+		  if(path2File == null)
+			   return Collections.emptyList();
+		  int bucket = prefilter == null ? 0 : prefilter.getBucket(path2File);
+		  List<Integer> rows = rowsByBucket.get(bucket);
+		  if(rows == null)
+			   rows = Collections.emptyList();
+		  if(prefilter != null)
+		  {
+			   int noOfRows = 0;
+			   for(List<Integer> bucketRows : rowsByBucket.values())
+				    noOfRows += bucketRows.size();
+			   prefilter.countBucketed(noOfRows - rows.size());
+		  }
+		  return rows;
+	 }
+	 
+	 /**
+	  * getRowsPerBlock: AudioProcessableFile[] -> int
+	  * @param path1Files: The files of the first path of the last block
+	  * @return: The number of files of the first path which take about half
+	  * the bytes of the cache, if they take as many as the 'path1Files' on
+	  * average, at least 1. The other half is left to the files of the
+	  * second path the block is compared with.
+	  */
+	 private int getRowsPerBlock(AudioProcessableFile[] path1Files)
 	 {
-		  AudioProcessableFile f = filesProcessed.get(filePath);
-	 	 if(f == null)
-	 	 {
-			   f = AudioProcessableFiles.make(filePath);
-			   filesProcessed.put(filePath, f);
+		  long bytes = 0;
+		  int files = 0;
+		  for(AudioProcessableFile path1File : path1Files)
+		  {
+			   if(path1File == null)
+				    continue;
+			   bytes += path1File.getMemorySize();
+			   files++;
 		  }
-		  return f;
+		  if(bytes == 0)
+			   return 1;
+		  long rows = filesProcessed.getBudget() / 2 / (bytes / files);
+		  return (int) Math.max(1, Math.min(Integer.MAX_VALUE, rows));
 	 }
 	 
 	 /**
-	 * deleteAllMp3Files : -> void
-	 * @effect: Deletes all the files created in the '/tmp' directory
-	 */
-	 private void deleteAllMp3Files()
+	  * compareAllFilesByFingerprint: File[] File[] -> void
+	  * @param: firstPathNameFiles, files corresponding to the first pathname 
+	  * @param: secondPathNameFiles, files corresponding to the second
+	  * pathname
+	  * @effect: Adds the landmarks of every AudioProcessableFile of the
+	  * second path to a FingerprintIndex, then looks up the landmarks of
+	  * every AudioProcessableFile of the first path in the index and prints
+	  * the appropriate message for the files of the second path it matches.
+	  */
+	 private void compareAllFilesByFingerprint(File[] firstPathNameFiles,
+			 File[] secondPathNameFiles)
 	 {
-		  Iterator<Entry<String, AudioProcessableFile>> mapIterator = 
-				  filesProcessed.entrySet().iterator();
-		  while(mapIterator.hasNext())
+		  FingerprintIndex index = new FingerprintIndex();
+		  List<AudioProcessableFile> indexedFiles = 
+				  new ArrayList<AudioProcessableFile>();
+		  for(File file2 : secondPathNameFiles)
+		  {
+			   AudioProcessableFile path2File = 
+					   getProcessableFile(file2.getPath());
+			   if(path2File == null)
+				    continue;
+			   index.add(path2File.getLandmarks());
+			   indexedFiles.add(path2File);
+			   trimCache();
+		  }
+		  for(File file1 : firstPathNameFiles)
 		  {
-			   Map.Entry<String, AudioProcessableFile> currentPath = 
-					   (Entry<String, AudioProcessableFile>) mapIterator.next();
-			
-			   if(currentPath.getKey().endsWith(".mp3"))
+			   AudioProcessableFile path1File = 
+					   getProcessableFile(file1.getPath());
+			   if(path1File == null)
+				    continue;
+			   boolean[] matches = index.query(path1File.getLandmarks());
+			   for(int fileId = 0; fileId<matches.length; fileId++)
 			   {
-				    AudioProcessableFile currentProc = currentPath.getValue();
-				    if(currentProc!=null)
+				    if(matches[fileId])
+					     AudioProcessableFiles.printMatch(path1File, 
+							     indexedFiles.get(fileId));
+			   }
+			   trimCache();
+		  }
+	 }
+	 
+	 /**
+	  * locateAllFiles: File[] File[] -> void
+	  * @param: firstPathNameFiles, the clips, files corresponding to the
+	  * first pathname 
+	  * @param: secondPathNameFiles, the recordings, files corresponding to
+	  * the second pathname
+	  * @effect: Looks for every AudioProcessableFile of the first path in
+	  * every AudioProcessableFile of the second path with a ClipLocator,
+	  * streaming the recordings, and prints the time and the score where
+	  * the clip is found if the score is at least LOCATE_MATCH_SCORE. A
+	  * recording at another sampling rate than the clip is resampled to
+	  * the rate of the clip.
+	  */
+	 private void locateAllFiles(File[] firstPathNameFiles,
+			 File[] secondPathNameFiles)
+	 {
+		  for(File file1 : firstPathNameFiles)
+		  {
+			   AudioProcessableFile clip = getProcessableFile(file1.getPath());
+			   if(clip == null || clip.getSamples().length == 0)
+				    continue;
+			   ClipLocator locator = new ClipLocator(clip.getSamples());
+			   int clipRate = clip.getSamplingRate();
+			   for(File file2 : secondPathNameFiles)
+			   {
+				    AudioProcessableFile recording = 
+						    getProcessableFile(file2.getPath());
+				    if(recording == null)
+					     continue;
+				    SampleSource samples = recording.openSampleSource();
+				    if(recording.getSamplingRate() != clipRate)
+					     samples = new Resampler(samples, 
+							     recording.getSamplingRate(), clipRate);
+				    ClipLocator.Location location = locator.locate(samples);
+				    samples.close();
+				    if(location.getScore() >= LOCATE_MATCH_SCORE)
+					     AudioProcessableFiles.printLocation(clip, recording,
+							     (double) location.getOffset() / clipRate,
+							     location.getScore());
+				    trimCache(file1.getPath());
+			   }
+		  }
+	 }
+	 
+	 /**
+	  * compareAllFilesInPipeline: File[] File[] int -> void
+	  * @param: firstPathNameFiles, files corresponding to the first pathname 
+	  * @param: secondPathNameFiles, files corresponding to the second
+	  * pathname
+	  * @param: threads, the number of worker threads of each stage
+	  * @effect: Same as compareAllFiles, through a pipeline of three stages
+	  * connected by queues of at most 'threads' files. The load stage
+	  * converts every distinct file to an AudioProcessableFile and reads or
+	  * decodes its samples, the transform stage calculates the FFTs, and
+	  * the compare stage compares every pair as soon as both its files are
+	  * transformed. A stage blocks while the queue to the next stage is
+	  * full, so only a few loaded files wait for their FFT at any time. A
+	  * file is dropped from a full cache as soon as all its pairs are
+	  * compared. The results are printed in the order of the sequential run
+	  * once all the pairs are compared.
+	  */
+	 private void compareAllFilesInPipeline(File[] firstPathNameFiles,
+			 File[] secondPathNameFiles, final int threads)
+	 {
+		  final boolean transform = !RunOptions.isSet("--stft");
+		  // With a store the spectra may be stored, so the samples are only
+		  // read if the transform stage needs them
+		  final boolean load = transform && !RunOptions.isSet("--store");
+		  final List<String> allPaths = new ArrayList<String>(
+				  getDistinctPaths(firstPathNameFiles, secondPathNameFiles));
+		  final BlockingQueue<String> loaded = 
+				  new ArrayBlockingQueue<String>(threads);
+		  final BlockingQueue<String> transformed = 
+				  new ArrayBlockingQueue<String>(threads);
+		  final AtomicInteger transformersLeft = new AtomicInteger(threads);
+		  ExecutorService stages = Executors.newFixedThreadPool(threads + 1);
+		  ExecutorService comparers = Executors.newFixedThreadPool(threads);
+		  try
+		  {
+			   Future<Object> loader = stages.submit(new Callable<Object>()
+			   {
+				    public Object call() throws InterruptedException
 				    {
-					     String toDeleteFilePath = 
-							      "/tmp/"+currentProc.getFileShortName();
-					     File toDeleteFile = new File(toDeleteFilePath);
-					     toDeleteFile.delete();
+					     try
+					     {
+						      for(String filePath : allPaths)
+						      {
+							       AudioProcessableFile f = 
+									       getProcessableFile(filePath);
+							       if(f != null && load)
+								        f.getSamples();
+							       loaded.put(filePath);
+						      }
+					     }
+					     finally
+					     {
+						      loaded.put(END_OF_FILES);
+					     }
+					     return null;
 				    }
-			   }		
+			   });
+			   List<Future<Object>> stageTasks = new ArrayList<Future<Object>>();
+			   for(int worker = 0; worker<threads; worker++)
+			   {
+				    stageTasks.add(stages.submit(new Callable<Object>()
+				    {
+					     public Object call() throws InterruptedException
+					     {
+						      try
+						      {
+							       String filePath;
+							       while((filePath = loaded.take()) != END_OF_FILES)
+							       {
+								        AudioProcessableFile f = 
+										        filesProcessed.peek(filePath);
+								        try
+								        {
+									         // With a prefilter only the pairs which pass it
+									         // need the spectra, calculated when compared
+									         if(f != null && prefilter != null)
+										          prefilter.getFeatures(f);
+									         else if(f != null && transform)
+										          f.getSpectrum();
+								        }
+								        catch(RuntimeException e)
+								        {
+									         // The other files still go through
+									         AssertTests.assertTrue("Processing failed : " +
+											         e, false);
+								        }
+								        transformed.put(filePath);
+							       }
+							       // Leave the end for the other workers
+							       loaded.put(END_OF_FILES);
+						      }
+						      finally
+						      {
+							       if(transformersLeft.decrementAndGet() == 0)
+								        transformed.put(END_OF_FILES);
+						      }
+						      return null;
+					     }
+				    }));
+			   }
+			   
+			   Map<String, String> shortNames = 
+					   new ConcurrentHashMap<String, String>();
+			   boolean[][] matches = compareTransformedFiles(transformed,
+					   comparers, firstPathNameFiles, secondPathNameFiles,
+					   shortNames);
+			   // If the transform stage failed nothing takes what the load
+			   // stage is waiting to put
+			   if(!waitForAll(stageTasks))
+				    loader.cancel(true);
+			   else
+				    waitForAll(Collections.singletonList(loader));
+			   for(int path1Count=0; path1Count<matches.length; path1Count++)
+			   {
+				    for(int path2Count=0; path2Count<matches[path1Count].length; 
+						    path2Count++)
+				    {
+					     if(!matches[path1Count][path2Count])
+						      continue;
+					     AudioProcessableFiles.printMatchAndExit(
+							     shortNames.get(
+									     firstPathNameFiles[path1Count].getPath()),
+							     shortNames.get(
+									     secondPathNameFiles[path2Count].getPath()));
+				    }
+			   }
 		  }
+		  catch(InterruptedException e)
+		  {
+			   AssertTests.assertTrue("Comparison interrupted", false);
+			   Thread.currentThread().interrupt();
+		  }
+		  finally
+		  {
+			   stages.shutdownNow();
+			   comparers.shutdownNow();
+		  }
+	 }
+	 
+	 /**
+	  * compareTransformedFiles: BlockingQueue<String> ExecutorService File[]
+	  * File[] Map<String, String> -> boolean[][]
+	  * @param transformed: The queue the paths of the transformed files come
+	  * through, ending with END_OF_FILES
+	  * @param comparers: The workers on which the pairs are compared
+	  * @param firstPathNameFiles: The files of the first path
+	  * @param secondPathNameFiles: The files of the second path
+	  * @param shortNames: Filled with the short name of every valid file,
+	  * by path, to print the matches once the files are dropped
+	  * @return: The matrix with true at [i][j] iff the i-th file of the
+	  * first path matches the j-th file of the second path
+	  * @effect: Every time a file comes out of 'transformed', compares it on
+	  * 'comparers' with the files of the other path that came out before it.
+	  * Drops a file from a full cache once all its pairs are compared. Waits
+	  * till all the comparisons are done.
+	  */
+	 private boolean[][] compareTransformedFiles(
+			 BlockingQueue<String> transformed, ExecutorService comparers,
+			 final File[] firstPathNameFiles, final File[] secondPathNameFiles,
+			 Map<String, String> shortNames)
+			 throws InterruptedException
+	 {
+		  final boolean[][] matches = 
+				  new boolean[firstPathNameFiles.length][secondPathNameFiles.length];
+		  Map<String, List<Integer>> firstIndexes = 
+				  getIndexesByPath(firstPathNameFiles);
+		  Map<String, List<Integer>> secondIndexes = 
+				  getIndexesByPath(secondPathNameFiles);
+		  // The pairs left to compare of every file, counted twice for a file
+		  // paired with itself
+		  final Map<String, AtomicInteger> pairsLeft = 
+				  new HashMap<String, AtomicInteger>();
+		  for(File file : firstPathNameFiles)
+			   countPairs(pairsLeft, file.getPath(), secondPathNameFiles.length);
+		  for(File file : secondPathNameFiles)
+			   countPairs(pairsLeft, file.getPath(), firstPathNameFiles.length);
+		  boolean[] firstReady = new boolean[firstPathNameFiles.length];
+		  boolean[] secondReady = new boolean[secondPathNameFiles.length];
+		  List<Future<Object>> compareTasks = new ArrayList<Future<Object>>();
+		  String filePath;
+		  while((filePath = transformed.take()) != END_OF_FILES)
+		  {
+			   AudioProcessableFile f = filesProcessed.peek(filePath);
+			   if(f != null)
+				    shortNames.put(filePath, f.getFileShortName());
+			   List<Integer> asFirst = firstIndexes.get(filePath);
+			   List<Integer> asSecond = secondIndexes.get(filePath);
+			   if(asFirst == null)
+				    asFirst = Collections.emptyList();
+			   if(asSecond == null)
+				    asSecond = Collections.emptyList();
+			   for(int path1Count : asFirst)
+				    firstReady[path1Count] = true;
+			   for(int path2Count : asSecond)
+				    secondReady[path2Count] = true;
+			   // The pairs of this file with the transformed files, each pair
+			   // once even if this file is in both paths
+			   final List<int[]> pairs = new ArrayList<int[]>();
+			   for(int path1Count : asFirst)
+				    for(int path2Count=0; path2Count<secondReady.length; 
+						    path2Count++)
+					     if(secondReady[path2Count])
+						      pairs.add(new int[] {path1Count, path2Count});
+			   for(int path2Count : asSecond)
+				    for(int path1Count=0; path1Count<firstReady.length; 
+						    path1Count++)
+					     if(firstReady[path1Count] && !asFirst.contains(path1Count))
+						      pairs.add(new int[] {path1Count, path2Count});
+			   if(pairs.isEmpty())
+				    continue;
+			   compareTasks.add(comparers.submit(new Callable<Object>()
+			   {
+				    public Object call()
+				    {
+					     for(int[] pair : pairs)
+					     {
+						      String path1 = firstPathNameFiles[pair[0]].getPath();
+						      String path2 = secondPathNameFiles[pair[1]].getPath();
+						      try
+						      {
+							       AudioProcessableFile path1File = 
+									       filesProcessed.peek(path1);
+							       AudioProcessableFile path2File = 
+									       filesProcessed.peek(path2);
+							       if(path1File != null && path2File != null && 
+									       (prefilter == null || 
+									       prefilter.passes(path1File, path2File)))
+								        matches[pair[0]][pair[1]] = 
+										        path1File.matches(path2File);
+						      }
+						      finally
+						      {
+							       pairCompared(pairsLeft, path1);
+							       pairCompared(pairsLeft, path2);
+						      }
+					     }
+					     return null;
+				    }
+			   }));
+		  }
+		  waitForAll(compareTasks);
+		  return matches;
+	 }
+	 
+	 /**
+	  * countPairs: Map<String, AtomicInteger> String int -> void
+	  * @effect: Adds 'pairs' to the pairs left of the file at 'filePath'
+	  */
+	 private static void countPairs(Map<String, AtomicInteger> pairsLeft,
+			 String filePath, int pairs)
+	 {
+		  AtomicInteger left = pairsLeft.get(filePath);
+		  if(left == null)
+		  {
+			   left = new AtomicInteger();
+			   pairsLeft.put(filePath, left);
+		  }
+		  left.addAndGet(pairs);
+	 }
+	 
+	 /**
+	  * pairCompared: Map<String, AtomicInteger> String -> void
+	  * @effect: Counts a pair of the file at 'filePath' as compared, and
+	  * if it was its last pair drops the file from the cache if the cache
+	  * is full.
+	  */
+	 private void pairCompared(Map<String, AtomicInteger> pairsLeft,
+			 String filePath)
+	 {
+		  if(pairsLeft.get(filePath).decrementAndGet() == 0)
+			   release(filesProcessed.trimFinished(filePath));
+	 }
+	 
+	 /**
+	  * getDistinctPaths: File[] File[] -> Set<String>
+	  * @return: The paths of the files of both arrays, each path once, in
+	  * the order they are first found
+	  */
+	 private static Set<String> getDistinctPaths(File[] firstPathNameFiles,
+			 File[] secondPathNameFiles)
+	 {
+		  Set<String> allPaths = new LinkedHashSet<String>();
+		  for(File file : firstPathNameFiles)
+			   allPaths.add(file.getPath());
+		  for(File file : secondPathNameFiles)
+			   allPaths.add(file.getPath());
+		  return allPaths;
+	 }
+	 
+	 /**
+	  * getIndexesByPath: File[] -> Map<String, List<Integer>>
+	  * @return: For every path of 'files', the indexes it is found at
+	  */
+	 private static Map<String, List<Integer>> getIndexesByPath(File[] files)
+	 {
+		  Map<String, List<Integer>> indexes = 
+				  new HashMap<String, List<Integer>>();
+		  for(int fileCount=0; fileCount<files.length; fileCount++)
+		  {
+			   List<Integer> fileIndexes = indexes.get(files[fileCount].getPath());
+			   if(fileIndexes == null)
+			   {
+				    fileIndexes = new ArrayList<Integer>();
+				    indexes.put(files[fileCount].getPath(), fileIndexes);
+			   }
+			   fileIndexes.add(fileCount);
+		  }
+		  return indexes;
+	 }
+	 
+	 /**
+	  * waitForAll: List<Future<Object>> -> void
+	  * @param tasks: The submitted tasks
+	  * @return: true iff none of the 'tasks' failed
+	  * @effect: Waits till all the 'tasks' are done. If a task failed
+	  * prints standard error.
+	  */
+	 private static boolean waitForAll(List<Future<Object>> tasks) 
+			 throws InterruptedException
+	 {
+		  boolean allDone = true;
+		  for(Future<Object> task : tasks)
+		  {
+			   try
+			   {
+				    task.get();
+			   }
+			   catch(ExecutionException e)
+			   {
+				    AssertTests.assertTrue("Processing failed : " + 
+						    e.getCause(), false);
+				    allDone = false;
+			   }
+		  }
+		  return allDone;
+	 }
+	 
+	 /**
+	  * getProcessableFile: String -> AudioProcessableFile
+	  * @param filePath: Place where the required file is stored
+	  * @return: AudioProcessibleFile of the given file, also the file 
+	  * is added to the FileCache, or made again if it was evicted.
+	  */
+	 private AudioProcessableFile getProcessableFile(String filePath)
+	 {
+		  // Made once even if pairs of the batch ask for it at the same time
+		  return filesProcessed.get(filePath);
 	 }
 }
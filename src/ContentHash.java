@@ -0,0 +1,171 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * class ContentHash
+ * Description: A 64 bit xxHash (XXH64) of a sequence of bytes, fed a
+ * ByteBuffer at a time, e.g. the mapped windows of the data chunk of a
+ * file. It is not cryptographic: it is meant to tell apart the contents of
+ * files quickly, at several gigabytes per second, and two different
+ * contents only get the same hash with a chance of about 1 in 2^64.
+ *
+ * The bytes are taken as little endian 64 bit words, 32 bytes at a time
+ * into four accumulators, and the bytes which do not make 32 are kept till
+ * the next update or the digest, so the hash does not depend on how the
+ * bytes are split between the updates.
+ */
+public class ContentHash
+{
+  private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+  private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+  private static final long PRIME64_3 = 0x165667B19E3779F9L;
+  private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+  private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+  // The bytes taken into the accumulators at a time
+  private static final int STRIPE_BYTES = 32;
+
+  private final long seed;
+  private long v1;
+  private long v2;
+  private long v3;
+  private long v4;
+  private long totalBytes = 0;
+  // The bytes of the last update which did not make a whole stripe
+  private final ByteBuffer pending =
+		  ByteBuffer.allocate(STRIPE_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+  /**
+   * Constructor : long -> ContentHash
+   * @param seed : The seed of the hash, 0 for the standard XXH64
+   */
+  ContentHash(long seed)
+  {
+    this.seed = seed;
+    v1 = seed + PRIME64_1 + PRIME64_2;
+    v2 = seed + PRIME64_2;
+    v3 = seed;
+    v4 = seed - PRIME64_1;
+  }
+
+  /**
+   * update : ByteBuffer -> void
+   * @param bytes : The next bytes to hash, from its position to its limit
+   * @effect : Takes the bytes into the hash, leaving 'bytes' at its limit
+   */
+  public void update(ByteBuffer bytes)
+  {
+    ByteBuffer input = bytes.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    totalBytes += input.remaining();
+    if(pending.position() > 0)
+    {
+      while(pending.hasRemaining() && input.hasRemaining())
+        pending.put(input.get());
+      if(pending.hasRemaining())
+      {
+        bytes.position(bytes.limit());
+        return;
+      }
+      pending.flip();
+      takeStripe(pending, 0);
+      pending.clear();
+    }
+    int position = input.position();
+    int limit = input.limit();
+    for(; position + STRIPE_BYTES <= limit; position += STRIPE_BYTES)
+      takeStripe(input, position);
+    input.position(position);
+    pending.put(input);
+    bytes.position(bytes.limit());
+  }
+
+  /**
+   * update : long -> void
+   * @param value : A number to take into the hash, e.g. a field of a header
+   * @effect : Takes the 8 little endian bytes of 'value' into the hash
+   */
+  public void update(long value)
+  {
+    ByteBuffer bytes = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+    bytes.putLong(0, value);
+    update(bytes);
+  }
+
+  /**
+   * digest : -> long
+   * @return long : The hash of all the bytes taken so far
+   */
+  public long digest()
+  {
+    long hash;
+    if(totalBytes >= STRIPE_BYTES)
+    {
+      hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) +
+    		  Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+      hash = mergeRound(hash, v1);
+      hash = mergeRound(hash, v2);
+      hash = mergeRound(hash, v3);
+      hash = mergeRound(hash, v4);
+    }
+    else
+    {
+      hash = seed + PRIME64_5;
+    }
+    hash += totalBytes;
+    ByteBuffer tail = pending.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    tail.flip();
+    while(tail.remaining() >= 8)
+    {
+      hash ^= round(0, tail.getLong());
+      hash = Long.rotateLeft(hash, 27) * PRIME64_1 + PRIME64_4;
+    }
+    if(tail.remaining() >= 4)
+    {
+      hash ^= (tail.getInt() & 0xFFFFFFFFL) * PRIME64_1;
+      hash = Long.rotateLeft(hash, 23) * PRIME64_2 + PRIME64_3;
+    }
+    while(tail.hasRemaining())
+    {
+      hash ^= (tail.get() & 0xFFL) * PRIME64_5;
+      hash = Long.rotateLeft(hash, 11) * PRIME64_1;
+    }
+    hash ^= hash >>> 33;
+    hash *= PRIME64_2;
+    hash ^= hash >>> 29;
+    hash *= PRIME64_3;
+    hash ^= hash >>> 32;
+    return hash;
+  }
+
+  /**
+   * takeStripe : ByteBuffer, int -> void
+   * @effect : Takes the STRIPE_BYTES little endian bytes of 'bytes' from
+   *           'position' into the four accumulators
+   */
+  private void takeStripe(ByteBuffer bytes, int position)
+  {
+    v1 = round(v1, bytes.getLong(position));
+    v2 = round(v2, bytes.getLong(position + 8));
+    v3 = round(v3, bytes.getLong(position + 16));
+    v4 = round(v4, bytes.getLong(position + 24));
+  }
+
+  /**
+   * static round : long, long -> long
+   * @return long : 'accumulator' with the 8 bytes of 'input' taken in
+   */
+  private static long round(long accumulator, long input)
+  {
+    accumulator += input * PRIME64_2;
+    return Long.rotateLeft(accumulator, 31) * PRIME64_1;
+  }
+
+  /**
+   * static mergeRound : long, long -> long
+   * @return long : 'hash' with the accumulator 'value' merged in
+   */
+  private static long mergeRound(long hash, long value)
+  {
+    hash ^= round(0, value);
+    return hash * PRIME64_1 + PRIME64_4;
+  }
+}
@@ -0,0 +1,158 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * class DamServer
+ * Description: Runs dam as a daemon on a loopback port, so that the JVM
+ * starts and warms up once and the files processed by a request, with their
+ * samples and spectra, are reused by the next ones.
+ *
+ * A request is a connection which sends one line "-f|-d <pathname> -f|-d
+ * <pathname>", its arguments separated by tabs or, if there is none, by
+ * spaces. The MATCH and ERROR messages the command line run would print
+ * are written back on the connection as they are found, followed by the
+ * line "EXIT <status>" with the status the run would exit with, and the
+ * connection is closed. The options are the ones given with "--serve" and
+ * are the same for every request.
+ *
+ * Requests are served one at a time: the comparison of a request still
+ * runs on "-t" threads. Between two requests the files which changed are
+ * dropped from the cache, the least recently used files are dropped till
+ * the bytes kept are within "--cache", and what was computed is written to
+ * the SpectrumStore if one is open.
+ */
+public class DamServer
+{
+  // Constants
+  private static final String PATTERN = "-f|-d <pathname> -f|-d <pathname>";
+  // A client which does not send its request in this time is dropped
+  private static final int REQUEST_TIMEOUT_MS = 10000;
+
+  private final CompareFiles comparer = new CompareFiles();
+
+  /**
+   * static serve : int -> void
+   * @param port : The loopback port to listen on, 0 for any free port
+   * @effect : Prints the address it listens on through standard error and
+   *           serves the requests till the program is stopped. If the port
+   *           cannot be listened on prints standard error and exits with
+   *           status other than 0.
+   */
+  public static void serve(int port)
+  {
+    DamServer server = new DamServer();
+    // What was computed since the last request is still written on exit
+    Runtime.getRuntime().addShutdownHook(new Thread()
+    {
+      public void run()
+      {
+        SpectrumStore.closeOpenStore();
+      }
+    });
+    ServerSocket listener = null;
+    try
+    {
+      listener = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+    catch(IOException e)
+    {
+      AssertTests.assertTrue("Could not listen on port " + port + " : " + e,
+    		  false, true);
+    }
+    System.err.println("dam: serving on " +
+    		listener.getInetAddress().getHostAddress() + ":" +
+    		listener.getLocalPort());
+    while(true)
+    {
+      Socket client = null;
+      try
+      {
+        client = listener.accept();
+        server.handle(client);
+      }
+      catch(IOException e)
+      {
+        System.err.println("dam: request failed : " + e);
+      }
+      finally
+      {
+        close(client);
+      }
+    }
+  }
+
+  /**
+   * handle : Socket -> void
+   * @param client : The connection of a request
+   * @effect : Reads the request of 'client', runs it with the standard
+   *           output and error of the program sent to 'client', and writes
+   *           the exit status. Then prepares the cache for the next request.
+   */
+  private void handle(Socket client) throws IOException
+  {
+    client.setSoTimeout(REQUEST_TIMEOUT_MS);
+    BufferedReader in = new BufferedReader(new InputStreamReader(
+    		client.getInputStream(), "UTF-8"));
+    String request = in.readLine();
+    if(request == null)
+      return;
+    PrintStream out = new PrintStream(client.getOutputStream(), true, "UTF-8");
+    PrintStream standardOut = System.out;
+    PrintStream standardErr = System.err;
+    System.setOut(out);
+    System.setErr(out);
+    AssertTests.setExitOnFatalError(false);
+    try
+    {
+      String[] args = CommandLineArgsParser.splitLine(request);
+      if(AssertTests.assertTrue("incorrect command line",
+    		  CommandLineArgsParser.isValidCommand(args, PATTERN)))
+      {
+        comparer.evictChangedFiles();
+        comparer.compare(args);
+      }
+      comparer.printReports();
+    }
+    catch(AssertTests.FatalError e)
+    {
+      // Its message was printed, only the request ends
+    }
+    catch(RuntimeException e)
+    {
+      AssertTests.assertTrue("Processing failed : " + e, false);
+    }
+    finally
+    {
+      AssertTests.setExitOnFatalError(true);
+      System.setOut(standardOut);
+      System.setErr(standardErr);
+    }
+    out.println("EXIT " + AssertTests.resetExitStatus());
+    out.flush();
+    comparer.trimCache();
+    SpectrumStore.flushOpenStore();
+  }
+
+  /**
+   * static close : Socket -> void
+   * @effect : Closes 'client' if it is not null, ignoring the errors
+   */
+  private static void close(Socket client)
+  {
+    if(client == null)
+      return;
+    try
+    {
+      client.close();
+    }
+    catch(IOException e)
+    {
+      // The request is over anyway
+    }
+  }
+}
@@ -0,0 +1,273 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * class DirectoryScanner
+ * Description: Finds the audio files of a directory and of all its
+ * subdirectories, for the "-r" option, and hands them out one at a time as
+ * they are found, so that the first files can be compared while the rest
+ * of the tree is still being walked.
+ *
+ * The tree is walked on a thread of its own by Files.walkFileTree, which
+ * reads one directory at a time through a DirectoryStream and follows the
+ * symbolic links to files but not to directories. A file is kept only if
+ * its name ends with .wav or .mp3, as AudioProcessableFiles.make expects,
+ * and its first bytes are those of a RIFF WAVE file or of an MP3 file (an
+ * ID3 tag or an MPEG frame sync); the other files are skipped without an
+ * error. The files whose first bytes are right are then made in the
+ * FileCache of the run, which validates their whole header, and those
+ * found invalid are skipped after their error is printed. The first bytes
+ * and the headers of the files are read on a pool of threads, so the
+ * files are validated in parallel, and the files come out in the order
+ * they were found, through a queue of at most QUEUE_SIZE files so that the
+ * walk does not run far ahead of the comparison.
+ */
+public class DirectoryScanner
+{
+  // Constants
+  // The most files found and not yet handed out
+  private static final int QUEUE_SIZE = 256;
+  // The bytes read to recognize a file: 'RIFF', its chunkSize and 'WAVE'
+  private static final int MAGIC_BYTES = 12;
+  private static final int RIFF_MAGIC = 0x52494646;
+  private static final int WAVE_MAGIC = 0x57415645;
+
+  // Marks the end of the files found, never run
+  private final Future<File> endOfFiles = new FutureTask<File>(
+		  new Callable<File>()
+  {
+    public File call()
+    {
+      return null;
+    }
+  });
+  private final BlockingQueue<Future<File>> found =
+		  new ArrayBlockingQueue<Future<File>>(QUEUE_SIZE);
+  private final ExecutorService checkers = Executors.newFixedThreadPool(
+		  Runtime.getRuntime().availableProcessors());
+  private final Thread walker;
+  private final FileCache filesProcessed;
+  private volatile boolean isDone = false;
+
+  /**
+   * Constructor : String, FileCache -> DirectoryScanner
+   * @param path : The path of the directory to scan
+   * @param filesProcessed : The cache in which the audio files found are
+   *                         made, their header being validated, as they
+   *                         are recognized
+   * @effect : Starts walking the tree of 'path'
+   */
+  DirectoryScanner(final String path, FileCache filesProcessed)
+  {
+    this.filesProcessed = filesProcessed;
+    walker = new Thread(new Runnable()
+    {
+      public void run()
+      {
+        walk(Paths.get(path));
+      }
+    }, "dam-scan");
+    walker.setDaemon(true);
+    walker.start();
+  }
+
+  /**
+   * next : -> File
+   * @return File : The next audio file of the tree, in the order they are
+   *                found, null once every one was handed out
+   * @effect : Waits till the next file is found and recognized
+   */
+  public File next()
+  {
+    while(!isDone)
+    {
+      try
+      {
+        Future<File> file = found.take();
+        if(file == endOfFiles)
+          break;
+        File audioFile = file.get();
+        if(audioFile != null)
+          return audioFile;
+      }
+      catch(ExecutionException e)
+      {
+        AssertTests.assertTrue("Scan failed : " + e.getCause(), false);
+      }
+      catch(InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    close();
+    return null;
+  }
+
+  /**
+   * listAll : -> File[]
+   * @return File[] : The audio files of the tree not handed out yet, in
+   *                  the order they are found
+   */
+  public File[] listAll()
+  {
+    List<File> files = new ArrayList<File>();
+    File file;
+    while((file = next()) != null)
+      files.add(file);
+    return files.toArray(new File[files.size()]);
+  }
+
+  /**
+   * close : -> void
+   * @effect : Stops the walk; next returns null from now on. Called by a
+   *           caller which stops before the last file.
+   */
+  public void close()
+  {
+    isDone = true;
+    walker.interrupt();
+    checkers.shutdownNow();
+  }
+
+  /**
+   * walk : Path -> void
+   * @effect : Queues a check of every file of the tree of 'root' whose
+   *           name is the one of an audio file, then the end of the files.
+   *           A directory which cannot be read prints standard error and is
+   *           skipped.
+   */
+  private void walk(Path root)
+  {
+    try
+    {
+      Files.walkFileTree(root, new SimpleFileVisitor<Path>()
+      {
+        public FileVisitResult visitFile(Path file,
+        		BasicFileAttributes attributes)
+        {
+          if(!hasAudioExtension(file) || !(attributes.isRegularFile() ||
+        		  attributes.isSymbolicLink() && Files.isRegularFile(file)))
+            return FileVisitResult.CONTINUE;
+          final File audioFile = file.toFile();
+          Future<File> check = checkers.submit(new Callable<File>()
+          {
+            public File call()
+            {
+              return isAudioFile(audioFile) && 
+            		  filesProcessed.get(audioFile.getPath()) != null ? 
+            		  audioFile : null;
+            }
+          });
+          return put(check) ? FileVisitResult.CONTINUE :
+        	  FileVisitResult.TERMINATE;
+        }
+
+        public FileVisitResult visitFileFailed(Path file, IOException e)
+        {
+          AssertTests.assertTrue(file + " could not be read : " + e, false);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    }
+    catch(IOException e)
+    {
+      AssertTests.assertTrue(root + " could not be read : " + e, false);
+    }
+    catch(RuntimeException e)
+    {
+      // Checks are no longer taken once closed
+      if(!isDone)
+        AssertTests.assertTrue("Scan failed : " + e, false);
+    }
+    finally
+    {
+      put(endOfFiles);
+    }
+  }
+
+  /**
+   * put : Future<File> -> boolean
+   * @return boolean : false iff the scan was closed while waiting for room
+   *                   in the queue
+   * @effect : Queues 'file' for next
+   */
+  private boolean put(Future<File> file)
+  {
+    try
+    {
+      found.put(file);
+      return true;
+    }
+    catch(InterruptedException e)
+    {
+      // The end is not waited for either
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * static hasAudioExtension : Path -> boolean
+   * @return boolean : true iff the name of 'file' ends with .wav or .mp3
+   */
+  private static boolean hasAudioExtension(Path file)
+  {
+    String name = file.getFileName().toString();
+    return name.endsWith(".wav") || name.endsWith(".mp3");
+  }
+
+  /**
+   * static isAudioFile : File -> boolean
+   * @return boolean : true iff the first bytes of 'file' are those of the
+   *                   audio format of its extension, or they cannot be read
+   *                   (the file is then reported when it is processed)
+   */
+  private static boolean isAudioFile(File file)
+  {
+    FileInputStream stream = null;
+    ByteBuffer magic = ByteBuffer.allocate(MAGIC_BYTES);
+    try
+    {
+      stream = FileHandles.open(file);
+      stream.getChannel().read(magic, 0);
+    }
+    catch(IOException e)
+    {
+      return true;
+    }
+    finally
+    {
+      FileHandles.close(stream);
+    }
+    magic.flip();
+    if(file.getName().endsWith(".wav"))
+      return magic.limit() == MAGIC_BYTES &&
+      		magic.getInt(0) == RIFF_MAGIC && magic.getInt(8) == WAVE_MAGIC;
+    if(magic.limit() < 3)
+      return false;
+    int first = magic.get(0) & 0xFF;
+    int second = magic.get(1) & 0xFF;
+    int third = magic.get(2) & 0xFF;
+    return (first == 'I' && second == 'D' && third == '3') ||
+    		(first == 0xFF && (second & 0xE0) == 0xE0);
+  }
+}
@@ -0,0 +1,89 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * class DuplicateGroups
+ * Description: The groups of matching files of a "--dedupe" run, kept as a
+ * union-find over the indices of the files. Two files end up in the same
+ * group if a chain of matches joins them, so a file matching the
+ * representatives of two groups joins the groups too.
+ *
+ * The root of a group is always its lowest index, i.e. the first file of
+ * the group found, which is the representative the later files are
+ * compared with. The paths to the roots are halved on every find, so a
+ * find takes almost constant time.
+ */
+public class DuplicateGroups
+{
+  // The index of the parent of every file, itself for a root
+  private final int[] parents;
+
+  /**
+   * Constructor : int -> DuplicateGroups
+   * @param noOfFiles : The number of files, each in a group of its own
+   */
+  DuplicateGroups(int noOfFiles)
+  {
+    parents = new int[noOfFiles];
+    for(int file = 0; file<noOfFiles; file++)
+      parents[file] = file;
+  }
+
+  /**
+   * find : int -> int
+   * @param file : The index of a file
+   * @return int : The index of the first file of the group of 'file'
+   */
+  public int find(int file)
+  {
+    while(parents[file] != file)
+    {
+      parents[file] = parents[parents[file]];
+      file = parents[file];
+    }
+    return file;
+  }
+
+  /**
+   * union : int, int -> void
+   * @param file1 : The index of a file
+   * @param file2 : The index of a file which matches 'file1'
+   * @effect : Joins the groups of 'file1' and 'file2', under the first file
+   *           of the two groups
+   */
+  public void union(int file1, int file2)
+  {
+    int root1 = find(file1);
+    int root2 = find(file2);
+    if(root1 < root2)
+      parents[root2] = root1;
+    else if(root2 < root1)
+      parents[root1] = root2;
+  }
+
+  /**
+   * getGroups : -> List<List<Integer>>
+   * @return List<List<Integer>> : The indices of the files of every group
+   *                               of more than one file, in increasing
+   *                               order, the groups ordered by their first
+   *                               file
+   */
+  public List<List<Integer>> getGroups()
+  {
+    List<List<Integer>> groupsByRoot = new ArrayList<List<Integer>>();
+    for(int file = 0; file<parents.length; file++)
+      groupsByRoot.add(null);
+    for(int file = 0; file<parents.length; file++)
+    {
+      int root = find(file);
+      if(groupsByRoot.get(root) == null)
+        groupsByRoot.set(root, new ArrayList<Integer>());
+      groupsByRoot.get(root).add(file);
+    }
+    List<List<Integer>> groups = new ArrayList<List<Integer>>();
+    for(List<Integer> group : groupsByRoot)
+      if(group != null && group.size() > 1)
+        groups.add(group);
+    return groups;
+  }
+}
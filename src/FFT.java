@@ -1,14 +1,61 @@
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
 /**
  * class FFT
- * Description: 
+ * Description:
  * This class is used to determine Fast Fourier Transform of Audio Samples.
+ * The transform is an in-place iterative radix-2 FFT on primitive arrays.
+ * The Hanning Window is calculated while the samples are packed, from an
+ * exact value every WINDOW_STEP samples, so no window is kept per length of
+ * file. The twiddle factors are kept in one table, for the largest size
+ * transformed so far; the smaller sizes, the FFT of size N/2 within a real
+ * FFT of size N among them, take every (N/n)th entry of it.
+ *
+ * The samples are real, so the N bins of their FFT are conjugate symmetric:
+ * bin N-k is the conjugate of bin k. Only the N/2+1 bins from 0 to N/2 are
+ * calculated and kept. The N real samples are packed into N/2 complex
+ * samples, transformed with an FFT of size N/2, and the bins are then
+ * separated again (see performRealFFT). The comparisons weight the bins
+ * between 0 and N/2 twice, for themselves and their conjugates, so the
+ * errors are the same as over the full spectrum.
+ *
+ * If an OffHeapArena is open the bins are kept in a Block of it rather than
+ * in arrays, and compared there. The transform itself then runs in arrays
+ * kept by every thread for its next transforms, so that only the bins stay
+ * allocated. The memory of the bins is given back to the arena when the
+ * last owner of the FFT releases it.
  */
-public class FFT 
+public class FFT
 {
-  private float[] originalSamples;
-  private ComplexNumber[] hanningWindowSamples;
+  // The samples from one exact value of the Hanning Window to the next,
+  // the values in between are rotated from the one before
+  private static final int WINDOW_STEP = 64;
+  // The values of the Hanning Window calculated at a time
+  private static final int WINDOW_BLOCK_SIZE = 4096;
+  // The cosines and sines of the roots of unity of the largest size
+  // transformed so far, shared by all the transforms
+  private static double[][] twiddleTable = {new double[0], new double[0]};
+  // The bins calculateMSE compares before checking the error again
+  private static final int MSE_BLOCK_SIZE = 4096;
+
+  // The arrays every thread transforms in while an OffHeapArena is open
+  private static final ThreadLocal<double[][]> workArrays =
+		  new ThreadLocal<double[][]>();
+
+  // The size N of the transform, of which only the bins 0 to N/2 are kept
+  private final int size;
+  // The bins, null if they are kept off the heap
+  private double[] realParts;
+  private double[] imaginaryParts;
+  // Views of the bins, over the arrays or over 'offHeapBins'
+  private DoubleBuffer realBins;
+  private DoubleBuffer imagBins;
+  private OffHeapArena.Block offHeapBins = null;
+  // The number of owners which did not release this yet
+  private int owners = 1;
   private ComplexNumber[] FFTResult;
-    
+
   /**
    * Constructor: float[] -> FFT
    * @param samples: The samples of an audio file
@@ -17,159 +64,680 @@ public class FFT
    */
   FFT(float[] samples)
   {
-    originalSamples = samples;
-    hanningWindowSamples = applyHanningWindow(originalSamples);
-    int samplesLength = originalSamples.length;
-    int nearestPowerOfTwo = getNearestPowerOfTwo(samplesLength);
-    if(samplesLength != nearestPowerOfTwo)
+    long startTime = RunStats.startTimer();
+    int samplesLength = samples.length;
+    size = getNearestPowerOfTwo(samplesLength);
+    int noOfBins = getNoOfBins(size);
+    boolean isOffHeap = OffHeapArena.getOpenArena() != null;
+    double[][] work = isOffHeap ? getWorkArrays(noOfBins) :
+    	new double[][] {new double[noOfBins], new double[noOfBins]};
+    applyHanningWindow(samples, work[0], work[1]);
+    if(size >= 2)
+      performRealFFT(work[0], work[1], size);
+    keepBins(work[0], work[1], noOfBins, isOffHeap);
+    RunStats.record(RunStats.FFT, startTime);
+    RunStats.countFFTSize(size);
+  }
+
+  /**
+   * Constructor: double[], double[] -> FFT
+   * @param realParts: The real parts of the bins 0 to N/2 of an already
+   *                   calculated FFT
+   * @param imaginaryParts: The imaginary parts of the same bins
+   * @Effect: The constructor implicitly returns an instance of FFT with the
+   *          given result, e.g. one read back from the SpectrumStore
+   */
+  FFT(double[] realParts, double[] imaginaryParts)
+  {
+    int noOfBins = realParts.length;
+    size = noOfBins <= 1 ? noOfBins : 2 * (noOfBins - 1);
+    keepBins(realParts, imaginaryParts, noOfBins, false);
+  }
+
+  /**
+   * keepBins : double[], double[], int, boolean -> void
+   * @param real : The real parts of the bins, in its first 'noOfBins'
+   *               values
+   * @param imag : The imaginary parts of the bins
+   * @param isWork : true iff 'real' and 'imag' are work arrays of the
+   *                 thread, which are not to be kept
+   * @effect : Keeps the bins in a Block of the open OffHeapArena if there is
+   *           one with room, else in 'real' and 'imag' themselves, copied if
+   *           they are work arrays or longer than 'noOfBins'
+   */
+  private void keepBins(double[] real, double[] imag, int noOfBins,
+		  boolean isWork)
+  {
+    OffHeapArena arena = OffHeapArena.getOpenArena();
+    if(arena != null)
+      offHeapBins = arena.allocate(16L * noOfBins);
+    if(offHeapBins == null)
     {
-      ComplexNumber[] paddedWindowedSamples = 
-    		padArrayWithZeros(hanningWindowSamples, nearestPowerOfTwo);
-      int paddedSamplesLen = paddedWindowedSamples.length;
-      FFTResult = performFFT(paddedWindowedSamples, paddedSamplesLen);
+      if(arena != null)
+        RunStats.count(RunStats.OFF_HEAP_FALLBACKS, 1);
+      realParts = real.length == noOfBins && !isWork ? real :
+    	  Arrays.copyOf(real, noOfBins);
+      imaginaryParts = imag.length == noOfBins && !isWork ? imag :
+    	  Arrays.copyOf(imag, noOfBins);
+      realBins = DoubleBuffer.wrap(realParts);
+      imagBins = DoubleBuffer.wrap(imaginaryParts);
+      return;
     }
-    else
+    realBins = offHeapBins.asDoubleBuffer();
+    realBins.put(real, 0, noOfBins);
+    realBins.limit(noOfBins);
+    imagBins = offHeapBins.asDoubleBuffer();
+    imagBins.position(noOfBins);
+    imagBins = imagBins.slice();
+    imagBins.put(imag, 0, noOfBins);
+  }
+
+  /**
+   * static getWorkArrays : int -> double[][]
+   * @param noOfBins : The number of values needed
+   * @return double[][] : The two arrays of the current thread, of at least
+   *                      'noOfBins' values each, the first 'noOfBins' of
+   *                      which are 0
+   */
+  private static double[][] getWorkArrays(int noOfBins)
+  {
+    double[][] work = workArrays.get();
+    if(work == null || work[0].length < noOfBins)
     {
-      FFTResult = performFFT(hanningWindowSamples, samples.length);
+      work = new double[][] {new double[noOfBins], new double[noOfBins]};
+      workArrays.set(work);
+      return work;
     }
+    Arrays.fill(work[0], 0, noOfBins, 0);
+    Arrays.fill(work[1], 0, noOfBins, 0);
+    return work;
+  }
+
+  /**
+   * retain : -> void
+   * @effect : Adds an owner to this, which is to call release once done
+   */
+  synchronized void retain()
+  {
+    owners++;
+  }
+
+  /**
+   * release : -> void
+   * @effect : Removes an owner of this. Once the last owner released it,
+   *           the bins kept off the heap are given back to the arena and
+   *           this is not to be used any more.
+   */
+  synchronized void release()
+  {
+    if(--owners > 0 || offHeapBins == null)
+      return;
+    OffHeapArena.getOpenArena().free(offHeapBins);
+    offHeapBins = null;
+    realBins = null;
+    imagBins = null;
+  }
+
+  /**
+   * getMemorySize : -> long
+   * @return long : The bytes taken by the bins of this, on the heap or off
+   *                it, 0 once they were given back to the arena
+   */
+  synchronized long getMemorySize()
+  {
+    return realBins == null ? 0 : 16L * realBins.limit();
   }
-	
+
   /**
-   * calculateMSE : ComplexNumber[] -> int
+   * calculateMSE : ComplexNumber[] -> double
    * @param samplesToCompare : The samples to compare with the FFT samples of
    *                           this
    * @return mse : The Mean Squared Error between the 'samplesToCompare' and
    *               FFT samples of this
    */
-  public int calculateMSE(ComplexNumber[] samplesToCompare)
+  public double calculateMSE(ComplexNumber[] samplesToCompare)
   {
-    int samplesLen = FFTResult.length;
-    int mse = 0;
-    for(int i = 0; i<samplesLen; i++)
+    int cmpLen = Math.min(size, samplesToCompare.length);
+    double error = 0;
+    for(int i = 0; i<cmpLen; i++)
     {
-	  if(i>=samplesLen || i>=samplesToCompare.length)
-		 break;
-      ComplexNumber currentSample = FFTResult[i];
       ComplexNumber sampleToCompare = samplesToCompare[i];
-      ComplexNumber complexDiff = currentSample.subtract(sampleToCompare);
-      mse += Math.pow(complexDiff.absolute(), 2);
+      // The bins above N/2 are the conjugates of the kept ones
+      int bin = i <= size / 2 ? i : size - i;
+      double imagSign = i <= size / 2 ? 1 : -1;
+      double realDiff = realBins.get(bin) - sampleToCompare.getRealPart();
+      double imagDiff = imagSign * imagBins.get(bin) -
+    		  sampleToCompare.getImaginaryPart();
+      error += realDiff * realDiff + imagDiff * imagDiff;
+    }
+    return error / size;
+  }
+
+  /**
+   * calculateMSE : FFT -> double
+   * @param fftToCompare : The FFT whose samples are to be compared with the
+   *                       FFT samples of this
+   * @return mse : The Mean Squared Error between the FFT samples of
+   *               'fftToCompare' and this, computed on the primitive arrays
+   */
+  public double calculateMSE(FFT fftToCompare)
+  {
+    return calculateMSE(fftToCompare, Double.POSITIVE_INFINITY);
+  }
+
+  /**
+   * calculateMSE : FFT, double -> double
+   * @param fftToCompare : The FFT whose samples are to be compared with the
+   *                       FFT samples of this
+   * @param threshold : The Mean Squared Error at which to stop comparing
+   * @return mse : The Mean Squared Error between the FFT samples of
+   *               'fftToCompare' and this, if it is less than 'threshold'.
+   *               Else a value of at least 'threshold': the bins are
+   *               compared block by block and the rest of the blocks are
+   *               skipped once the error so far reaches 'threshold'.
+   */
+  public double calculateMSE(FFT fftToCompare, double threshold)
+  {
+    long startTime = RunStats.startTimer();
+    int cmpLen = Math.min(realBins.limit(), fftToCompare.realBins.limit());
+    int nyquistBin = size / 2;
+    double maxError = threshold * size;
+    double error = calculateSquaredError(fftToCompare, 0, Math.min(cmpLen, 1));
+    // The bins between 0 and N/2 also stand for their conjugates
+    int interiorEnd = Math.min(cmpLen, nyquistBin);
+    for(int start = 1; start<interiorEnd && error < maxError;
+    		start += MSE_BLOCK_SIZE)
+    {
+      error += 2 * calculateSquaredError(fftToCompare, start,
+    		  Math.min(interiorEnd, start + MSE_BLOCK_SIZE));
+    }
+    if(nyquistBin > 0 && nyquistBin < cmpLen && error < maxError)
+    {
+      error += calculateSquaredError(fftToCompare, nyquistBin,
+    		  nyquistBin + 1);
+    }
+    RunStats.record(RunStats.MSE, startTime);
+    return error / size;
+  }
+
+  /**
+   * calculateSquaredError : FFT, int, int -> double
+   * @return double : The sum of the squared magnitudes of the differences
+   *                  of the bins of this and 'fftToCompare' from 'from' to
+   *                  'to', on the arrays if both are on the heap, else on
+   *                  the views of the bins
+   */
+  private double calculateSquaredError(FFT fftToCompare, int from, int to)
+  {
+    if(realParts != null && fftToCompare.realParts != null)
+      return calculateSquaredError(realParts, imaginaryParts,
+    		  fftToCompare.realParts, fftToCompare.imaginaryParts, from, to);
+    return calculateSquaredError(realBins, imagBins, fftToCompare.realBins,
+    		fftToCompare.imagBins, from, to);
+  }
+
+  /**
+   * static calculateSquaredError : double[], double[], double[], double[],
+   *                                int, int -> double
+   * @param real1 : The real parts of the first spectrum
+   * @param imag1 : The imaginary parts of the first spectrum
+   * @param real2 : The real parts of the second spectrum
+   * @param imag2 : The imaginary parts of the second spectrum
+   * @param from : The first bin to compare
+   * @param to : The bin after the last bin to compare
+   * @return double : The sum of the squared magnitudes of the differences
+   *                  of the bins from 'from' to 'to'. Two bins are done per
+   *                  iteration into four independent sums, so that the
+   *                  additions do not wait on each other.
+   */
+  private static double calculateSquaredError(double[] real1, double[] imag1,
+		  double[] real2, double[] imag2, int from, int to)
+  {
+    double error0 = 0;
+    double error1 = 0;
+    double error2 = 0;
+    double error3 = 0;
+    int i = from;
+    for(; i + 1<to; i += 2)
+    {
+      double realDiff0 = real1[i] - real2[i];
+      double imagDiff0 = imag1[i] - imag2[i];
+      double realDiff1 = real1[i + 1] - real2[i + 1];
+      double imagDiff1 = imag1[i + 1] - imag2[i + 1];
+      error0 += realDiff0 * realDiff0;
+      error1 += imagDiff0 * imagDiff0;
+      error2 += realDiff1 * realDiff1;
+      error3 += imagDiff1 * imagDiff1;
+    }
+    for(; i<to; i++)
+    {
+      double realDiff = real1[i] - real2[i];
+      double imagDiff = imag1[i] - imag2[i];
+      error0 += realDiff * realDiff + imagDiff * imagDiff;
+    }
+    return (error0 + error1) + (error2 + error3);
+  }
+
+  /**
+   * static calculateSquaredError : DoubleBuffer, DoubleBuffer, DoubleBuffer,
+   *                                DoubleBuffer, int, int -> double
+   * @return double : Same as calculateSquaredError on arrays, reading the
+   *                  bins where the buffers keep them, e.g. off the heap
+   */
+  private static double calculateSquaredError(DoubleBuffer real1,
+		  DoubleBuffer imag1, DoubleBuffer real2, DoubleBuffer imag2, int from,
+		  int to)
+  {
+    double error0 = 0;
+    double error1 = 0;
+    double error2 = 0;
+    double error3 = 0;
+    int i = from;
+    for(; i + 1<to; i += 2)
+    {
+      double realDiff0 = real1.get(i) - real2.get(i);
+      double imagDiff0 = imag1.get(i) - imag2.get(i);
+      double realDiff1 = real1.get(i + 1) - real2.get(i + 1);
+      double imagDiff1 = imag1.get(i + 1) - imag2.get(i + 1);
+      error0 += realDiff0 * realDiff0;
+      error1 += imagDiff0 * imagDiff0;
+      error2 += realDiff1 * realDiff1;
+      error3 += imagDiff1 * imagDiff1;
+    }
+    for(; i<to; i++)
+    {
+      double realDiff = real1.get(i) - real2.get(i);
+      double imagDiff = imag1.get(i) - imag2.get(i);
+      error0 += realDiff * realDiff + imagDiff * imagDiff;
     }
-    return mse/samplesLen;
+    return (error0 + error1) + (error2 + error3);
   }
-    
+
   /**
    * getTransformedSamples : -> ComplexNumber[]
    * @return FFTResult: The private instance variable which has the samples
-   *                    with FFT applied on them.
+   *                    with FFT applied on them, all N bins. The
+   *                    ComplexNumber view is only built the first time it
+   *                    is asked for.
    */
   public ComplexNumber[] getTransformedSamples()
   {
+    if(FFTResult == null)
+    {
+      ComplexNumber[] transformed = new ComplexNumber[size];
+      for(int i = 0; i<size; i++)
+      {
+        if(i <= size / 2)
+          transformed[i] = ComplexNumbers.make(realBins.get(i),
+        		  imagBins.get(i));
+        else
+          transformed[i] = ComplexNumbers.make(realBins.get(size - i),
+        		  -imagBins.get(size - i));
+      }
+      FFTResult = transformed;
+    }
     return FFTResult;
   }
-	
+
   /**
-   * static padArrayWithZeros : ComplexNumber[], int -> ComplexNumber[]
-   * @param originalArray : The array of samples as ComplexNumber
-   * @param nearestPowerOfTwo : The nearest power of 2 corresponding to the
-   *                            length of 'originalArray'
-   * @return paddedArray: The 'originalArray' with new ComplexNumber instances
-   *                      added to it to make its length an exact power of 2
+   * getSize : -> int
+   * @return int : The size N of the transform, i.e. the number of samples
+   *               padded to a power of 2
    */
-  private static ComplexNumber[] padArrayWithZeros 
-  (ComplexNumber[] originalArray, int nearestPowerOfTwo)
+  int getSize()
   {
-    ComplexNumber[] paddedArray = new ComplexNumber[nearestPowerOfTwo];
-    System.arraycopy(originalArray, 0, paddedArray, 0, originalArray.length);
-    for(int i = originalArray.length; i<nearestPowerOfTwo; i++)
-    {
-      paddedArray[i] = ComplexNumbers.make(0, 0);
-    }
-    return paddedArray;
+    return size;
+  }
+
+  /**
+   * getRealParts : -> double[]
+   * @return double[] : The real parts of the bins 0 to N/2 of the FFT
+   *                    result, a copy if they are kept off the heap. Not to
+   *                    be modified.
+   */
+  double[] getRealParts()
+  {
+    return realParts != null ? realParts : toArray(realBins);
+  }
+
+  /**
+   * getImaginaryParts : -> double[]
+   * @return double[] : The imaginary parts of the bins 0 to N/2 of the FFT
+   *                    result, a copy if they are kept off the heap. Not to
+   *                    be modified.
+   */
+  double[] getImaginaryParts()
+  {
+    return imaginaryParts != null ? imaginaryParts : toArray(imagBins);
+  }
+
+  /**
+   * static toArray : DoubleBuffer -> double[]
+   * @return double[] : The values of 'bins' up to its limit
+   */
+  private static double[] toArray(DoubleBuffer bins)
+  {
+    double[] values = new double[bins.limit()];
+    DoubleBuffer view = bins.duplicate();
+    view.rewind();
+    view.get(values);
+    return values;
+  }
+
+  /**
+   * static getNoOfBins : int -> int
+   * @param size : The size N of a transform of real samples, a power of 2
+   * @return int : The number of bins kept of it, N/2+1 (N if N < 2)
+   */
+  static int getNoOfBins(int size)
+  {
+    return size < 2 ? size : size / 2 + 1;
   }
-	
+
   /**
-   * static applyHanningWindow : float[] -> ComplexNumber[]
+   * static applyHanningWindow : float[], double[], double[] -> void
    * @param samples : The samples in little endian format
-   * @return windowedValues : The samples with Hanning Window function 
-   * 							applied to every sample
+   * @param evenValues : The array, at least half as long as 'samples', into
+   *                     which the windowed even samples are written
+   * @param oddValues : The array for the windowed odd samples
+   * @effect : Writes the samples with Hanning Window function applied to
+   *           every sample packed as performRealFFT expects them, i.e.
+   *           sample i into 'evenValues' or 'oddValues' at i/2. A single
+   *           sample is written into 'evenValues'.
    */
-  private static ComplexNumber[] applyHanningWindow(float[] samples)
+  private static void applyHanningWindow(float[] samples,
+		  double[] evenValues, double[] oddValues)
   {
     int noOfSamples = samples.length;
-    ComplexNumber[] windowedValues = new ComplexNumber[noOfSamples];
-    for(int i = 0; i<noOfSamples; i++)
+    double[] window = new double[Math.min(WINDOW_BLOCK_SIZE, noOfSamples)];
+    for(int start = 0; start<noOfSamples; start += window.length)
     {
-      float piTimesIndex = (float) Math.PI * i;
-      double windowReal = samples[i] * 
-          (0.5f + 0.5f * (float) Math.cos(2.0f * piTimesIndex / noOfSamples));
-      windowedValues[i] = ComplexNumbers.make(windowReal, 0);
+      int count = Math.min(window.length, noOfSamples - start);
+      getHanningWindow(noOfSamples, start, window, count);
+      for(int w = 0, i = start; w<count; w++, i++)
+      {
+        double windowed = samples[i] * window[w];
+        if((i & 1) == 0)
+          evenValues[i >> 1] = windowed;
+        else
+          oddValues[i >> 1] = windowed;
+      }
     }
-    return windowedValues;
   }
-	
+
   /**
-   * static performFFT : ComplexNumber[] , int
-   * @param windowedSamples : The samples with Hanning Window Function
-   *                          applied to every sample
-   * @param samplesLen : The length of the array 'windowedSamples'
-   * @return ComplexNumber[] : The array with FFT applied on every element
-   *                           of 'windowedSamples'
+   * static performRealFFT : double[], double[], int -> void
+   * @param real : The samples 0, 2, 4, ... N-2 of the N real samples to
+   *               transform, at indexes 0 to N/2-1, and room for N/2+1
+   *               values
+   * @param imag : The samples 1, 3, 5, ... N-1, at the same indexes, and
+   *               room for N/2+1 values
+   * @param size : N, a power of 2 of at least 2
+   * @effect : Replaces 'real' and 'imag' with the bins 0 to N/2 of the FFT
+   *           of the N samples. The packed samples z[n] = x[2n] + i*x[2n+1]
+   *           go through an FFT of size N/2, whose bins Z[k] hold the FFTs
+   *           of the even (E) and odd (O) samples mixed together:
+   *             E[k] = (Z[k] + conj(Z[N/2-k])) / 2
+   *             O[k] = (Z[k] - conj(Z[N/2-k])) / 2i
+   *             X[k] = E[k] + e^(-2*PI*i*k/N) * O[k]
+   *           and X[N/2-k] = conj(E[k] - e^(-2*PI*i*k/N) * O[k]), so the
+   *           bins k and N/2-k are separated together in place.
    */
-  private static ComplexNumber[] performFFT(ComplexNumber[] windowedSamples,
-		  int samplesLen)
+  static void performRealFFT(double[] real, double[] imag, int size)
   {
-    if(samplesLen == 1)
-      return windowedSamples;
-   
-    int samplesLenBy2 = samplesLen / 2;
-   
-    // Even Samples
-    ComplexNumber[] evenSamples = new ComplexNumber[samplesLen/2];
-    for (int sampleCount = 0; sampleCount < samplesLenBy2; sampleCount++) 
+    int halfSize = size / 2;
+    double[][] twiddles = getTwiddleFactors(size);
+    double[] cosTable = twiddles[0];
+    double[] sinTable = twiddles[1];
+    int stride = 2 * cosTable.length / size;
+    performFFT(real, imag, halfSize, twiddles);
+    // Bin 0 has E[0] and O[0] as its real and imaginary parts
+    double dc = real[0];
+    double firstOdd = imag[0];
+    real[0] = dc + firstOdd;
+    imag[0] = 0;
+    real[halfSize] = dc - firstOdd;
+    imag[halfSize] = 0;
+    for(int k = 1, j = halfSize - 1; k<=j; k++, j--)
+    {
+      double evenReal = (real[k] + real[j]) / 2;
+      double evenImag = (imag[k] - imag[j]) / 2;
+      double oddReal = (imag[k] + imag[j]) / 2;
+      double oddImag = (real[j] - real[k]) / 2;
+      double twiddleCos = cosTable[k * stride];
+      double twiddleSin = sinTable[k * stride];
+      double twiddledReal = oddReal * twiddleCos - oddImag * twiddleSin;
+      double twiddledImag = oddReal * twiddleSin + oddImag * twiddleCos;
+      real[k] = evenReal + twiddledReal;
+      imag[k] = evenImag + twiddledImag;
+      real[j] = evenReal - twiddledReal;
+      imag[j] = twiddledImag - evenImag;
+    }
+  }
+
+  /**
+   * static performInverseRealFFT : double[], double[], int -> void
+   * @param real : The real parts of the bins 0 to N/2 of the FFT of N real
+   *               samples
+   * @param imag : The imaginary parts of the same bins
+   * @param size : N, a power of 2 of at least 2
+   * @effect : Replaces 'real' and 'imag' with the N real samples, packed as
+   *           performRealFFT takes them: sample 2n in 'real' and sample
+   *           2n+1 in 'imag' at index n. Undoes performRealFFT: the bins are
+   *           mixed back into Z[k] = E[k] + i*O[k], with
+   *             E[k] = (X[k] + conj(X[N/2-k])) / 2
+   *             O[k] = e^(2*PI*i*k/N) * (X[k] - conj(X[N/2-k])) / 2
+   *           and Z goes through an inverse FFT of size N/2. The inverse
+   *           FFT is the FFT with the real and imaginary parts swapped on
+   *           the way in and out, divided by N/2.
+   */
+  static void performInverseRealFFT(double[] real, double[] imag, int size)
+  {
+    int halfSize = size / 2;
+    double first = real[0];
+    double last = real[halfSize];
+    real[0] = (first + last) / 2;
+    imag[0] = (first - last) / 2;
+    double[][] twiddles = getTwiddleFactors(size);
+    double[] cosTable = twiddles[0];
+    double[] sinTable = twiddles[1];
+    int stride = 2 * cosTable.length / size;
+    for(int k = 1, j = halfSize - 1; k<=j; k++, j--)
     {
-      evenSamples[sampleCount] = windowedSamples[2 * sampleCount];
+      double evenReal = (real[k] + real[j]) / 2;
+      double evenImag = (imag[k] - imag[j]) / 2;
+      double diffReal = (real[k] - real[j]) / 2;
+      double diffImag = (imag[k] + imag[j]) / 2;
+      // The twiddle factors are e^(-2*PI*i*k/N), their conjugates are used
+      double twiddleCos = cosTable[k * stride];
+      double twiddleSin = sinTable[k * stride];
+      double oddReal = diffReal * twiddleCos + diffImag * twiddleSin;
+      double oddImag = diffImag * twiddleCos - diffReal * twiddleSin;
+      real[k] = evenReal - oddImag;
+      imag[k] = evenImag + oddReal;
+      real[j] = evenReal + oddImag;
+      imag[j] = oddReal - evenImag;
     }
-    ComplexNumber[] evenFFTSamples = performFFT(evenSamples, samplesLenBy2);
-   
-    // Odd Samples
-    ComplexNumber[] oddSamples = new ComplexNumber[samplesLen/2];
-    for (int sampleCount = 0; sampleCount < samplesLenBy2; sampleCount++) 
+    performFFT(imag, real, halfSize, twiddles);
+    for(int n = 0; n<halfSize; n++)
     {
-      oddSamples[sampleCount] = windowedSamples[(2 * sampleCount) + 1];
+      real[n] /= halfSize;
+      imag[n] /= halfSize;
     }
-    ComplexNumber[] oddFFTSamples = performFFT(oddSamples, samplesLenBy2);
-   
+  }
+
+  /**
+   * static performFFT : double[], double[] -> void
+   * @param real : The real parts of the samples, whose length is a power of 2
+   * @param imag : The imaginary parts of the samples, of the same length as
+   *               'real'
+   * @effect : Replaces 'real' and 'imag' with the FFT of the samples. The
+   *           samples are put in bit reversed order and then combined
+   *           level by level with the butterfly operation.
+   */
+  static void performFFT(double[] real, double[] imag)
+  {
+    performFFT(real, imag, real.length);
+  }
+
+  /**
+   * static performFFT : double[], double[], int -> void
+   * @param samplesLen : The number of samples to transform, a power of 2
+   * @effect : Same as performFFT on the first 'samplesLen' values of 'real'
+   *           and 'imag', the rest of the arrays is left as it is
+   */
+  static void performFFT(double[] real, double[] imag, int samplesLen)
+  {
+    performFFT(real, imag, samplesLen, getTwiddleFactors(samplesLen));
+  }
+
+  /**
+   * static performFFT : double[], double[], int, double[][] -> void
+   * @param twiddles : The twiddle factors returned by getTwiddleFactors for
+   *                   'samplesLen' or a larger size
+   * @effect : Same as performFFT on the first 'samplesLen' values of 'real'
+   *           and 'imag', taking the twiddle factors from 'twiddles'
+   */
+  private static void performFFT(double[] real, double[] imag,
+		  int samplesLen, double[][] twiddles)
+  {
+    if(samplesLen <= 1)
+      return;
+
+    // Bit Reversal Permutation
+    for(int i = 1, j = 0; i<samplesLen; i++)
+    {
+      int bit = samplesLen >> 1;
+      for(; (j & bit) != 0; bit >>= 1)
+      {
+        j ^= bit;
+      }
+      j ^= bit;
+      if(i < j)
+      {
+        double tempReal = real[i];
+        real[i] = real[j];
+        real[j] = tempReal;
+        double tempImag = imag[i];
+        imag[i] = imag[j];
+        imag[j] = tempImag;
+      }
+    }
+
     //Combining the Even And Odd Samples
-    ComplexNumber[] result = new ComplexNumber[samplesLen];
-    for(int sampleCount = 0; sampleCount<samplesLenBy2; sampleCount++)
+    double[] cosTable = twiddles[0];
+    double[] sinTable = twiddles[1];
+    int stride = 2 * cosTable.length / samplesLen;
+    for(int len = 2; len<=samplesLen; len <<= 1)
+    {
+      int lenBy2 = len >> 1;
+      int tableStep = samplesLen / len * stride;
+      for(int start = 0; start<samplesLen; start += len)
+      {
+        for(int k = 0, t = 0; k<lenBy2; k++, t += tableStep)
+        {
+          int even = start + k;
+          int odd = even + lenBy2;
+          double omegaReal = cosTable[t];
+          double omegaImag = sinTable[t];
+          double oddReal = real[odd] * omegaReal - imag[odd] * omegaImag;
+          double oddImag = real[odd] * omegaImag + imag[odd] * omegaReal;
+          real[odd] = real[even] - oddReal;
+          imag[odd] = imag[even] - oddImag;
+          real[even] += oddReal;
+          imag[even] += oddImag;
+        }
+      }
+    }
+  }
+
+  /**
+   * static getHanningWindow : int, int, double[], int -> void
+   * @param noOfSamples : The number of samples to be windowed
+   * @param from : The index of the first coefficient needed
+   * @param into : The array into which the coefficients are written
+   * @param count : The number of coefficients needed
+   * @effect : Writes the Hanning Window coefficients 'from' to
+   *           'from'+'count'-1 for 'noOfSamples' samples into 'into'. The
+   *           coefficient of every multiple of WINDOW_STEP is calculated
+   *           exactly and the ones after it by rotating it, so a
+   *           coefficient is the same whatever part of the window it is
+   *           asked with.
+   */
+  static void getHanningWindow(int noOfSamples, int from, double[] into,
+		  int count)
+  {
+    double stepCos = Math.cos(2 * Math.PI / noOfSamples);
+    double stepSin = Math.sin(2 * Math.PI / noOfSamples);
+    double cos = 0;
+    double sin = 0;
+    for(int i = 0; i<count; i++)
+    {
+      int index = from + i;
+      if(i == 0 || index % WINDOW_STEP == 0)
+      {
+        int exactIndex = index - index % WINDOW_STEP;
+        double angle = 2 * Math.PI * exactIndex / noOfSamples;
+        cos = Math.cos(angle);
+        sin = Math.sin(angle);
+        for(int rotated = exactIndex; rotated<index; rotated++)
+        {
+          double nextCos = cos * stepCos - sin * stepSin;
+          sin = sin * stepCos + cos * stepSin;
+          cos = nextCos;
+        }
+      }
+      into[i] = 0.5 + 0.5 * cos;
+      double nextCos = cos * stepCos - sin * stepSin;
+      sin = sin * stepCos + cos * stepSin;
+      cos = nextCos;
+    }
+  }
+
+  /**
+   * static getTwiddleFactors : int -> double[][]
+   * @param samplesLen : The length of the transform, a power of 2
+   * @return double[][] : The cosines and sines of the Lth roots of unity,
+   *                      for the first half of the circle, L being the
+   *                      largest length transformed so far, at least
+   *                      'samplesLen'. A transform of 'samplesLen' uses
+   *                      every (L/samplesLen)th entry, and its smaller
+   *                      levels every (L/len)th entry.
+   */
+  private static synchronized double[][] getTwiddleFactors(int samplesLen)
+  {
+    int samplesLenBy2 = samplesLen / 2;
+    if(twiddleTable[0].length < samplesLenBy2)
     {
-      // 2*PI*i*k/n
-      double nthRootOfUnity = (-2 * Math.PI * sampleCount) / samplesLen;
-      ComplexNumber omega = ComplexNumbers.make(Math.cos(nthRootOfUnity),
-    	     	Math.sin(nthRootOfUnity));
-      ComplexNumber omegaMulOdd = omega.multiply(oddFFTSamples[sampleCount]);
-      result[sampleCount] = evenFFTSamples[sampleCount].add(omegaMulOdd);
-      int smpleOffsetN2 = sampleCount + samplesLenBy2;
-      result[smpleOffsetN2] = evenFFTSamples[sampleCount].subtract(omegaMulOdd);
+      double[] cosTable = new double[samplesLenBy2];
+      double[] sinTable = new double[samplesLenBy2];
+      for(int k = 0; k<samplesLenBy2; k++)
+      {
+        // 2*PI*i*k/n
+        double nthRootOfUnity = (-2 * Math.PI * k) / samplesLen;
+        cosTable[k] = Math.cos(nthRootOfUnity);
+        sinTable[k] = Math.sin(nthRootOfUnity);
+      }
+      twiddleTable = new double[][] { cosTable, sinTable };
     }
-    return result;
+    return twiddleTable;
   }
-	
+
   /**
    * static getNearestPowerOfTwo : int -> int
    * @param n : An int of which a nearest power of two greater than 'n'
-   * 			  needs to be finded 
+   * 			  needs to be finded
    * @return int : The nearest power of 2 greater than 'n'
    */
-  private static int getNearestPowerOfTwo(int n)
+  static int getNearestPowerOfTwo(int n)
   {
     if((n & (n-1)) == 0)
       return n;
-   
+
     for(int i = 1; i<32; i*=2)
     {
       n |= (n >> i);
     }
     return n + 1;
   }
-}
\ No newline at end of file
+}
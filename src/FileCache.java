@@ -0,0 +1,322 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * class FileCache
+ * Description: The AudioProcessableFiles made by a run, by path, kept with
+ * their samples and spectra for the other pairs which need them, within a
+ * budget of bytes.
+ *
+ * A file asked for which is not kept is made again, and its samples and
+ * spectrum are read and calculated again when they are asked for, so an
+ * evicted file costs time but never a wrong result. The bytes of a file
+ * grow after it is made, as its samples are read and its spectrum is
+ * calculated: they are measured again for the files used since the last
+ * call to trim, which is called between two comparisons and evicts the
+ * least recently used files till the budget is met. The files in use are
+ * pinned by the caller so that they are not evicted.
+ *
+ * A missing file is made outside the lock of the cache, so that the other
+ * threads are not held up by its header being read; a thread which asks
+ * for a file another thread is making waits for that one instead of
+ * making it again.
+ *
+ * The hits, misses and evictions are counted in RunStats.
+ */
+public class FileCache
+{
+  private final long budget;
+  // The kept files, least recently used first
+  private final LinkedHashMap<String, Entry> entries =
+		  new LinkedHashMap<String, Entry>(16, 0.75f, true);
+  // The entries used since the last trim, whose bytes may have grown
+  private final Set<Entry> used = new HashSet<Entry>();
+  // The bytes measured for all the entries
+  private long totalBytes = 0;
+
+  /**
+   * Constructor : long -> FileCache
+   * @param budget : The most bytes of samples, spectra and landmarks kept
+   *                 after a trim, Long.MAX_VALUE for no limit
+   */
+  FileCache(long budget)
+  {
+    this.budget = budget;
+  }
+
+  /**
+   * getBudget : -> long
+   * @return long : The most bytes kept after a trim
+   */
+  public long getBudget()
+  {
+    return budget;
+  }
+
+  /**
+   * get : String -> AudioProcessableFile
+   * @param filePath : The path of an audio file
+   * @return AudioProcessableFile : The kept file at 'filePath', else the
+   *                                file made from it now and kept, null if
+   *                                it is not a valid audio file
+   */
+  public AudioProcessableFile get(final String filePath)
+  {
+    Entry entry;
+    FutureTask<AudioProcessableFile> making;
+    boolean isMaker = false;
+    synchronized(this)
+    {
+      entry = entries.get(filePath);
+      if(entry != null && entry.file != null)
+      {
+        RunStats.count(RunStats.FILE_CACHE_HITS, 1);
+        used.add(entry);
+        return entry.file;
+      }
+      if(entry != null && entry.making != null)
+      {
+        // Made by another thread, which this one waits for
+        RunStats.count(RunStats.FILE_CACHE_HITS, 1);
+      }
+      else
+      {
+        // An invalid file is made again, so its error is printed again
+        RunStats.count(RunStats.FILE_CACHE_MISSES, 1);
+        if(entry == null)
+        {
+          entry = new Entry(getStamp(filePath));
+          entries.put(filePath, entry);
+        }
+        entry.making = new FutureTask<AudioProcessableFile>(
+        		new Callable<AudioProcessableFile>()
+        {
+          public AudioProcessableFile call()
+          {
+            return AudioProcessableFiles.make(filePath);
+          }
+        });
+        isMaker = true;
+      }
+      making = entry.making;
+    }
+    AudioProcessableFile file = null;
+    try
+    {
+      if(isMaker)
+        making.run();
+      file = getMade(making);
+    }
+    finally
+    {
+      synchronized(this)
+      {
+        if(isMaker && entry.making == making)
+        {
+          entry.file = file;
+          entry.making = null;
+        }
+        if(entries.get(filePath) == entry)
+          used.add(entry);
+      }
+    }
+    return file;
+  }
+
+  /**
+   * static getMade : FutureTask<AudioProcessableFile> -> AudioProcessableFile
+   * @return AudioProcessableFile : The file made by 'making', once it is,
+   *                                throwing again what making it threw
+   */
+  private static AudioProcessableFile getMade(
+		  FutureTask<AudioProcessableFile> making)
+  {
+    boolean isInterrupted = false;
+    try
+    {
+      while(true)
+      {
+        try
+        {
+          return making.get();
+        }
+        catch(InterruptedException e)
+        {
+          // The file is made by then, or failed
+          isInterrupted = true;
+        }
+      }
+    }
+    catch(ExecutionException e)
+    {
+      if(e.getCause() instanceof Error)
+        throw (Error) e.getCause();
+      if(e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new IllegalStateException(e.getCause());
+    }
+    finally
+    {
+      if(isInterrupted)
+        Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * peek : String -> AudioProcessableFile
+   * @param filePath : The path of an audio file
+   * @return AudioProcessableFile : The kept file at 'filePath', null if
+   *                                there is none. Nothing is counted.
+   */
+  public synchronized AudioProcessableFile peek(String filePath)
+  {
+    Entry entry = entries.get(filePath);
+    return entry == null ? null : entry.file;
+  }
+
+  /**
+   * trim : String[] -> List<AudioProcessableFile>
+   * @param pinned : The paths of the files in use, which are kept
+   * @return List<AudioProcessableFile> : The files evicted, least recently
+   *                                      used first, for the caller to
+   *                                      release once no pair uses them
+   * @effect : Measures again the bytes of the files used since the last
+   *           trim, then evicts the least recently used files which are
+   *           not pinned till the bytes kept are within the budget
+   */
+  public synchronized List<AudioProcessableFile> trim(String... pinned)
+  {
+    measureUsed();
+    List<AudioProcessableFile> evicted = new ArrayList<AudioProcessableFile>();
+    List<String> kept = Arrays.asList(pinned);
+    Iterator<Map.Entry<String, Entry>> leastRecentlyUsed =
+    		entries.entrySet().iterator();
+    while(totalBytes > budget && leastRecentlyUsed.hasNext())
+    {
+      Map.Entry<String, Entry> next = leastRecentlyUsed.next();
+      // A file being made is in use as well
+      if(kept.contains(next.getKey()) || next.getValue().making != null)
+        continue;
+      leastRecentlyUsed.remove();
+      totalBytes -= next.getValue().bytes;
+      if(next.getValue().file != null)
+        evicted.add(next.getValue().file);
+    }
+    RunStats.count(RunStats.FILE_CACHE_EVICTIONS, evicted.size());
+    return evicted;
+  }
+
+  /**
+   * trimFinished : String -> List<AudioProcessableFile>
+   * @param filePath : The path of a file no longer in use
+   * @return List<AudioProcessableFile> : The file evicted, for the caller
+   *                                      to release
+   * @effect : Measures again the bytes of the file at 'filePath' and of the
+   *           files used since the last trim, then evicts the file at
+   *           'filePath' if the bytes kept are over the budget. Called
+   *           where the other files may all still be in use.
+   */
+  public synchronized List<AudioProcessableFile> trimFinished(String filePath)
+  {
+    List<AudioProcessableFile> evicted = new ArrayList<AudioProcessableFile>();
+    Entry entry = entries.get(filePath);
+    if(entry == null)
+      return evicted;
+    used.add(entry);
+    measureUsed();
+    if(totalBytes <= budget)
+      return evicted;
+    entries.remove(filePath);
+    totalBytes -= entry.bytes;
+    if(entry.file != null)
+      evicted.add(entry.file);
+    RunStats.count(RunStats.FILE_CACHE_EVICTIONS, evicted.size());
+    return evicted;
+  }
+
+  /**
+   * evictChanged : -> List<AudioProcessableFile>
+   * @return List<AudioProcessableFile> : The files evicted because the
+   *                                      size or last modified time of
+   *                                      their file changed since they were
+   *                                      made, for the caller to release
+   */
+  public synchronized List<AudioProcessableFile> evictChanged()
+  {
+    List<AudioProcessableFile> evicted = new ArrayList<AudioProcessableFile>();
+    Iterator<Map.Entry<String, Entry>> kept = entries.entrySet().iterator();
+    while(kept.hasNext())
+    {
+      Map.Entry<String, Entry> next = kept.next();
+      if(next.getValue().making != null ||
+    		  next.getValue().stamp.equals(getStamp(next.getKey())))
+        continue;
+      kept.remove();
+      used.remove(next.getValue());
+      totalBytes -= next.getValue().bytes;
+      if(next.getValue().file != null)
+        evicted.add(next.getValue().file);
+    }
+    return evicted;
+  }
+
+  /**
+   * measureUsed : -> void
+   * @effect : Measures again the bytes of the files used since the last
+   *           trim
+   */
+  private void measureUsed()
+  {
+    for(Entry entry : used)
+    {
+      long bytes = entry.file == null ? 0 : entry.file.getMemorySize();
+      totalBytes += bytes - entry.bytes;
+      entry.bytes = bytes;
+    }
+    used.clear();
+  }
+
+  /**
+   * static getStamp : String -> List<Long>
+   * @return List<Long> : The size and the last modified time of the file
+   *                      at 'filePath'
+   */
+  private static List<Long> getStamp(String filePath)
+  {
+    File file = new File(filePath);
+    return Arrays.asList(file.length(), file.lastModified());
+  }
+
+  /**
+   * class Entry
+   * Description: A kept file, with the stamp of its file when it was made
+   * and its bytes when last measured
+   */
+  private static class Entry
+  {
+    private final List<Long> stamp;
+    private AudioProcessableFile file = null;
+    // Set while the file is made, outside the lock of the cache
+    private FutureTask<AudioProcessableFile> making = null;
+    private long bytes = 0;
+
+    /**
+     * Constructor : List<Long> -> Entry
+     * @param stamp : The size and last modified time of the file
+     */
+    Entry(List<Long> stamp)
+    {
+      this.stamp = stamp;
+    }
+  }
+}
@@ -0,0 +1,127 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * class FileHandles
+ * Description: Opens the audio files, at most a given number of them at
+ * any time in the whole run, so that a run over more files than the limit
+ * of open files of the process never fails for it.
+ *
+ * An audio file is only open while its header or its samples are being
+ * read, and is closed right after. A thread which asks for a file while
+ * the most files are open waits till one of them is closed.
+ */
+public abstract class FileHandles
+{
+  // Constants
+  // The most audio files open at a time if "--max-open" is not given
+  public static final int DEFAULT_MAX_OPEN = 64;
+
+  private static Semaphore openFiles = new Semaphore(DEFAULT_MAX_OPEN, true);
+
+  /**
+   * static setMaxOpen : int -> void
+   * @param maxOpen : The most audio files open at a time, at least 1
+   * @effect : Files opened from now on are counted against 'maxOpen'. Only
+   *           called before any file is opened.
+   */
+  public static synchronized void setMaxOpen(int maxOpen)
+  {
+    openFiles = new Semaphore(Math.max(1, maxOpen), true);
+  }
+
+  /**
+   * static open : File -> FileInputStream
+   * @param file : The audio file to read
+   * @return FileInputStream : A new stream of 'file', which counts as an
+   *                           open file till it, or its channel, is closed
+   * @effect : Waits while the most files are open
+   */
+  public static FileInputStream open(File file) throws FileNotFoundException
+  {
+    Semaphore permits;
+    synchronized(FileHandles.class)
+    {
+      permits = openFiles;
+    }
+    permits.acquireUninterruptibly();
+    try
+    {
+      return new CountedFileInputStream(file, permits);
+    }
+    catch(FileNotFoundException e)
+    {
+      permits.release();
+      throw e;
+    }
+    catch(RuntimeException e)
+    {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * static close : FileInputStream -> void
+   * @effect : Closes 'stream' if it is not null, ignoring the errors as
+   *           nothing more is read from it
+   */
+  public static void close(FileInputStream stream)
+  {
+    if(stream == null)
+      return;
+    try
+    {
+      stream.close();
+    }
+    catch(IOException e)
+    {
+      // Nothing more is read from it anyway
+    }
+  }
+
+  /**
+   * class CountedFileInputStream
+   * Description: A FileInputStream which gives its open file back to the
+   * count the first time it is closed
+   */
+  private static class CountedFileInputStream extends FileInputStream
+  {
+    private final Semaphore permits;
+    private boolean isClosed = false;
+
+    /**
+     * Constructor : File, Semaphore -> CountedFileInputStream
+     * @param file : The file to read
+     * @param permits : The count the open file was taken from
+     */
+    CountedFileInputStream(File file, Semaphore permits)
+    		throws FileNotFoundException
+    {
+      super(file);
+      this.permits = permits;
+    }
+
+    /* @see java.io.FileInputStream#close() */
+    public void close() throws IOException
+    {
+      synchronized(this)
+      {
+        if(isClosed)
+          return;
+        isClosed = true;
+      }
+      try
+      {
+        super.close();
+      }
+      finally
+      {
+        permits.release();
+      }
+    }
+  }
+}
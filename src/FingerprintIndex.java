@@ -0,0 +1,114 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * class FingerprintIndex
+ * Description: An in-memory inverted index from the landmark hashes of
+ * Fingerprints to the files, and the frames within the files, they occur
+ * at. A query looks up every landmark of the queried file and votes for
+ * each (file, time offset) pair found. A file of the index matches when
+ * enough landmarks agree on the same time offset, i.e. the peaks of both
+ * files line up.
+ */
+public class FingerprintIndex
+{
+  // A file matches if at least this many landmarks agree on one offset
+  private static final int MIN_MATCH_VOTES = 10;
+  // ... and at least this fraction of the landmarks of the query agree
+  private static final double MIN_MATCH_FRACTION = 0.5;
+
+  // hash -> (file id << 32 | frame) of every landmark with that hash
+  private Map<Integer, Fingerprints.LongList> postings =
+		  new HashMap<Integer, Fingerprints.LongList>();
+  private int noOfFiles = 0;
+
+  /**
+   * add : long[] -> int
+   * @param landmarks : The landmarks of a file, as returned by
+   *                    Fingerprints.extract
+   * @return int : The id given to the file, 0 for the first file added to
+   *               this and counting up
+   */
+  public int add(long[] landmarks)
+  {
+    int fileId = noOfFiles++;
+    for(long landmark : landmarks)
+    {
+      int hash = Fingerprints.getHash(landmark);
+      Fingerprints.LongList filesWithHash = postings.get(hash);
+      if(filesWithHash == null)
+      {
+        filesWithHash = new Fingerprints.LongList();
+        postings.put(hash, filesWithHash);
+      }
+      filesWithHash.add(((long) fileId << 32) |
+    		  (Fingerprints.getFrame(landmark) & 0xFFFFFFFFL));
+    }
+    return fileId;
+  }
+
+  /**
+   * query : long[] -> boolean[]
+   * @param landmarks : The landmarks of the file to look for
+   * @return boolean[] : An array with true at the id of every file of this
+   *                     that matches the file of 'landmarks'
+   */
+  public boolean[] query(long[] landmarks)
+  {
+    int[] bestVotes = countVotes(landmarks);
+    boolean[] matches = new boolean[noOfFiles];
+    double minVotes = Math.max(MIN_MATCH_VOTES,
+    		MIN_MATCH_FRACTION * landmarks.length);
+    for(int fileId = 0; fileId<noOfFiles; fileId++)
+    {
+      matches[fileId] = bestVotes[fileId] >= minVotes;
+    }
+    return matches;
+  }
+
+  /**
+   * countVotes : long[] -> int[]
+   * @param landmarks : The landmarks of the file to look for
+   * @return int[] : For every file of this, the number of landmarks of
+   *                 'landmarks' found in it at the most common time offset
+   */
+  private int[] countVotes(long[] landmarks)
+  {
+    int[] bestVotes = new int[noOfFiles];
+    Map<Long, int[]> votes = new HashMap<Long, int[]>();
+    for(long landmark : landmarks)
+    {
+      Fingerprints.LongList filesWithHash =
+    		  postings.get(Fingerprints.getHash(landmark));
+      if(filesWithHash == null)
+        continue;
+      int queryFrame = Fingerprints.getFrame(landmark);
+      for(int i = 0; i<filesWithHash.size(); i++)
+      {
+        long posting = filesWithHash.get(i);
+        int fileId = (int) (posting >>> 32);
+        int offset = (int) posting - queryFrame;
+        Long voteKey = ((long) fileId << 32) | (offset & 0xFFFFFFFFL);
+        int[] count = votes.get(voteKey);
+        if(count == null)
+        {
+          count = new int[1];
+          votes.put(voteKey, count);
+        }
+        count[0]++;
+        if(count[0] > bestVotes[fileId])
+          bestVotes[fileId] = count[0];
+      }
+    }
+    return bestVotes;
+  }
+
+  /**
+   * size : -> int
+   * @return int : The number of files added to this
+   */
+  public int size()
+  {
+    return noOfFiles;
+  }
+}
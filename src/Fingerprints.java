@@ -0,0 +1,200 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * class Fingerprints
+ * Description: This class extracts the landmarks of audio samples. The
+ * samples are streamed through an STFT of overlapping frames. In every
+ * frame the loudest bin of each frequency band is a peak if it stands out
+ * from the rest of the frame. Every peak (anchor) is then paired with the
+ * next few peaks that follow it closely in time and frequency, and each
+ * pair gives one landmark.
+ *
+ * A landmark is a long: the upper 32 bits are the hash of the pair i.e.
+ * the frequency of the anchor, the frequency of the other peak and the
+ * number of frames between them, and the lower 32 bits are the frame of
+ * the anchor.
+ */
+public abstract class Fingerprints
+{
+  // Constants
+  private static final int FRAME_SIZE = 1024;
+  private static final int HOP_SIZE = 512;
+  // The frequency bands (in FFT bins) out of which one peak is picked
+  private static final int[] BAND_EDGES = {1, 10, 20, 40, 80, 160, 512};
+  // A band's loudest bin is a peak only if it is this many times louder
+  // than the average of the loudest bins of the frame
+  private static final double PEAK_TO_AVERAGE = 1.0;
+  // Magnitudes below this are treated as silence
+  private static final double SILENCE = 1e-6;
+  // How far ahead of an anchor the paired peaks can be
+  private static final int TARGET_FRAMES = 32;
+  private static final int TARGET_BINS = 64;
+  // The number of peaks paired with every anchor
+  private static final int FAN_OUT = 5;
+
+  /**
+   * static extract : SampleSource -> long[]
+   * @param samples : The source of the samples of an audio file
+   * @return long[] : The landmarks of 'samples', in the order of the frame
+   *                  of their anchor
+   */
+  public static long[] extract(SampleSource samples)
+  {
+    List<int[]> peaks = findPeaks(samples);
+    int noOfFrames = peaks.size();
+    LongList landmarks = new LongList();
+    for(int anchorFrame = 0; anchorFrame<noOfFrames; anchorFrame++)
+    {
+      for(int anchorBin : peaks.get(anchorFrame))
+      {
+        int paired = 0;
+        int lastFrame = Math.min(noOfFrames - 1, anchorFrame + TARGET_FRAMES);
+        for(int frame = anchorFrame + 1; frame<=lastFrame &&
+        		paired<FAN_OUT; frame++)
+        {
+          for(int bin : peaks.get(frame))
+          {
+            if(Math.abs(bin - anchorBin) >= TARGET_BINS || paired == FAN_OUT)
+              continue;
+            int hash = hash(anchorBin, bin, frame - anchorFrame);
+            landmarks.add(((long) hash << 32) | anchorFrame);
+            paired++;
+          }
+        }
+      }
+    }
+    return landmarks.toArray();
+  }
+
+  /**
+   * static getHash : long -> int
+   * @param landmark : A landmark returned by 'extract'
+   * @return int : The hash of the pair of peaks of 'landmark'
+   */
+  public static int getHash(long landmark)
+  {
+    return (int) (landmark >>> 32);
+  }
+
+  /**
+   * static getFrame : long -> int
+   * @param landmark : A landmark returned by 'extract'
+   * @return int : The frame of the anchor of 'landmark'
+   */
+  public static int getFrame(long landmark)
+  {
+    return (int) landmark;
+  }
+
+  /**
+   * static hash : int, int, int -> int
+   * @return int : The 'anchorBin' (9 bits), 'bin' (9 bits) and 'frameDelta'
+   *               (6 bits) packed into one int
+   */
+  private static int hash(int anchorBin, int bin, int frameDelta)
+  {
+    return (anchorBin << 15) | (bin << 6) | frameDelta;
+  }
+
+  /**
+   * static findPeaks : SampleSource -> List<int[]>
+   * @param samples : The source of the samples of an audio file
+   * @return List<int[]> : For every frame the bins which are peaks
+   */
+  private static List<int[]> findPeaks(SampleSource samples)
+  {
+    List<int[]> peaks = new ArrayList<int[]>();
+    STFT frames = new STFT(samples, FRAME_SIZE, HOP_SIZE);
+    double[] real = frames.getRealParts();
+    double[] imag = frames.getImaginaryParts();
+    int noOfBands = BAND_EDGES.length - 1;
+    int[] bandPeaks = new int[noOfBands];
+    double[] bandMagnitudes = new double[noOfBands];
+    while(frames.nextFrame())
+    {
+      double sumOfPeaks = 0;
+      for(int band = 0; band<noOfBands; band++)
+      {
+        bandPeaks[band] = -1;
+        bandMagnitudes[band] = 0;
+        for(int bin = BAND_EDGES[band]; bin<BAND_EDGES[band + 1]; bin++)
+        {
+          double magnitude = real[bin] * real[bin] + imag[bin] * imag[bin];
+          if(magnitude > bandMagnitudes[band])
+          {
+            bandMagnitudes[band] = magnitude;
+            bandPeaks[band] = bin;
+          }
+        }
+        sumOfPeaks += bandMagnitudes[band];
+      }
+      double threshold = Math.max(SILENCE,
+    		  PEAK_TO_AVERAGE * sumOfPeaks / noOfBands);
+      int noOfPeaks = 0;
+      for(int band = 0; band<noOfBands; band++)
+      {
+        if(bandMagnitudes[band] >= threshold)
+          bandPeaks[noOfPeaks++] = bandPeaks[band];
+      }
+      int[] framePeaks = new int[noOfPeaks];
+      System.arraycopy(bandPeaks, 0, framePeaks, 0, noOfPeaks);
+      peaks.add(framePeaks);
+    }
+    return peaks;
+  }
+
+  /**
+   * class LongList
+   * Description: A growable array of longs
+   */
+  static class LongList
+  {
+    private long[] values = new long[16];
+    private int size = 0;
+
+    /**
+     * add : long -> void
+     * @effect : Appends 'value' at the end of this
+     */
+    void add(long value)
+    {
+      if(size == values.length)
+      {
+        long[] grown = new long[size * 2];
+        System.arraycopy(values, 0, grown, 0, size);
+        values = grown;
+      }
+      values[size++] = value;
+    }
+
+    /**
+     * get : int -> long
+     * @return long : The value at 'index'
+     */
+    long get(int index)
+    {
+      return values[index];
+    }
+
+    /**
+     * size : -> int
+     * @return int : The number of values in this
+     */
+    int size()
+    {
+      return size;
+    }
+
+    /**
+     * toArray : -> long[]
+     * @return long[] : A copy of the values of this
+     */
+    long[] toArray()
+    {
+      long[] copy = new long[size];
+      System.arraycopy(values, 0, copy, 0, size);
+      return copy;
+    }
+  }
+}
@@ -0,0 +1,1135 @@
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * class MP3Decoder
+ * Description: A decoder of MPEG-1 Layer III (MP3) streams (ISO/IEC 11172-3)
+ * which reads the frames of the stream one at a time and decodes them into
+ * the samples of the first channel, as floats in [-1, 1) of 16 bit
+ * precision, the same samples a WAVE file decoded from the stream has.
+ *
+ * Every frame goes through the steps of the standard: Huffman decoding of
+ * the main data (which can start in earlier frames, the bit reservoir),
+ * requantization, joint stereo, reordering of short blocks, alias
+ * reduction, IMDCT with overlap and add, and the polyphase synthesis
+ * filterbank. The steps after joint stereo are only done for the first
+ * channel, the only one that is read.
+ *
+ * Like "lame --decode", the 529 samples of the delay of the decoder, and the
+ * delay and padding of the encoder if the stream has a LAME tag, are not
+ * returned. Only one frame of samples is held in memory at a time.
+ */
+public class MP3Decoder implements SampleSource
+{
+  // Constants
+  private static final int GRANULE_SIZE = 576;
+  private static final int NO_OF_SUBBANDS = 32;
+  private static final int SUBBAND_SIZE = 18;
+  private static final int SAMPLES_PER_FRAME = 1152;
+  private static final int DECODER_DELAY = 529;
+  private static final int MODE_JOINT_STEREO = 1;
+  private static final int MODE_MONO = 3;
+  private static final int BLOCK_TYPE_SHORT = 2;
+  private static final int MAX_16_BIT_SAMPLE = 32768;
+  // The main data of a frame can start up to 511 bytes before the frame
+  private static final int MAX_MAIN_DATA_BEGIN = 511;
+  // Bit rates in kbit/s and sampling rates in Hz of MPEG-1 Layer III
+  private static final int[] BIT_RATES = {0, 32, 40, 48, 56, 64, 80, 96, 112,
+	  128, 160, 192, 224, 256, 320, 0};
+  private static final int[] SAMPLING_RATES = {44100, 48000, 32000};
+  // The bits of the scale factors of the two groups of bands, by
+  // scalefac_compress
+  private static final int[] SLEN1 = {0, 0, 0, 0, 3, 1, 1, 1, 2, 2, 2, 3, 3,
+	  3, 4, 4};
+  private static final int[] SLEN2 = {0, 1, 2, 3, 0, 1, 2, 3, 1, 2, 3, 1, 2,
+	  3, 2, 3};
+  // The first long scale factor band of each scfsi group
+  private static final int[] SCFSI_BANDS = {0, 6, 11, 16, 21};
+  private static final int[] PRETAB = {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 1,
+	  1, 1, 2, 2, 3, 3, 3, 2, 0};
+  // The first line of each scale factor band of long blocks, and of each
+  // window of short blocks, by sampling rate
+  private static final int[][] LONG_BANDS = {
+	  {0, 4, 8, 12, 16, 20, 24, 30, 36, 44, 52, 62, 74, 90, 110, 134, 162, 196,
+		  238, 288, 342, 418, 576},
+	  {0, 4, 8, 12, 16, 20, 24, 30, 36, 42, 50, 60, 72, 88, 106, 128, 156, 190,
+		  230, 276, 330, 384, 576},
+	  {0, 4, 8, 12, 16, 20, 24, 30, 36, 44, 54, 66, 82, 102, 126, 156, 194, 240,
+		  296, 364, 448, 550, 576}};
+  private static final int[][] SHORT_BANDS = {
+	  {0, 4, 8, 12, 16, 22, 30, 40, 52, 66, 84, 106, 136, 192},
+	  {0, 4, 8, 12, 16, 22, 28, 38, 50, 64, 80, 100, 126, 192},
+	  {0, 4, 8, 12, 16, 22, 30, 42, 58, 78, 104, 138, 180, 192}};
+  // Long bands of the long part of a mixed block, first short band after it
+  private static final int MIXED_LONG_BANDS = 8;
+  private static final int MIXED_SHORT_START = 3;
+  // Coefficients of the alias reduction butterflies
+  private static final double[] ALIAS_COEFFICIENTS = {-0.6, -0.535, -0.33,
+	  -0.185, -0.095, -0.041, -0.0142, -0.0037};
+  // Half of the prototype filter of the synthesis window (ISO/IEC 11172-3
+  // Table B.3) in units of 2^-16
+  private static final int[] SYNTHESIS_WINDOW_HALF = {
+    0, -1, -1, -1, -1, -1, -1, -2, -2, -2, -2, -3, -3, -4, -4, -5, -5, -6,
+    -7, -7, -8, -9, -10, -11, -13, -14, -16, -17, -19, -21, -24, -26, -29,
+    -31, -35, -38, -41, -45, -49, -53, -58, -63, -68, -73, -79, -85, -91,
+    -97, -104, -111, -117, -125, -132, -139, -147, -154, -161, -169, -176,
+    -183, -190, -196, -202, -208, -213, -218, -222, -225, -227, -228, -228,
+    -227, -224, -221, -215, -208, -200, -189, -177, -163, -146, -127, -106,
+    -83, -57, -29, 2, 36, 72, 111, 153, 197, 244, 294, 347, 401, 459, 519,
+    581, 645, 711, 779, 848, 919, 991, 1064, 1137, 1210, 1283, 1356, 1428,
+    1498, 1567, 1634, 1698, 1759, 1817, 1870, 1919, 1962, 2001, 2032, 2057,
+    2075, 2085, 2087, 2080, 2063, 2037, 2000, 1952, 1893, 1822, 1739, 1644,
+    1535, 1414, 1280, 1131, 970, 794, 605, 402, 185, -45, -288, -545, -814,
+    -1095, -1388, -1692, -2006, -2330, -2663, -3004, -3351, -3705, -4063,
+    -4425, -4788, -5153, -5517, -5879, -6237, -6589, -6935, -7271, -7597,
+    -7910, -8209, -8491, -8755, -8998, -9219, -9416, -9585, -9727, -9838,
+    -9916, -9959, -9966, -9935, -9863, -9750, -9592, -9389, -9139, -8840,
+    -8492, -8092, -7640, -7134, -6574, -5959, -5288, -4561, -3776, -2935,
+    -2037, -1082, -70, 998, 2122, 3300, 4533, 5818, 7154, 8540, 9975, 11455,
+    12980, 14548, 16155, 17799, 19478, 21189, 22929, 24694, 26482, 28289,
+    30112, 31947, 33791, 35640, 37489, 39336, 41176, 43006, 44821, 46617,
+    48390, 50137, 51853, 53534, 55178, 56778, 58333, 59838, 61289, 62684,
+    64019, 65290, 66494, 67629, 68692, 69679, 70590, 71420, 72169, 72835,
+    73415, 73908, 74313, 74630, 74856, 74992, 75038};
+
+  // Tables computed once and shared by all the decoders
+  private static final double[] POWER_4_3 = new double[8207];
+  private static final double[][] IMDCT_LONG = new double[36][18];
+  private static final double[][] IMDCT_SHORT = new double[12][6];
+  private static final double[][] IMDCT_WINDOWS = new double[4][36];
+  private static final double[] SHORT_WINDOW = new double[12];
+  private static final double[] ALIAS_CS = new double[8];
+  private static final double[] ALIAS_CA = new double[8];
+  private static final double[][] SYNTHESIS_MATRIX = new double[64][32];
+  private static final double[] SYNTHESIS_WINDOW = new double[512];
+  private static final double[] INTENSITY_RATIOS = new double[7];
+  private static final int[][] HUFFMAN_TREES = new int[32][];
+  private static final int[] COUNT1_TREE = MP3HuffmanTables.makeCount1Tree();
+
+  static
+  {
+    for(int i = 0; i<POWER_4_3.length; i++)
+      POWER_4_3[i] = Math.pow(i, 4.0 / 3.0);
+    for(int i = 0; i<36; i++)
+      for(int k = 0; k<18; k++)
+        IMDCT_LONG[i][k] = Math.cos(Math.PI / 72 * (2 * i + 1 + 18) *
+        		(2 * k + 1));
+    for(int i = 0; i<12; i++)
+    {
+      for(int k = 0; k<6; k++)
+        IMDCT_SHORT[i][k] = Math.cos(Math.PI / 24 * (2 * i + 1 + 6) *
+        		(2 * k + 1));
+      SHORT_WINDOW[i] = Math.sin(Math.PI / 12 * (i + 0.5));
+    }
+    // The windows of the normal (0), start (1) and stop (3) blocks
+    for(int i = 0; i<36; i++)
+    {
+      double sine = Math.sin(Math.PI / 36 * (i + 0.5));
+      IMDCT_WINDOWS[0][i] = sine;
+      IMDCT_WINDOWS[1][i] = i < 18 ? sine : i < 24 ? 1 : i < 30 ?
+    		  Math.sin(Math.PI / 12 * (i - 18 + 0.5)) : 0;
+      IMDCT_WINDOWS[3][i] = i < 6 ? 0 : i < 12 ?
+    		  Math.sin(Math.PI / 12 * (i - 6 + 0.5)) : i < 18 ? 1 : sine;
+    }
+    for(int i = 0; i<8; i++)
+    {
+      double c = ALIAS_COEFFICIENTS[i];
+      ALIAS_CS[i] = 1 / Math.sqrt(1 + c * c);
+      ALIAS_CA[i] = c / Math.sqrt(1 + c * c);
+    }
+    for(int i = 0; i<64; i++)
+      for(int k = 0; k<32; k++)
+        SYNTHESIS_MATRIX[i][k] = Math.cos((16 + i) * (2 * k + 1) * Math.PI /
+        		64);
+    // The window is the half prototype mirrored, negated every 64 samples
+    for(int i = 0; i<512; i++)
+    {
+      int coefficient = SYNTHESIS_WINDOW_HALF[i <= 256 ? i : 512 - i];
+      SYNTHESIS_WINDOW[i] = ((i / 64) % 2 == 0 ? coefficient : -coefficient)
+    		  / 65536.0;
+    }
+    for(int position = 0; position<7; position++)
+    {
+      double ratio = Math.tan(position * Math.PI / 12);
+      INTENSITY_RATIOS[position] = position == 6 ? 1 : ratio / (1 + ratio);
+    }
+    for(int table = 1; table<32; table++)
+      if(MP3HuffmanTables.getSize(table) > 0)
+        HUFFMAN_TREES[table] = MP3HuffmanTables.makeTree(table);
+  }
+
+  private final InputStream input;
+  private boolean endOfStream = false;
+  private boolean firstFrame = true;
+  // The header of the current frame
+  private int header;
+  // The bit reservoir: the main data of the last frames
+  private final byte[] mainData = new byte[MAX_MAIN_DATA_BEGIN + 2048];
+  private int mainDataLength = 0;
+  private final byte[] frame = new byte[2048];
+
+  // The side information of the current frame, by granule and channel
+  private int noOfChannels;
+  private int samplingRateIndex;
+  private int modeExtension;
+  private boolean jointStereo;
+  private final int[][] scfsi = new int[2][4];
+  private final int[][] part23Length = new int[2][2];
+  private final int[][] bigValues = new int[2][2];
+  private final int[][] globalGain = new int[2][2];
+  private final int[][] scalefacCompress = new int[2][2];
+  private final boolean[][] windowSwitching = new boolean[2][2];
+  private final int[][] blockType = new int[2][2];
+  private final boolean[][] mixedBlock = new boolean[2][2];
+  private final int[][][] tableSelect = new int[2][2][3];
+  private final int[][][] subblockGain = new int[2][2][3];
+  private final int[][] region0Count = new int[2][2];
+  private final int[][] region1Count = new int[2][2];
+  private final int[][] preflag = new int[2][2];
+  private final int[][] scalefacScale = new int[2][2];
+  private final int[][] count1TableSelect = new int[2][2];
+
+  // The decoded values of the current granule, by channel
+  private final int[][] longScalefactors = new int[2][22];
+  private final int[][][] shortScalefactors = new int[2][13][3];
+  private final int[][] quantized = new int[2][GRANULE_SIZE];
+  private final int[] nonZeroLines = new int[2];
+  private final double[][] lines = new double[2][GRANULE_SIZE];
+  private final double[] reordered = new double[GRANULE_SIZE];
+  private final int[] intensityPositions = new int[GRANULE_SIZE];
+  // The second halves of the IMDCTs of the last granule
+  private final double[][] overlap = new double[NO_OF_SUBBANDS][SUBBAND_SIZE];
+  private final double[] imdct = new double[36];
+  private final double[] subbandSamples = new double[NO_OF_SUBBANDS];
+  // The FIFO of the synthesis filterbank and the index of its newest vector
+  private final double[] synthesisFifo = new double[1024];
+  private int synthesisOffset = 0;
+
+  // The samples of the current frame of the first channel
+  private final float[] frameSamples = new float[SAMPLES_PER_FRAME];
+  private int samplesInFrame = 0;
+  private int nextSample = 0;
+  private long samplesToSkip = DECODER_DELAY;
+  private long samplesLeft = Long.MAX_VALUE;
+
+  /**
+   * Constructor: InputStream -> MP3Decoder
+   * @param input : The MP3 stream to decode, which may start with an ID3v2
+   *                tag. It is closed once all its samples are decoded, or
+   *                by close.
+   * @Effect: The constructor implicitly returns an instance of MP3Decoder.
+   *          No frame is read before the first call to read.
+   */
+  MP3Decoder(InputStream input)
+  {
+    this.input = new BufferedInputStream(input);
+  }
+
+  /* @see SampleSource#read(float[], int, int) */
+  public int read(float[] buffer, int offset, int length)
+  {
+    int count = 0;
+    while(count < length)
+    {
+      if(nextSample == samplesInFrame && !decodeNextFrame())
+        break;
+      int available = Math.min(length - count, samplesInFrame - nextSample);
+      System.arraycopy(frameSamples, nextSample, buffer, offset + count,
+    		  available);
+      nextSample += available;
+      count += available;
+    }
+    RunStats.count(RunStats.SAMPLES_DECODED, count);
+    return count == 0 && length > 0 ? -1 : count;
+  }
+
+  /* @see SampleSource#close() */
+  public void close()
+  {
+    endOfStream = true;
+    try
+    {
+      input.close();
+    }
+    catch(IOException e)
+    {
+      // Nothing more is read from it anyway
+    }
+  }
+
+  /**
+   * decodeNextFrame : -> boolean
+   * @return boolean : true iff another frame was decoded, false at the end
+   *                   of the stream
+   * @effect : Decodes the next frame into 'frameSamples' without the
+   *           samples which are to be skipped
+   */
+  private boolean decodeNextFrame()
+  {
+    while(!endOfStream)
+    {
+      if(samplesLeft <= 0 || !readFrame())
+      {
+        close();
+        break;
+      }
+      decodeFrame();
+      int skipped = (int) Math.min(samplesToSkip, SAMPLES_PER_FRAME);
+      samplesToSkip -= skipped;
+      nextSample = skipped;
+      samplesInFrame = skipped + (int) Math.min(SAMPLES_PER_FRAME - skipped,
+    		  samplesLeft);
+      samplesLeft -= samplesInFrame - skipped;
+      if(nextSample < samplesInFrame)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * readFrame : -> boolean
+   * @return boolean : true iff an MPEG-1 Layer III frame was read, false at
+   *                   the end of the stream
+   * @effect : Reads the next frame into 'frame' and its header into
+   *           'header'. Skips an ID3v2 tag at the start of the stream and
+   *           any bytes between the frames that are not a frame header. If
+   *           the first frame is a Xing/LAME tag, reads the delay and
+   *           padding of the encoder from it and reads the next frame.
+   */
+  private boolean readFrame()
+  {
+    try
+    {
+      if(firstFrame)
+        skipID3v2Tag();
+      int syncWord = 0;
+      int bytesRead = 0;
+      while(true)
+      {
+        int nextByte = input.read();
+        if(nextByte < 0)
+          return false;
+        syncWord = (syncWord << 8) | nextByte;
+        bytesRead++;
+        if(bytesRead >= 4 && isValidHeader(syncWord))
+          break;
+      }
+      header = syncWord;
+      int frameLength = getFrameLength(header);
+      putInt(frame, 0, header);
+      if(!readFully(frame, 4, frameLength - 4))
+        return false;
+      RunStats.count(RunStats.BYTES_READ, frameLength);
+      if(firstFrame)
+      {
+        firstFrame = false;
+        if(readLameTag(frameLength))
+          return readFrame();
+      }
+      return true;
+    }
+    catch(IOException e)
+    {
+      AssertTests.assertTrue("Invalid MP3 stream : " + e.getMessage(),
+    		  false);
+      return false;
+    }
+  }
+
+  /**
+   * skipID3v2Tag : -> void
+   * @effect : Skips the ID3v2 tag at the start of 'input', if there is one
+   */
+  private void skipID3v2Tag() throws IOException
+  {
+    input.mark(10);
+    byte[] tagHeader = new byte[10];
+    if(readFully(tagHeader, 0, 10) && tagHeader[0] == 'I' &&
+    		tagHeader[1] == 'D' && tagHeader[2] == '3')
+    {
+      // The size is "syncsafe", 7 bits a byte, and excludes the header
+      long size = ((tagHeader[6] & 0x7F) << 21) | ((tagHeader[7] & 0x7F) <<
+    		  14) | ((tagHeader[8] & 0x7F) << 7) | (tagHeader[9] & 0x7F);
+      while(size > 0)
+      {
+        long skipped = input.skip(size);
+        if(skipped <= 0)
+          break;
+        size -= skipped;
+      }
+    }
+    else
+    {
+      input.reset();
+    }
+  }
+
+  /**
+   * readLameTag : int -> boolean
+   * @param frameLength : The number of bytes of the first frame
+   * @return boolean : true iff the first frame is a Xing or Info tag frame
+   *                   instead of audio
+   * @effect : If the tag has the frame count and the LAME extension, sets
+   *           the samples to skip and to return from the delay and padding
+   *           of the encoder
+   */
+  private boolean readLameTag(int frameLength)
+  {
+    int tag = 4 + (isProtected(header) ? 2 : 0) + getSideInfoLength(header);
+    if(tag + 8 > frameLength || !(hasTag(tag, "Xing") ||
+    		hasTag(tag, "Info")))
+      return false;
+    int flags = getInt(frame, tag + 4);
+    int frames = (flags & 1) != 0 ? getInt(frame, tag + 8) : -1;
+    int lameTag = tag + 8 + ((flags & 1) != 0 ? 4 : 0) +
+    		((flags & 2) != 0 ? 4 : 0) + ((flags & 4) != 0 ? 100 : 0) +
+    		((flags & 8) != 0 ? 4 : 0);
+    if(lameTag + 24 <= frameLength && hasTag(lameTag, "LAME"))
+    {
+      // 12 bits of delay and 12 bits of padding after 21 bytes of the tag
+      int delayAndPadding = ((frame[lameTag + 21] & 0xFF) << 16) |
+    		  ((frame[lameTag + 22] & 0xFF) << 8) | (frame[lameTag + 23] & 0xFF);
+      int encoderDelay = delayAndPadding >>> 12;
+      int encoderPadding = delayAndPadding & 0xFFF;
+      samplesToSkip = DECODER_DELAY + encoderDelay;
+      if(frames > 0)
+        samplesLeft = Math.max(0, (long) frames * SAMPLES_PER_FRAME -
+        		encoderDelay - encoderPadding);
+    }
+    return true;
+  }
+
+  /**
+   * decodeFrame : -> void
+   * @effect : Decodes 'frame' into the samples of the first channel in
+   *           'frameSamples'. If the main data of the frame starts before
+   *           the bit reservoir, the frame is decoded to silence.
+   */
+  private void decodeFrame()
+  {
+    samplingRateIndex = (header >>> 10) & 3;
+    int mode = (header >>> 6) & 3;
+    modeExtension = (header >>> 4) & 3;
+    noOfChannels = mode == MODE_MONO ? 1 : 2;
+    jointStereo = mode == MODE_JOINT_STEREO;
+    int sideInfoStart = 4 + (isProtected(header) ? 2 : 0);
+    int sideInfoLength = getSideInfoLength(header);
+    int frameLength = getFrameLength(header);
+
+    BitReader sideInfo = new BitReader(frame, sideInfoStart,
+    		sideInfoStart + sideInfoLength);
+    int mainDataBegin = readSideInfo(sideInfo);
+
+    // Append the main data of this frame to the bit reservoir
+    if(mainDataLength > MAX_MAIN_DATA_BEGIN)
+    {
+      System.arraycopy(mainData, mainDataLength - MAX_MAIN_DATA_BEGIN,
+    		  mainData, 0, MAX_MAIN_DATA_BEGIN);
+      mainDataLength = MAX_MAIN_DATA_BEGIN;
+    }
+    int mainDataStart = mainDataLength - mainDataBegin;
+    int frameDataLength = frameLength - sideInfoStart - sideInfoLength;
+    System.arraycopy(frame, sideInfoStart + sideInfoLength, mainData,
+    		mainDataLength, frameDataLength);
+    mainDataLength += frameDataLength;
+    if(mainDataStart < 0)
+    {
+      Arrays.fill(frameSamples, 0);
+      return;
+    }
+
+    BitReader bits = new BitReader(mainData, mainDataStart, mainDataLength);
+    for(int granule = 0; granule<2; granule++)
+    {
+      for(int channel = 0; channel<noOfChannels; channel++)
+      {
+        int part2Start = bits.getPosition();
+        readScalefactors(bits, granule, channel);
+        readHuffmanValues(bits, granule, channel,
+        		part2Start + part23Length[granule][channel]);
+        requantize(granule, channel);
+      }
+      if(jointStereo && noOfChannels == 2)
+        processJointStereo(granule);
+      reorder(granule);
+      reduceAliases(granule);
+      transformToSubbands(granule);
+    }
+  }
+
+  /**
+   * readSideInfo : BitReader -> int
+   * @param bits : The bits of the side information of the frame
+   * @return int : The main_data_begin of the frame
+   * @effect : Reads the side information of both granules
+   */
+  private int readSideInfo(BitReader bits)
+  {
+    int mainDataBegin = bits.get(9);
+    bits.get(noOfChannels == 1 ? 5 : 3);
+    for(int channel = 0; channel<noOfChannels; channel++)
+      for(int group = 0; group<4; group++)
+        scfsi[channel][group] = bits.get(1);
+    for(int granule = 0; granule<2; granule++)
+    {
+      for(int channel = 0; channel<noOfChannels; channel++)
+      {
+        part23Length[granule][channel] = bits.get(12);
+        bigValues[granule][channel] = Math.min(bits.get(9), GRANULE_SIZE / 2);
+        globalGain[granule][channel] = bits.get(8);
+        scalefacCompress[granule][channel] = bits.get(4);
+        windowSwitching[granule][channel] = bits.get(1) == 1;
+        if(windowSwitching[granule][channel])
+        {
+          blockType[granule][channel] = bits.get(2);
+          mixedBlock[granule][channel] = bits.get(1) == 1;
+          for(int region = 0; region<2; region++)
+            tableSelect[granule][channel][region] = bits.get(5);
+          for(int window = 0; window<3; window++)
+            subblockGain[granule][channel][window] = bits.get(3);
+          region0Count[granule][channel] = blockType[granule][channel] ==
+        		  BLOCK_TYPE_SHORT && !mixedBlock[granule][channel] ? 8 : 7;
+          region1Count[granule][channel] = 20 -
+        		  region0Count[granule][channel];
+        }
+        else
+        {
+          blockType[granule][channel] = 0;
+          mixedBlock[granule][channel] = false;
+          for(int region = 0; region<3; region++)
+            tableSelect[granule][channel][region] = bits.get(5);
+          region0Count[granule][channel] = bits.get(4);
+          region1Count[granule][channel] = bits.get(3);
+        }
+        preflag[granule][channel] = bits.get(1);
+        scalefacScale[granule][channel] = bits.get(1);
+        count1TableSelect[granule][channel] = bits.get(1);
+      }
+    }
+    return mainDataBegin;
+  }
+
+  /**
+   * readScalefactors : BitReader, int, int -> void
+   * @effect : Reads the scale factors of 'channel' in 'granule'. The long
+   *           block scale factors of the groups whose scfsi is set are kept
+   *           from the first granule.
+   */
+  private void readScalefactors(BitReader bits, int granule, int channel)
+  {
+    int slen1 = SLEN1[scalefacCompress[granule][channel]];
+    int slen2 = SLEN2[scalefacCompress[granule][channel]];
+    int[] longFactors = longScalefactors[channel];
+    int[][] shortFactors = shortScalefactors[channel];
+    if(windowSwitching[granule][channel] &&
+    		blockType[granule][channel] == BLOCK_TYPE_SHORT)
+    {
+      int firstShortBand = 0;
+      if(mixedBlock[granule][channel])
+      {
+        for(int band = 0; band<MIXED_LONG_BANDS; band++)
+          longFactors[band] = bits.get(slen1);
+        firstShortBand = MIXED_SHORT_START;
+      }
+      for(int band = firstShortBand; band<12; band++)
+        for(int window = 0; window<3; window++)
+          shortFactors[band][window] = bits.get(band < 6 ? slen1 : slen2);
+      for(int window = 0; window<3; window++)
+        shortFactors[12][window] = 0;
+    }
+    else
+    {
+      for(int group = 0; group<4; group++)
+      {
+        if(granule == 1 && scfsi[channel][group] == 1)
+          continue;
+        for(int band = SCFSI_BANDS[group]; band<SCFSI_BANDS[group + 1];
+        		band++)
+          longFactors[band] = bits.get(group < 2 ? slen1 : slen2);
+      }
+      longFactors[21] = 0;
+    }
+  }
+
+  /**
+   * readHuffmanValues : BitReader, int, int, int -> void
+   * @param end : The position of 'bits' at which the values end
+   * @effect : Decodes the quantized values of 'channel' in 'granule' into
+   *           'quantized' and leaves 'bits' at 'end'
+   */
+  private void readHuffmanValues(BitReader bits, int granule, int channel,
+		  int end)
+  {
+    int[] values = quantized[channel];
+    int[] bands = LONG_BANDS[samplingRateIndex];
+    int region1Start;
+    int region2Start;
+    if(windowSwitching[granule][channel])
+    {
+      region1Start = 36;
+      region2Start = GRANULE_SIZE;
+    }
+    else
+    {
+      region1Start = bands[Math.min(22, region0Count[granule][channel] + 1)];
+      region2Start = bands[Math.min(22, region0Count[granule][channel] +
+    		  region1Count[granule][channel] + 2)];
+    }
+    int bigValuesEnd = 2 * bigValues[granule][channel];
+    int line = 0;
+    for(; line<bigValuesEnd; line += 2)
+    {
+      int table = tableSelect[granule][channel][line < region1Start ? 0 :
+    	  line < region2Start ? 1 : 2];
+      int size = MP3HuffmanTables.getSize(table);
+      if(size == 0)
+      {
+        values[line] = 0;
+        values[line + 1] = 0;
+        continue;
+      }
+      int entry = bits.decode(HUFFMAN_TREES[table]);
+      int linbits = MP3HuffmanTables.LINBITS[table];
+      values[line] = readValue(bits, entry / size, linbits);
+      values[line + 1] = readValue(bits, entry % size, linbits);
+    }
+    int[] count1Tree = count1TableSelect[granule][channel] == 0 ?
+    		COUNT1_TREE : null;
+    while(line + 4 <= GRANULE_SIZE && bits.getPosition() < end)
+    {
+      int entry = count1Tree != null ? bits.decode(count1Tree) :
+    	  15 - bits.get(4);
+      for(int i = 0; i<4; i++)
+        values[line + i] = readValue(bits, (entry >>> (3 - i)) & 1, 0);
+      line += 4;
+    }
+    // The last quadruple is discarded if it runs past the end
+    if(bits.getPosition() > end && line > bigValuesEnd)
+      line -= 4;
+    nonZeroLines[channel] = line;
+    for(; line<GRANULE_SIZE; line++)
+      values[line] = 0;
+    bits.setPosition(end);
+  }
+
+  /**
+   * static readValue : BitReader, int, int -> int
+   * @param value : The absolute value decoded from a Huffman table
+   * @param linbits : The escape bits of the table
+   * @return int : 'value' with its escape bits added and its sign applied
+   */
+  private static int readValue(BitReader bits, int value, int linbits)
+  {
+    if(linbits > 0 && value == 15)
+      value += bits.get(linbits);
+    if(value != 0 && bits.get(1) == 1)
+      value = -value;
+    return value;
+  }
+
+  /**
+   * requantize : int, int -> void
+   * @effect : Scales the quantized values of 'channel' in 'granule' by
+   *           their gains and scale factors into 'lines'
+   */
+  private void requantize(int granule, int channel)
+  {
+    int[] values = quantized[channel];
+    double[] output = lines[channel];
+    int gain = globalGain[granule][channel] - 210;
+    int scaleShift = scalefacScale[granule][channel] == 1 ? 4 : 2;
+    int end = nonZeroLines[channel];
+    boolean shortBlock = windowSwitching[granule][channel] &&
+    		blockType[granule][channel] == BLOCK_TYPE_SHORT;
+    int[] longBands = LONG_BANDS[samplingRateIndex];
+    int[] shortBands = SHORT_BANDS[samplingRateIndex];
+    int line = 0;
+    if(!shortBlock || mixedBlock[granule][channel])
+    {
+      int lastBand = shortBlock ? MIXED_LONG_BANDS : 22;
+      for(int band = 0; band<lastBand && line<end; band++)
+      {
+        int factor = longScalefactors[channel][band] +
+        		preflag[granule][channel] * PRETAB[band];
+        double scale = Math.pow(2, (gain - scaleShift * factor) / 4.0);
+        for(; line<longBands[band + 1]; line++)
+          output[line] = requantize(values[line], scale);
+      }
+    }
+    if(shortBlock)
+    {
+      int firstBand = mixedBlock[granule][channel] ? MIXED_SHORT_START : 0;
+      for(int band = firstBand; band<13 && line<end; band++)
+      {
+        int width = shortBands[band + 1] - shortBands[band];
+        for(int window = 0; window<3; window++)
+        {
+          int factor = shortScalefactors[channel][band][window];
+          double scale = Math.pow(2, (gain - 8 *
+        		  subblockGain[granule][channel][window] - scaleShift *
+        		  factor) / 4.0);
+          for(int i = 0; i<width; i++, line++)
+            output[line] = requantize(values[line], scale);
+        }
+      }
+    }
+    for(; line<GRANULE_SIZE; line++)
+      output[line] = 0;
+  }
+
+  /**
+   * static requantize : int, double -> double
+   * @return double : sign(value) * |value|^(4/3) * scale
+   */
+  private static double requantize(int value, double scale)
+  {
+    if(value == 0)
+      return 0;
+    if(value > 0)
+      return POWER_4_3[Math.min(value, POWER_4_3.length - 1)] * scale;
+    return -POWER_4_3[Math.min(-value, POWER_4_3.length - 1)] * scale;
+  }
+
+  /**
+   * processJointStereo : int -> void
+   * @effect : Replaces the lines of the first channel in 'granule' by the
+   *           left channel decoded from the middle/side and intensity
+   *           stereo lines of both channels
+   */
+  private void processJointStereo(int granule)
+  {
+    double[] left = lines[0];
+    double[] right = lines[1];
+    boolean middleSide = (modeExtension & 2) != 0;
+    boolean intensity = (modeExtension & 1) != 0;
+    // The intensity position of every line, -1 where it is not used
+    int[] positions = intensityPositions;
+    Arrays.fill(positions, -1);
+    if(intensity)
+      findIntensityPositions(granule, positions);
+    for(int line = 0; line<GRANULE_SIZE; line++)
+    {
+      int position = positions[line];
+      if(position >= 0 && position < 7)
+        left[line] *= INTENSITY_RATIOS[position];
+      else if(middleSide)
+        left[line] = (left[line] + right[line]) / Math.sqrt(2);
+    }
+  }
+
+  /**
+   * findIntensityPositions : int, int[] -> void
+   * @effect : Sets in 'positions' the intensity position of every line of
+   *           the bands of the right channel above its last non zero line
+   */
+  private void findIntensityPositions(int granule, int[] positions)
+  {
+    double[] right = lines[1];
+    int[] longBands = LONG_BANDS[samplingRateIndex];
+    int[] shortBands = SHORT_BANDS[samplingRateIndex];
+    boolean shortBlock = windowSwitching[granule][1] &&
+    		blockType[granule][1] == BLOCK_TYPE_SHORT;
+    boolean mixed = shortBlock && mixedBlock[granule][1];
+    if(!shortBlock)
+    {
+      int lastNonZero = GRANULE_SIZE - 1;
+      while(lastNonZero >= 0 && right[lastNonZero] == 0)
+        lastNonZero--;
+      int band = 0;
+      while(longBands[band] <= lastNonZero)
+        band++;
+      for(; band<22; band++)
+      {
+        int position = longScalefactors[1][Math.min(band, 20)];
+        for(int line = longBands[band]; line<longBands[band + 1]; line++)
+          positions[line] = position;
+      }
+      return;
+    }
+    int firstBand = mixed ? MIXED_SHORT_START : 0;
+    boolean allWindowsFromFirstBand = true;
+    for(int window = 0; window<3; window++)
+    {
+      // The last band of the window with a non zero line, and the band
+      // after it from which the window is intensity coded
+      int startBand = firstBand;
+      for(int band = 12; band>=firstBand && startBand == firstBand; band--)
+      {
+        int width = shortBands[band + 1] - shortBands[band];
+        int start = 3 * shortBands[band] + window * width;
+        for(int i = 0; i<width; i++)
+        {
+          if(right[start + i] != 0)
+          {
+            startBand = band + 1;
+            break;
+          }
+        }
+      }
+      if(startBand > firstBand)
+        allWindowsFromFirstBand = false;
+      for(int band = startBand; band<13; band++)
+      {
+        int width = shortBands[band + 1] - shortBands[band];
+        int start = 3 * shortBands[band] + window * width;
+        int position = shortScalefactors[1][Math.min(band, 11)][window];
+        for(int i = 0; i<width; i++)
+          positions[start + i] = position;
+      }
+    }
+    // The long part of a mixed block is only intensity coded above the
+    // last non zero long line if the whole short part is
+    if(mixed && allWindowsFromFirstBand)
+    {
+      int lastNonZero = longBands[MIXED_LONG_BANDS] - 1;
+      while(lastNonZero >= 0 && right[lastNonZero] == 0)
+        lastNonZero--;
+      for(int band = 0; band<MIXED_LONG_BANDS; band++)
+      {
+        if(longBands[band] <= lastNonZero)
+          continue;
+        int position = longScalefactors[1][band];
+        for(int line = longBands[band]; line<longBands[band + 1]; line++)
+          positions[line] = position;
+      }
+    }
+  }
+
+  /**
+   * reorder : int -> void
+   * @effect : Reorders the short block lines of the first channel in
+   *           'granule' from band, window, frequency order to band,
+   *           frequency, window order
+   */
+  private void reorder(int granule)
+  {
+    if(!windowSwitching[granule][0] ||
+    		blockType[granule][0] != BLOCK_TYPE_SHORT)
+      return;
+    double[] output = lines[0];
+    int[] shortBands = SHORT_BANDS[samplingRateIndex];
+    int firstBand = mixedBlock[granule][0] ? MIXED_SHORT_START : 0;
+    int firstLine = 3 * shortBands[firstBand];
+    System.arraycopy(output, firstLine, reordered, firstLine,
+    		GRANULE_SIZE - firstLine);
+    for(int band = firstBand; band<13; band++)
+    {
+      int start = 3 * shortBands[band];
+      int width = shortBands[band + 1] - shortBands[band];
+      for(int window = 0; window<3; window++)
+        for(int i = 0; i<width; i++)
+          output[start + 3 * i + window] = reordered[start + window * width +
+        		  i];
+    }
+  }
+
+  /**
+   * reduceAliases : int -> void
+   * @effect : Applies the alias reduction butterflies between the
+   *           subbands of the long block lines of the first channel in
+   *           'granule'
+   */
+  private void reduceAliases(int granule)
+  {
+    double[] output = lines[0];
+    int lastSubband = NO_OF_SUBBANDS;
+    if(windowSwitching[granule][0] &&
+    		blockType[granule][0] == BLOCK_TYPE_SHORT)
+      lastSubband = mixedBlock[granule][0] ? 2 : 0;
+    for(int subband = 1; subband<lastSubband; subband++)
+    {
+      int boundary = subband * SUBBAND_SIZE;
+      for(int i = 0; i<8; i++)
+      {
+        double lower = output[boundary - 1 - i];
+        double upper = output[boundary + i];
+        output[boundary - 1 - i] = lower * ALIAS_CS[i] - upper * ALIAS_CA[i];
+        output[boundary + i] = upper * ALIAS_CS[i] + lower * ALIAS_CA[i];
+      }
+    }
+  }
+
+  /**
+   * transformToSubbands : int -> void
+   * @effect : Transforms the lines of the first channel in 'granule' into
+   *           the 18 time samples of every subband through the IMDCT, and
+   *           synthesizes the 576 samples of the granule from them into
+   *           'frameSamples'
+   */
+  private void transformToSubbands(int granule)
+  {
+    double[] input = lines[0];
+    // The samples of every subband, reusing 'reordered' as 32 x 18
+    double[] timeSamples = reordered;
+    for(int subband = 0; subband<NO_OF_SUBBANDS; subband++)
+    {
+      int type = windowSwitching[granule][0] ? blockType[granule][0] : 0;
+      if(mixedBlock[granule][0] && subband < 2)
+        type = 0;
+      int first = subband * SUBBAND_SIZE;
+      Arrays.fill(imdct, 0);
+      if(type == BLOCK_TYPE_SHORT)
+      {
+        for(int window = 0; window<3; window++)
+        {
+          for(int i = 0; i<12; i++)
+          {
+            double sum = 0;
+            for(int k = 0; k<6; k++)
+              sum += input[first + 3 * k + window] * IMDCT_SHORT[i][k];
+            imdct[6 + 6 * window + i] += sum * SHORT_WINDOW[i];
+          }
+        }
+      }
+      else
+      {
+        double[] window = IMDCT_WINDOWS[type];
+        for(int i = 0; i<36; i++)
+        {
+          double sum = 0;
+          for(int k = 0; k<18; k++)
+            sum += input[first + k] * IMDCT_LONG[i][k];
+          imdct[i] = sum * window[i];
+        }
+      }
+      double[] previous = overlap[subband];
+      for(int i = 0; i<SUBBAND_SIZE; i++)
+      {
+        double sample = imdct[i] + previous[i];
+        // Frequency inversion of the odd samples of the odd subbands
+        if((subband & 1) == 1 && (i & 1) == 1)
+          sample = -sample;
+        timeSamples[first + i] = sample;
+        previous[i] = imdct[i + SUBBAND_SIZE];
+      }
+    }
+    for(int slot = 0; slot<SUBBAND_SIZE; slot++)
+    {
+      for(int subband = 0; subband<NO_OF_SUBBANDS; subband++)
+        subbandSamples[subband] = timeSamples[subband * SUBBAND_SIZE + slot];
+      synthesize(granule * GRANULE_SIZE + slot * NO_OF_SUBBANDS);
+    }
+  }
+
+  /**
+   * synthesize : int -> void
+   * @param offset : The index of 'frameSamples' of the first output sample
+   * @effect : Runs the polyphase synthesis filterbank on 'subbandSamples'
+   *           and puts the 32 samples it outputs into 'frameSamples'
+   */
+  private void synthesize(int offset)
+  {
+    synthesisOffset = (synthesisOffset - 64) & 1023;
+    for(int i = 0; i<64; i++)
+    {
+      double[] row = SYNTHESIS_MATRIX[i];
+      double sum = 0;
+      for(int k = 0; k<NO_OF_SUBBANDS; k++)
+        sum += row[k] * subbandSamples[k];
+      synthesisFifo[synthesisOffset + i] = sum;
+    }
+    for(int j = 0; j<NO_OF_SUBBANDS; j++)
+    {
+      double sum = 0;
+      for(int i = 0; i<8; i++)
+      {
+        sum += synthesisFifo[(synthesisOffset + 128 * i + j) & 1023] *
+        		SYNTHESIS_WINDOW[64 * i + j];
+        sum += synthesisFifo[(synthesisOffset + 128 * i + 96 + j) & 1023] *
+        		SYNTHESIS_WINDOW[64 * i + 32 + j];
+      }
+      // Rounded and clipped to 16 bits like a decoded WAVE file
+      long sample = Math.round(sum * MAX_16_BIT_SAMPLE);
+      sample = Math.max(-MAX_16_BIT_SAMPLE, Math.min(MAX_16_BIT_SAMPLE - 1,
+    		  sample));
+      frameSamples[offset + j] = sample / (float) MAX_16_BIT_SAMPLE;
+    }
+  }
+
+  /**
+   * readFully : byte[], int, int -> boolean
+   * @return boolean : true iff 'length' bytes were read into 'buffer' from
+   *                   'offset', false if the stream ended before
+   */
+  private boolean readFully(byte[] buffer, int offset, int length)
+		  throws IOException
+  {
+    while(length > 0)
+    {
+      int count = input.read(buffer, offset, length);
+      if(count < 0)
+        return false;
+      offset += count;
+      length -= count;
+    }
+    return true;
+  }
+
+  /**
+   * hasTag : int, String -> boolean
+   * @return boolean : true iff 'frame' has the ASCII 'tag' at 'offset'
+   */
+  private boolean hasTag(int offset, String tag)
+  {
+    for(int i = 0; i<tag.length(); i++)
+      if(frame[offset + i] != tag.charAt(i))
+        return false;
+    return true;
+  }
+
+  /**
+   * static isValidHeader : int -> boolean
+   * @return boolean : true iff 'header' is the header of an MPEG-1 Layer III
+   *                   frame with a valid bit rate and sampling rate
+   */
+  static boolean isValidHeader(int header)
+  {
+    return (header >>> 21) == 0x7FF && ((header >>> 19) & 3) == 3 &&
+    		((header >>> 17) & 3) == 1 && BIT_RATES[(header >>> 12) & 15] > 0
+    		&& ((header >>> 10) & 3) != 3;
+  }
+
+  /**
+   * static getFrameLength : int -> int
+   * @return int : The number of bytes of the frame of 'header', header
+   *               included
+   */
+  static int getFrameLength(int header)
+  {
+    int bitRate = BIT_RATES[(header >>> 12) & 15] * 1000;
+    int samplingRate = SAMPLING_RATES[(header >>> 10) & 3];
+    return 144 * bitRate / samplingRate + ((header >>> 9) & 1);
+  }
+
+  /**
+   * static getSamplingRate : int -> int
+   * @return int : The sampling rate in Hz of the frame of 'header'
+   */
+  static int getSamplingRate(int header)
+  {
+    return SAMPLING_RATES[(header >>> 10) & 3];
+  }
+
+  /**
+   * static isProtected : int -> boolean
+   * @return boolean : true iff a CRC follows 'header'
+   */
+  private static boolean isProtected(int header)
+  {
+    return ((header >>> 16) & 1) == 0;
+  }
+
+  /**
+   * static getSideInfoLength : int -> int
+   * @return int : The number of bytes of the side information of the frame
+   *               of 'header'
+   */
+  private static int getSideInfoLength(int header)
+  {
+    return ((header >>> 6) & 3) == MODE_MONO ? 17 : 32;
+  }
+
+  /**
+   * static getInt : byte[], int -> int
+   * @return int : The big endian int at 'offset' of 'bytes'
+   */
+  private static int getInt(byte[] bytes, int offset)
+  {
+    return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+    		| ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+  }
+
+  /**
+   * static putInt : byte[], int, int -> void
+   * @effect : Puts 'value' big endian at 'offset' of 'bytes'
+   */
+  private static void putInt(byte[] bytes, int offset, int value)
+  {
+    bytes[offset] = (byte) (value >>> 24);
+    bytes[offset + 1] = (byte) (value >>> 16);
+    bytes[offset + 2] = (byte) (value >>> 8);
+    bytes[offset + 3] = (byte) value;
+  }
+
+  /**
+   * class BitReader
+   * Description: Reads the bits of a part of a byte array from the most
+   * significant bit of each byte. Past the end of the part it reads 0s.
+   */
+  private static class BitReader
+  {
+    private final byte[] bytes;
+    private final int end;
+    private int position;
+
+    /**
+     * Constructor : byte[], int, int -> BitReader
+     * @param bytes : The bytes to read
+     * @param start : The index of the first byte to read
+     * @param end : The index after the last byte to read
+     */
+    BitReader(byte[] bytes, int start, int end)
+    {
+      this.bytes = bytes;
+      this.end = end;
+      position = start * 8;
+    }
+
+    /**
+     * get : int -> int
+     * @param noOfBits : The number of bits to read, at most 24
+     * @return int : The next 'noOfBits' bits as an unsigned value
+     */
+    int get(int noOfBits)
+    {
+      int value = 0;
+      for(int i = 0; i<noOfBits; i++)
+      {
+        int index = position >>> 3;
+        int bit = index < end ? (bytes[index] >>> (7 - (position & 7))) & 1 :
+        	0;
+        value = (value << 1) | bit;
+        position++;
+      }
+      return value;
+    }
+
+    /**
+     * decode : int[] -> int
+     * @param tree : A Huffman tree made by MP3HuffmanTables
+     * @return int : The entry of the next code of 'tree'
+     */
+    int decode(int[] tree)
+    {
+      int node = 0;
+      while(true)
+      {
+        int child = tree[2 * node + get(1)];
+        if(child <= 0)
+          return -child;
+        node = child;
+      }
+    }
+
+    /**
+     * getPosition : -> int
+     * @return int : The index of the next bit, counted from the start of
+     *               the byte array
+     */
+    int getPosition()
+    {
+      return position;
+    }
+
+    /**
+     * setPosition : int -> void
+     * @effect : Moves to the bit at index 'position'
+     */
+    void setPosition(int position)
+    {
+      this.position = position;
+    }
+  }
+}
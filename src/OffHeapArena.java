@@ -0,0 +1,260 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * class OffHeapArena
+ * Description: A size-capped arena of memory outside the Java heap, in
+ * which the samples and the spectra of the files are kept when asked for
+ * through the "--offheap" option, so that the heap and the garbage
+ * collection pauses do not grow with the number of files kept.
+ *
+ * The memory is taken from the system in slabs of direct buffers, at most
+ * 'capacity' bytes in all, and is handed out in Blocks carved out of the
+ * slabs. A Block is given back with free as soon as its owner is dropped,
+ * and its bytes are reused by the next Blocks: nothing waits for the
+ * garbage collector. Every slab keeps its free ranges by offset, and a
+ * freed range is merged with the free ranges next to it.
+ */
+public class OffHeapArena
+{
+  // Constants
+  // The size of a slab, unless a Block needs a larger one
+  private static final int SLAB_SIZE = 1 << 26;
+  // Blocks start at multiples of this, the size of a cache line
+  private static final int ALIGNMENT = 64;
+
+  private static OffHeapArena openArena = null;
+
+  private final long capacity;
+  // The bytes of all the slabs taken from the system
+  private long reserved = 0;
+  private final List<Slab> slabs = new ArrayList<Slab>();
+
+  /**
+   * static open : long -> OffHeapArena
+   * @param capacity : The most bytes the arena takes from the system
+   * @return OffHeapArena : The arena, which is also returned by
+   *                        getOpenArena from now on
+   */
+  public static synchronized OffHeapArena open(long capacity)
+  {
+    openArena = new OffHeapArena(capacity);
+    return openArena;
+  }
+
+  /**
+   * static getOpenArena : -> OffHeapArena
+   * @return OffHeapArena : The arena opened for this run, else null
+   */
+  public static synchronized OffHeapArena getOpenArena()
+  {
+    return openArena;
+  }
+
+  /**
+   * Constructor : long -> OffHeapArena
+   * @param capacity : The most bytes the arena takes from the system
+   */
+  private OffHeapArena(long capacity)
+  {
+    this.capacity = capacity;
+  }
+
+  /**
+   * allocate : long -> Block
+   * @param bytes : The size of the Block needed
+   * @return Block : A Block of 'bytes' bytes, or null if the arena has no
+   *                 room left for it (the caller then keeps its data on
+   *                 the heap)
+   */
+  public synchronized Block allocate(long bytes)
+  {
+    long size = getAlignedSize(bytes);
+    if(size > Integer.MAX_VALUE - ALIGNMENT)
+      return null;
+    for(Slab slab : slabs)
+    {
+      int offset = slab.allocate((int) size);
+      if(offset >= 0)
+        return new Block(slab, offset, (int) bytes);
+    }
+    long slabSize = Math.max(SLAB_SIZE, size);
+    if(reserved + slabSize > capacity)
+      slabSize = size;
+    if(reserved + slabSize > capacity)
+      return null;
+    Slab slab;
+    try
+    {
+      slab = new Slab((int) slabSize);
+    }
+    catch(OutOfMemoryError e)
+    {
+      // Beyond -XX:MaxDirectMemorySize
+      return null;
+    }
+    reserved += slabSize;
+    slabs.add(slab);
+    return new Block(slab, slab.allocate((int) size), (int) bytes);
+  }
+
+  /**
+   * free : Block -> void
+   * @effect : Gives the bytes of 'block' back to the arena. A Block is
+   *           only freed once, later calls do nothing.
+   */
+  public synchronized void free(Block block)
+  {
+    if(block.isFree)
+      return;
+    block.isFree = true;
+    block.slab.free(block.offset, (int) getAlignedSize(block.length));
+  }
+
+  /**
+   * static getAlignedSize : long -> long
+   * @return long : The bytes taken by a Block of 'bytes' bytes, a multiple
+   *                of ALIGNMENT, and at least ALIGNMENT
+   */
+  private static long getAlignedSize(long bytes)
+  {
+    long aligned = (bytes + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    return Math.max(ALIGNMENT, aligned);
+  }
+
+  /**
+   * class Slab
+   * Description: A direct buffer taken from the system, with its free
+   * ranges: offset -> length
+   */
+  private static class Slab
+  {
+    private final ByteBuffer memory;
+    private final TreeMap<Integer, Integer> freeRanges =
+    		new TreeMap<Integer, Integer>();
+
+    /**
+     * Constructor : int -> Slab
+     * @param size : The size of the slab, a multiple of ALIGNMENT
+     */
+    Slab(int size)
+    {
+      memory = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+      freeRanges.put(0, size);
+    }
+
+    /**
+     * allocate : int -> int
+     * @return int : The offset of 'size' bytes taken from the first free
+     *               range large enough, -1 if there is none
+     */
+    int allocate(int size)
+    {
+      for(Map.Entry<Integer, Integer> range : freeRanges.entrySet())
+      {
+        int offset = range.getKey();
+        int free = range.getValue();
+        if(free < size)
+          continue;
+        freeRanges.remove(offset);
+        if(free > size)
+          freeRanges.put(offset + size, free - size);
+        return offset;
+      }
+      return -1;
+    }
+
+    /**
+     * free : int, int -> void
+     * @effect : Adds the 'size' bytes at 'offset' to the free ranges,
+     *           merged with the free ranges just before and after them
+     */
+    void free(int offset, int size)
+    {
+      Map.Entry<Integer, Integer> before = freeRanges.lowerEntry(offset);
+      if(before != null && before.getKey() + before.getValue() == offset)
+      {
+        freeRanges.remove(before.getKey());
+        offset = before.getKey();
+        size += before.getValue();
+      }
+      Integer after = freeRanges.remove(offset + size);
+      if(after != null)
+        size += after;
+      freeRanges.put(offset, size);
+    }
+  }
+
+  /**
+   * class Block
+   * Description: Bytes of a slab of the arena, read and written through
+   * float or double views in the native byte order
+   */
+  public static class Block
+  {
+    private final Slab slab;
+    private final int offset;
+    private final int length;
+    private boolean isFree = false;
+
+    /**
+     * Constructor : Slab, int, int -> Block
+     * @param slab : The slab the Block is in
+     * @param offset : The offset of the Block in 'slab'
+     * @param length : The size of the Block in bytes
+     */
+    private Block(Slab slab, int offset, int length)
+    {
+      this.slab = slab;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    /**
+     * getLength : -> int
+     * @return int : The size of this Block in bytes
+     */
+    public int getLength()
+    {
+      return length;
+    }
+
+    /**
+     * getBytes : -> ByteBuffer
+     * @return ByteBuffer : A new buffer over the bytes of this Block only
+     */
+    private ByteBuffer getBytes()
+    {
+      ByteBuffer bytes = slab.memory.duplicate();
+      bytes.limit(offset + length);
+      bytes.position(offset);
+      return bytes.slice().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * asFloatBuffer : -> FloatBuffer
+     * @return FloatBuffer : A new view of this Block as floats, with its
+     *                       own position
+     */
+    public FloatBuffer asFloatBuffer()
+    {
+      return getBytes().asFloatBuffer();
+    }
+
+    /**
+     * asDoubleBuffer : -> DoubleBuffer
+     * @return DoubleBuffer : A new view of this Block as doubles, with its
+     *                        own position
+     */
+    public DoubleBuffer asDoubleBuffer()
+    {
+      return getBytes().asDoubleBuffer();
+    }
+  }
+}
@@ -0,0 +1,340 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * class Prefilter
+ * Description: A cascade of cheap tests which rejects the pairs of files
+ * that cannot match before their spectra are calculated and compared. Every
+ * file is reduced once to a few features of its samples, and every stage of
+ * the cascade compares one feature of the two files of a pair:
+ *
+ *   length : The size of the FFT of the file, i.e. its number of samples
+ *            rounded up to a power of 2. Files whose FFTs have different
+ *            sizes are put in different buckets (see getBucket), and the
+ *            directory runs only pair the files of the same bucket.
+ *   rms    : The energy of the windowed samples the FFT is calculated on.
+ *   zcr    : The rate at which the samples cross zero.
+ *   bands  : The energies of 32 frequency bands of the windowed samples,
+ *            through FFTs of consecutive frames of 64 samples.
+ *
+ * Two files with FFTs of the same size N match only if the sum of the
+ * squared errors of their bins is less than N times the match threshold,
+ * i.e. (Parseval) only if the sum of the squared differences of their
+ * windowed samples is less than the threshold. The difference of the
+ * norms of two vectors is at most the norm of their difference, so the rms
+ * and bands stages never reject a pair that would match. The zcr stage is
+ * a heuristic: noisy files which are nearly silent may cross zero at rates
+ * that differ more than its tolerance.
+ */
+public class Prefilter
+{
+  // Constants
+  private static final String[] STAGE_NAMES = {"length", "rms", "zcr",
+	  "bands"};
+  private static final int LENGTH = 0;
+  private static final int RMS = 1;
+  private static final int ZCR = 2;
+  private static final int BANDS = 3;
+  // Relative slack for the rounding of the features
+  private static final double ROUNDING_SLACK = 1e-9;
+  private static final int BAND_FRAME_SIZE = 64;
+  private static final int NO_OF_BANDS = BAND_FRAME_SIZE / 2;
+  // Zero crossing rates closer than this (absolute plus relative) pass
+  private static final double ZCR_TOLERANCE = 0.005;
+  private static final double ZCR_RELATIVE_TOLERANCE = 0.1;
+
+  // The stages in the order they run
+  private final int[] stages;
+  // The sums of squared differences of the windowed samples of two files
+  // which match are less than this
+  private final double maxMatchingError;
+  private final Map<AudioProcessableFile, Features> features =
+		  new ConcurrentHashMap<AudioProcessableFile, Features>();
+  private final AtomicLong pairsTested = new AtomicLong();
+  private final AtomicLong[] pairsRejected =
+		  new AtomicLong[STAGE_NAMES.length];
+
+  /**
+   * Constructor: String, double -> Prefilter
+   * @param stageList : The names of the stages separated by commas, in the
+   *                    order they should run, or "all" for every stage in
+   *                    the order length, rms, zcr, bands
+   * @param threshold : The Mean Squared Error below which two files match
+   * @Effect: The constructor implicitly returns an instance of Prefilter.
+   *          If a name is not a stage prints standard error and exits with
+   *          status other than 0.
+   */
+  Prefilter(String stageList, double threshold)
+  {
+    maxMatchingError = threshold;
+    for(int stage = 0; stage<pairsRejected.length; stage++)
+      pairsRejected[stage] = new AtomicLong();
+    if(stageList.equals("all"))
+    {
+      stages = new int[] {LENGTH, RMS, ZCR, BANDS};
+      return;
+    }
+    String[] names = stageList.split(",");
+    stages = new int[names.length];
+    for(int i = 0; i<names.length; i++)
+    {
+      stages[i] = Arrays.asList(STAGE_NAMES).indexOf(names[i].trim());
+      AssertTests.assertTrue("--prefilter stages should be among " +
+    		  Arrays.toString(STAGE_NAMES) + " : " + names[i], stages[i] >= 0,
+    		  true);
+    }
+  }
+
+  /**
+   * passes : AudioProcessableFile, AudioProcessableFile -> boolean
+   * @param file1 : The file of the first path
+   * @param file2 : The file of the second path
+   * @return boolean : false iff a stage of the cascade rejects the pair,
+   *                   i.e. true iff the spectra still need to be compared
+   * @effect : Counts the pair, and the stage which rejected it
+   */
+  public boolean passes(AudioProcessableFile file1, AudioProcessableFile file2)
+  {
+    pairsTested.incrementAndGet();
+    Features features1 = getFeatures(file1);
+    Features features2 = getFeatures(file2);
+    for(int stage : stages)
+    {
+      if(rejects(stage, features1, features2))
+      {
+        pairsRejected[stage].incrementAndGet();
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * getBucket : AudioProcessableFile -> int
+   * @param file : An audio file
+   * @return int : The size of the FFT of 'file' if the length stage runs,
+   *               else 0. Only two files of the same bucket can pass.
+   */
+  public int getBucket(AudioProcessableFile file)
+  {
+    for(int stage : stages)
+      if(stage == LENGTH)
+        return getFeatures(file).fftSize;
+    return 0;
+  }
+
+  /**
+   * countBucketed : long -> void
+   * @param pairs : The number of pairs of files of different buckets which
+   *                were not visited
+   * @effect : Counts the 'pairs' as tested and rejected by length
+   */
+  public void countBucketed(long pairs)
+  {
+    pairsTested.addAndGet(pairs);
+    pairsRejected[LENGTH].addAndGet(pairs);
+  }
+
+  /**
+   * rejects : int, Features, Features -> boolean
+   * @return boolean : true iff 'stage' proves that the files of 'first' and
+   *                   'second' do not match (or, for zcr, finds that they
+   *                   are unlikely to)
+   */
+  private boolean rejects(int stage, Features first, Features second)
+  {
+    if(stage == LENGTH)
+      return first.fftSize != second.fftSize;
+    // Files whose FFTs have different sizes are only rejected by length
+    if(first.fftSize != second.fftSize)
+      return false;
+    double slack = ROUNDING_SLACK * (first.energy + second.energy);
+    if(stage == RMS)
+    {
+      double normDifference = Math.sqrt(first.energy) -
+    		  Math.sqrt(second.energy);
+      return normDifference * normDifference >= maxMatchingError + slack;
+    }
+    if(stage == ZCR)
+    {
+      double difference = Math.abs(first.zeroCrossingRate -
+    		  second.zeroCrossingRate);
+      return difference > ZCR_TOLERANCE + ZCR_RELATIVE_TOLERANCE *
+    		  Math.max(first.zeroCrossingRate, second.zeroCrossingRate);
+    }
+    double bandsError = 0;
+    for(int band = 0; band<NO_OF_BANDS; band++)
+    {
+      double normDifference = first.bandNorms[band] - second.bandNorms[band];
+      bandsError += normDifference * normDifference;
+    }
+    return bandsError >= maxMatchingError + slack;
+  }
+
+  /**
+   * getFeatures : AudioProcessableFile -> Features
+   * @param file : An audio file
+   * @return Features : The features of the samples of 'file', taken from
+   *                    the SpectrumStore if one is open and has them, else
+   *                    extracted, and stored, the first time they are asked
+   *                    for
+   */
+  Features getFeatures(AudioProcessableFile file)
+  {
+    Features fileFeatures = features.get(file);
+    if(fileFeatures == null)
+    {
+      SpectrumStore store = SpectrumStore.getOpenStore();
+      String path = file.getSourcePath();
+      double[] stored = store == null || path == null ? null :
+    	  store.getFeatures(path);
+      if(stored != null && stored.length == Features.NO_OF_VALUES)
+      {
+        RunStats.count(RunStats.STORE_HITS, 1);
+        fileFeatures = new Features(stored);
+      }
+      else
+      {
+        fileFeatures = new Features(file.getSamples());
+        if(store != null && path != null)
+          store.putFeatures(path, file.getFileLength(),
+        		  fileFeatures.toArray());
+      }
+      features.put(file, fileFeatures);
+    }
+    return fileFeatures;
+  }
+
+  /**
+   * forget : AudioProcessableFile -> void
+   * @effect : Drops the features of 'file', e.g. once it left the cache of
+   *           a long running process
+   */
+  public void forget(AudioProcessableFile file)
+  {
+    features.remove(file);
+  }
+
+  /**
+   * printReport : -> void
+   * @effect : Prints through standard error the number of pairs tested,
+   *           rejected by each stage and passed on to the full comparison
+   */
+  public void printReport()
+  {
+    long passed = pairsTested.get();
+    List<String> rejected = new ArrayList<String>();
+    for(int stage : stages)
+    {
+      rejected.add(STAGE_NAMES[stage] + " " + pairsRejected[stage].get());
+      passed -= pairsRejected[stage].get();
+    }
+    System.err.println("prefilter: " + pairsTested.get() + " pairs, " +
+    		"rejected by " + rejected + ", " + passed + " compared");
+  }
+
+  /**
+   * class Features
+   * Description: The features of the samples of one file
+   */
+  static class Features
+  {
+    // The doubles of toArray
+    static final int NO_OF_VALUES = 3 + NO_OF_BANDS;
+
+    private final int fftSize;
+    // The sum of the squares of the windowed samples
+    private final double energy;
+    // The number of sign changes between consecutive samples per sample
+    private final double zeroCrossingRate;
+    // The norms of the DFT bins of every band over all the frames, scaled
+    // so that the sum of their squares is 'energy'
+    private final double[] bandNorms = new double[NO_OF_BANDS];
+
+    /**
+     * Constructor : float[] -> Features
+     * @param samples : The samples of a file
+     * @effect : Extracts the features of 'samples', windowed exactly like
+     *           the FFT of the whole file windows them
+     */
+    Features(float[] samples)
+    {
+      int noOfSamples = samples.length;
+      fftSize = FFT.getNearestPowerOfTwo(noOfSamples);
+      double[] window = new double[BAND_FRAME_SIZE];
+      double[] real = new double[FFT.getNoOfBins(BAND_FRAME_SIZE)];
+      double[] imag = new double[FFT.getNoOfBins(BAND_FRAME_SIZE)];
+      double[] bandEnergies = new double[NO_OF_BANDS];
+      double sumOfSquares = 0;
+      int crossings = 0;
+      for(int start = 0; start<noOfSamples; start += BAND_FRAME_SIZE)
+      {
+        FFT.getHanningWindow(noOfSamples, start, window,
+        		Math.min(BAND_FRAME_SIZE, noOfSamples - start));
+        for(int i = 0; i<BAND_FRAME_SIZE; i++)
+        {
+          int index = start + i;
+          double windowed = 0;
+          if(index < noOfSamples)
+          {
+            windowed = samples[index] * window[i];
+            if(index > 0 && (samples[index] < 0) != (samples[index - 1] < 0))
+              crossings++;
+          }
+          sumOfSquares += windowed * windowed;
+          // Packed as FFT.performRealFFT expects the samples
+          if((i & 1) == 0)
+            real[i >> 1] = windowed;
+          else
+            imag[i >> 1] = windowed;
+        }
+        FFT.performRealFFT(real, imag, BAND_FRAME_SIZE);
+        // Band b has the bin b and its conjugate 64 - b, band 0 has the
+        // bins 0 and 32
+        for(int bin = 0; bin<=NO_OF_BANDS; bin++)
+        {
+          double weight = bin == 0 || bin == NO_OF_BANDS ? 1 : 2;
+          bandEnergies[bin % NO_OF_BANDS] += weight * (real[bin] * real[bin] +
+        		  imag[bin] * imag[bin]);
+        }
+      }
+      energy = sumOfSquares;
+      zeroCrossingRate = noOfSamples > 1 ?
+    		  (double) crossings / (noOfSamples - 1) : 0;
+      for(int band = 0; band<NO_OF_BANDS; band++)
+        bandNorms[band] = Math.sqrt(bandEnergies[band] / BAND_FRAME_SIZE);
+    }
+
+    /**
+     * Constructor : double[] -> Features
+     * @param values : The features as returned by toArray
+     */
+    Features(double[] values)
+    {
+      fftSize = (int) values[0];
+      energy = values[1];
+      zeroCrossingRate = values[2];
+      System.arraycopy(values, 3, bandNorms, 0, NO_OF_BANDS);
+    }
+
+    /**
+     * toArray : -> double[]
+     * @return double[] : The NO_OF_VALUES features, the FFT size, the
+     *                    energy, the zero crossing rate and the band norms,
+     *                    e.g. to be kept in the SpectrumStore
+     */
+    double[] toArray()
+    {
+      double[] values = new double[NO_OF_VALUES];
+      values[0] = fftSize;
+      values[1] = energy;
+      values[2] = zeroCrossingRate;
+      System.arraycopy(bandNorms, 0, values, 3, NO_OF_BANDS);
+      return values;
+    }
+  }
+}
@@ -0,0 +1,240 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * class Resampler
+ * Description: A SampleSource which converts the samples of another
+ * SampleSource from one sampling rate to another, while they are read.
+ *
+ * The rates are reduced to the ratio L/M of two integers. Conceptually the
+ * input is upsampled by L (L-1 zeros after every sample), low pass filtered
+ * below the lower of the two Nyquist frequencies, so that downsampling does
+ * not alias, and downsampled by M (every M-th sample is kept). The filter
+ * is a Blackman windowed sinc split into L phases: an output sample only
+ * needs the taps of one phase, which multiply the last tapsPerPhase input
+ * samples, so neither the zeros nor the samples thrown away are computed.
+ *
+ * The filter is centred on the output samples, so output sample m stands
+ * for the input at time m*M/L. The input is taken as 0 before its first and
+ * after its last sample. The filter taps are computed once per ratio and
+ * shared by every instance of that ratio.
+ */
+public class Resampler implements SampleSource
+{
+  // Constants
+  // Zero crossings of the sinc on each side of its centre, at the lower
+  // of the two rates
+  private static final int ZERO_CROSSINGS = 32;
+  // The cut-off of the filter, as a fraction of the lower Nyquist frequency
+  private static final double CUT_OFF = 0.9;
+  // The input samples read from the source at a time
+  private static final int INPUT_BLOCK_SIZE = 4096;
+
+  // Filter taps shared by all the Resamplers of the same ratio
+  private static final Map<Long, double[]> filterTables =
+		  new HashMap<Long, double[]>();
+
+  private final SampleSource source;
+  private final int upFactor;
+  private final int downFactor;
+  private final int tapsPerPhase;
+  // The taps of phase p are at p * tapsPerPhase, in the order they multiply
+  // the newest to the oldest input samples
+  private final double[] taps;
+  // The delay of the filter, in upsampled samples
+  private final long delay;
+  // The input samples from 'inputStart' (absolute index) to 'inputEnd'
+  private final float[] input;
+  private long inputStart = 0;
+  private long inputEnd = 0;
+  private boolean endOfInput = false;
+  private long nextOutput = 0;
+
+  /**
+   * Constructor: SampleSource, int, int -> Resampler
+   * @param source : The source of the samples to convert
+   * @param inputRate : The sampling rate of 'source', in Hz
+   * @param outputRate : The sampling rate to convert to, in Hz
+   * @Effect: The constructor implicitly returns an instance of Resampler.
+   *          No sample is read from 'source' before the first call to read.
+   */
+  Resampler(SampleSource source, int inputRate, int outputRate)
+  {
+    this.source = source;
+    int divisor = gcd(inputRate, outputRate);
+    upFactor = outputRate / divisor;
+    downFactor = inputRate / divisor;
+    tapsPerPhase = getTapsPerPhase(upFactor, downFactor);
+    taps = getFilterTaps(upFactor, downFactor);
+    delay = (long) upFactor * tapsPerPhase / 2;
+    input = new float[tapsPerPhase + INPUT_BLOCK_SIZE];
+  }
+
+  /**
+   * static getOutputLength : long, int, int -> long
+   * @param inputLength : The number of samples at 'inputRate'
+   * @return long : The number of samples a Resampler from 'inputRate' to
+   *                'outputRate' makes out of 'inputLength' samples
+   */
+  static long getOutputLength(long inputLength, int inputRate,
+		  int outputRate)
+  {
+    int divisor = gcd(inputRate, outputRate);
+    long upFactor = outputRate / divisor;
+    long downFactor = inputRate / divisor;
+    return (inputLength * upFactor + downFactor - 1) / downFactor;
+  }
+
+  /* @see SampleSource#read(float[], int, int) */
+  public int read(float[] buffer, int offset, int length)
+  {
+    int count = 0;
+    while(count < length)
+    {
+      long time = nextOutput * downFactor + delay;
+      long newestInput = time / upFactor;
+      while(!endOfInput && inputEnd <= newestInput)
+        readInput();
+      // The last output sample stands for the time of the last input one
+      if(endOfInput && nextOutput * downFactor >= inputEnd * upFactor)
+        break;
+      int phase = (int) (time - newestInput * upFactor);
+      buffer[offset + count] = (float) filter(newestInput, phase);
+      nextOutput++;
+      count++;
+    }
+    return count == 0 && length > 0 ? -1 : count;
+  }
+
+  /* @see SampleSource#close() */
+  public void close()
+  {
+    source.close();
+  }
+
+  /**
+   * filter : long, int -> double
+   * @param newestInput : The index of the newest input sample to filter
+   * @param phase : The phase of the filter to use
+   * @return double : The taps of 'phase' applied to the input samples from
+   *                  'newestInput' back, the missing samples being 0
+   */
+  private double filter(long newestInput, int phase)
+  {
+    int firstTap = phase * tapsPerPhase;
+    double sum = 0;
+    long oldestInput = newestInput - tapsPerPhase + 1;
+    if(oldestInput >= inputStart && newestInput < inputEnd)
+    {
+      int index = (int) (newestInput - inputStart);
+      for(int tap = 0; tap<tapsPerPhase; tap++)
+        sum += taps[firstTap + tap] * input[index - tap];
+      return sum;
+    }
+    for(int tap = 0; tap<tapsPerPhase; tap++)
+    {
+      long inputIndex = newestInput - tap;
+      if(inputIndex < inputStart)
+        break;
+      if(inputIndex < inputEnd)
+        sum += taps[firstTap + tap] * input[(int) (inputIndex - inputStart)];
+    }
+    return sum;
+  }
+
+  /**
+   * readInput : -> void
+   * @effect : Reads the next block of samples of the source after the
+   *           samples of 'input', keeping the last 'tapsPerPhase' of them.
+   *           At the end of the source sets 'endOfInput'.
+   */
+  private void readInput()
+  {
+    int inBuffer = (int) (inputEnd - inputStart);
+    if(inBuffer == input.length)
+    {
+      int kept = Math.min(inBuffer, tapsPerPhase);
+      System.arraycopy(input, inBuffer - kept, input, 0, kept);
+      inputStart = inputEnd - kept;
+      inBuffer = kept;
+    }
+    int count = source.read(input, inBuffer, input.length - inBuffer);
+    if(count < 0)
+      endOfInput = true;
+    else
+      inputEnd += count;
+  }
+
+  /**
+   * static getTapsPerPhase : int, int -> int
+   * @return int : The number of taps of every phase of the filter for the
+   *               ratio 'upFactor'/'downFactor'. It grows with the factor
+   *               by which the rate is reduced, so that the filter is as
+   *               sharp at the output rate.
+   */
+  private static int getTapsPerPhase(int upFactor, int downFactor)
+  {
+    int reduction = (downFactor + upFactor - 1) / upFactor;
+    return 2 * ZERO_CROSSINGS * Math.max(1, reduction);
+  }
+
+  /**
+   * static getFilterTaps : int, int -> double[]
+   * @return double[] : The taps of the polyphase filter for the ratio
+   *                    'upFactor'/'downFactor', computed once per ratio
+   */
+  private static synchronized double[] getFilterTaps(int upFactor,
+		  int downFactor)
+  {
+    long ratio = ((long) upFactor << 32) | downFactor;
+    double[] taps = filterTables.get(ratio);
+    if(taps == null)
+    {
+      int tapsPerPhase = getTapsPerPhase(upFactor, downFactor);
+      int length = upFactor * tapsPerPhase;
+      double centre = length / 2.0;
+      // In cycles per upsampled sample
+      double cutOff = CUT_OFF * 0.5 / Math.max(upFactor, downFactor);
+      double[] prototype = new double[length];
+      double sum = 0;
+      for(int i = 0; i<length; i++)
+      {
+        double t = i - centre;
+        double sinc = t == 0 ? 2 * cutOff :
+        	Math.sin(2 * Math.PI * cutOff * t) / (Math.PI * t);
+        double x = (double) i / length;
+        double window = 0.42 - 0.5 * Math.cos(2 * Math.PI * x) +
+        		0.08 * Math.cos(4 * Math.PI * x);
+        prototype[i] = sinc * window;
+        sum += prototype[i];
+      }
+      // Every phase adds up to about 1, i.e. the gain at 0 Hz
+      taps = new double[length];
+      for(int phase = 0; phase<upFactor; phase++)
+      {
+        for(int tap = 0; tap<tapsPerPhase; tap++)
+        {
+          taps[phase * tapsPerPhase + tap] =
+        		  prototype[phase + tap * upFactor] * upFactor / sum;
+        }
+      }
+      filterTables.put(ratio, taps);
+    }
+    return taps;
+  }
+
+  /**
+   * static gcd : int, int -> int
+   * @return int : The greatest common divisor of 'a' and 'b'
+   */
+  private static int gcd(int a, int b)
+  {
+    while(b != 0)
+    {
+      int remainder = a % b;
+      a = b;
+      b = remainder;
+    }
+    return a;
+  }
+}
@@ -0,0 +1,295 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * class RunOptions
+ * Description: Holds the optional settings of a run. The options can be
+ * given anywhere on the command line and are taken out of the arguments
+ * before the "-f|-d <pathname> -f|-d <pathname>" part is validated.
+ *
+ * CURRENT SUPPORTED OPTIONS:
+ *   -t <threads> : The number of worker threads of each stage of the
+ *                  pipeline which loads, transforms and compares the files.
+ *                  0 uses one thread per processor. Default is 1 i.e. the
+ *                  files are processed sequentially, without a pipeline.
+ *   --fingerprint : Matches the files through the landmarks of their spectra
+ *                   (see Fingerprints) looked up in an index of the files of
+ *                   the second path, instead of comparing every pair of
+ *                   files through the FFT.
+ *   --stft <frameSize> : Compares the files frame by frame through a Short
+ *                        Time Fourier Transform (see STFT) with frames of
+ *                        <frameSize> samples, a power of 2, which overlap by
+ *                        half, instead of through one FFT of the whole file.
+ *   --store <path> : Keeps the spectra and landmarks computed for the files
+ *                    in the SpectrumStore at <path>, and reuses the stored
+ *                    ones for the files which did not change since.
+ *   --prefilter <stages> : Runs the pairs through the cascade of cheap
+ *                          tests of Prefilter before comparing their
+ *                          spectra. <stages> is "all" or some of length,
+ *                          rms, zcr and bands separated by commas. Not used
+ *                          with --fingerprint or --stft.
+ *   --threshold <mse> : Two files match if the Mean Squared Error between
+ *                       their spectra (or, with --stft, the sum of the
+ *                       errors of their frames) is less than <mse>.
+ *                       Default is 1.
+ *   --rate <Hz> : Converts the samples of every file to <Hz> with a
+ *                 Resampler before they are analysed, e.g. 11025, so that
+ *                 files of different sampling rates can match. Default is
+ *                 0 i.e. every file is analysed at its own rate.
+ *   --locate : Looks for every file of the first path as a clip inside
+ *              every file of the second path (see ClipLocator), and prints
+ *              the time and the score where it is found.
+ *   --serve <port> : Instead of comparing the pathnames of the command line,
+ *                    which are then not given, serves the comparisons sent
+ *                    to the loopback <port> (see DamServer), with the other
+ *                    options given.
+ *   --batch <manifest> : Instead of comparing the pathnames of the command
+ *                        line, which are then not given, compares the
+ *                        pairs of files listed in <manifest>, "-" for
+ *                        standard input, one pair per line, and prints a
+ *                        result for every pair (see
+ *                        CompareFiles.compareManifest).
+ *   --cache <MB> : The most megabytes of samples, spectra and landmarks
+ *                  kept for the files processed (see FileCache), the
+ *                  least recently used files being evicted and processed
+ *                  again if they are needed later. Default is half the
+ *                  megabytes given with --offheap, else a quarter of the
+ *                  heap, the rest being left to the transforms.
+ *   --offheap <MB> : Keeps the samples and spectra of the files in an
+ *                    OffHeapArena of at most <MB> megabytes outside the
+ *                    heap; what does not fit stays on the heap.
+ *   --max-open <files> : The most audio files open at any time (see
+ *                        FileHandles), at least two per thread so that a
+ *                        comparison streaming both its files never waits
+ *                        for itself. Default is 64.
+ *   -r : Takes the audio files of the subdirectories of a directory too,
+ *        skipping the files which are not audio files (see
+ *        DirectoryScanner). The files of the second directory are compared
+ *        as they are found, unless "-t", "--fingerprint" or "--locate"
+ *        need the whole directory first, and the MATCH messages are then
+ *        printed by file of the second directory, in the order found,
+ *        instead of by file of the first path.
+ *   --dedupe : Given with the same directory twice, prints the groups of
+ *              its files which match each other, one line per group,
+ *              comparing every pair of files at most once and a file only
+ *              with the first file of every group found before it (see
+ *              CompareFiles.dedupeFiles). Not used with "-t".
+ *   --stats : Prints the timings and counters of the run (see RunStats) as
+ *             JSON through standard error when the run ends.
+ */
+public class RunOptions
+{
+  // Options which are followed by a value
+  private static final List<String> valueOptions =
+		  Arrays.asList("-t", "--stft", "--store", "--prefilter",
+				  "--threshold", "--rate", "--serve", "--cache", "--batch",
+					  "--offheap", "--max-open");
+  // Options which are only switched on by being present
+  private static final List<String> flagOptions =
+		  Arrays.asList("--fingerprint", "--stats", "--locate",
+					  "-r", "--dedupe");
+
+  // The match threshold if "--threshold" is not given
+  private static final double DEFAULT_THRESHOLD = 1;
+  // The bytes in a megabyte
+  private static final long MEGABYTE = 1L << 20;
+
+  private static final Map<String, String> givenOptions =
+		  new HashMap<String, String>();
+
+  /**
+   * static parse : String[] -> String[]
+   * @param args : The arguments passed to the command line
+   * @return String[] : The 'args' without the options and their values
+   * @effect : Remembers the options found in 'args'. If an option which
+   *           needs a value is the last argument prints standard error and
+   *           exits with status other than 0.
+   */
+  public static String[] parse(String[] args)
+  {
+    List<String> remainingArgs = new ArrayList<String>();
+    for(int argCounter = 0; argCounter<args.length; argCounter++)
+    {
+      String currentArg = args[argCounter];
+      if(valueOptions.contains(currentArg))
+      {
+        AssertTests.assertTrue("incorrect command line : " + currentArg +
+        		" needs a value", argCounter + 1 < args.length, true);
+        givenOptions.put(currentArg, args[++argCounter]);
+      }
+      else if(flagOptions.contains(currentArg))
+      {
+        givenOptions.put(currentArg, "true");
+      }
+      else
+      {
+        remainingArgs.add(currentArg);
+      }
+    }
+    return remainingArgs.toArray(new String[remainingArgs.size()]);
+  }
+
+  /**
+   * static isSet : String -> boolean
+   * @param option : The option to look for e.g. "-t"
+   * @return boolean : true iff 'option' was given on the command line
+   */
+  public static boolean isSet(String option)
+  {
+    return givenOptions.containsKey(option);
+  }
+
+  /**
+   * static getString : String, String -> String
+   * @param option : The option whose value is needed
+   * @param defaultValue : The value to return if 'option' was not given
+   * @return String : The value given for 'option', else 'defaultValue'
+   */
+  public static String getString(String option, String defaultValue)
+  {
+    String value = givenOptions.get(option);
+    return value == null ? defaultValue : value;
+  }
+
+  /**
+   * static getInt : String, int -> int
+   * @param option : The option whose value is needed
+   * @param defaultValue : The value to return if 'option' was not given
+   * @return int : The value given for 'option', else 'defaultValue'.
+   *               If the value is not a non negative number prints
+   *               standard error and exits with status other than 0.
+   */
+  public static int getInt(String option, int defaultValue)
+  {
+    String value = givenOptions.get(option);
+    if(value == null)
+      return defaultValue;
+    int intValue = -1;
+    try
+    {
+      intValue = Integer.parseInt(value);
+    }
+    catch(NumberFormatException e)
+    {
+      intValue = -1;
+    }
+    AssertTests.assertTrue(option + " should be followed by a non negative"
+    		+ " number : " + value, intValue >= 0, true);
+    return intValue;
+  }
+
+  /**
+   * static getDouble : String, double -> double
+   * @param option : The option whose value is needed
+   * @param defaultValue : The value to return if 'option' was not given
+   * @return double : The value given for 'option', else 'defaultValue'.
+   *                  If the value is not a non negative number prints
+   *                  standard error and exits with status other than 0.
+   */
+  public static double getDouble(String option, double defaultValue)
+  {
+    String value = givenOptions.get(option);
+    if(value == null)
+      return defaultValue;
+    double doubleValue = -1;
+    try
+    {
+      doubleValue = Double.parseDouble(value);
+    }
+    catch(NumberFormatException e)
+    {
+      doubleValue = -1;
+    }
+    AssertTests.assertTrue(option + " should be followed by a non negative"
+    		+ " number : " + value, doubleValue >= 0, true);
+    return doubleValue;
+  }
+
+  /**
+   * static getThreshold : -> double
+   * @return double : The match threshold asked for through "--threshold"
+   */
+  public static double getThreshold()
+  {
+    return getDouble("--threshold", DEFAULT_THRESHOLD);
+  }
+
+  /**
+   * static getAnalysisRate : -> int
+   * @return int : The sampling rate asked for through "--rate", 0 if every
+   *               file is to be analysed at its own rate
+   */
+  public static int getAnalysisRate()
+  {
+    return getInt("--rate", 0);
+  }
+
+  /**
+   * static getCacheBytes : -> long
+   * @return long : The most bytes the FileCache keeps, asked for in
+   *                megabytes through "--cache", else half the bytes of
+   *                the OffHeapArena asked for through "--offheap", as its
+   *                Blocks do not fill its slabs exactly, else a quarter of
+   *                the heap
+   */
+  public static long getCacheBytes()
+  {
+    if(isSet("--cache"))
+      return getInt("--cache", 0) * MEGABYTE;
+    if(isSet("--offheap"))
+      return getOffHeapBytes() / 2;
+    return Runtime.getRuntime().maxMemory() / 4;
+  }
+
+  /**
+   * static getOffHeapBytes : -> long
+   * @return long : The most bytes of the OffHeapArena, asked for in
+   *                megabytes through "--offheap"
+   */
+  public static long getOffHeapBytes()
+  {
+    return getInt("--offheap", 0) * MEGABYTE;
+  }
+
+  /**
+   * static getMaxOpenFiles : -> int
+   * @return int : The most audio files open at a time, asked for through
+   *               "--max-open", raised to two per thread of the run and
+   *               one for the stage which loads the files
+   */
+  public static int getMaxOpenFiles()
+  {
+    int maxOpen = getInt("--max-open", FileHandles.DEFAULT_MAX_OPEN);
+    return Math.max(maxOpen, 2 * getThreads() + 1);
+  }
+
+  /**
+   * static getThreads : -> int
+   * @return int : The number of worker threads asked for through "-t"
+   */
+  public static int getThreads()
+  {
+    int threads = getInt("-t", 1);
+    if(threads == 0)
+      threads = Runtime.getRuntime().availableProcessors();
+    return threads;
+  }
+
+  /**
+   * static getFrameSize : -> int
+   * @return int : The STFT frame size asked for through "--stft". If it is
+   *               not a power of 2 of at least 2 prints standard error and
+   *               exits with status other than 0.
+   */
+  public static int getFrameSize()
+  {
+    int frameSize = getInt("--stft", 0);
+    AssertTests.assertTrue("--stft should be followed by a power of 2 : " +
+    		frameSize, frameSize >= 2 && (frameSize & (frameSize - 1)) == 0,
+    		true);
+    return frameSize;
+  }
+}
@@ -0,0 +1,252 @@
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * class RunStats
+ * Description: The timings and counters of a run, collected once enabled
+ * through the "--stats" option and printed as one JSON object on standard
+ * error when the run ends. Standard output is not touched.
+ *
+ * Every stage keeps the latency of each of its calls, from which the
+ * median (p50), the 99th percentile (p99) and the maximum are reported:
+ *   make        : AudioProcessableFiles.make, i.e. the header validation
+ *   readSamples : Reading all the samples of a WAVE file
+ *   decode      : Decoding all the samples of an MP3 file
+ *   fft         : The FFT of the samples of a file
+ *   mse         : FFT.calculateMSE between two spectra
+ *   compare     : The comparison of one pair of files
+ *
+ * The counters are the bytes of audio data read, the samples decoded, the
+ * pairs compared and the hits of the caches of the run: a file kept in the
+ * FileCache for another pair, a spectrum calculated before and a spectrum
+ * or the landmarks found in the SpectrumStore. The misses and evictions of
+ * the FileCache are counted too, and the samples or spectra kept on the
+ * heap because the OffHeapArena was full, and the pairs matched by their
+ * ContentHash without comparing their spectra. The FFT sizes are counted
+ * apart.
+ */
+public abstract class RunStats
+{
+  // Stages
+  public static final String MAKE = "make";
+  public static final String READ_SAMPLES = "readSamples";
+  public static final String DECODE = "decode";
+  public static final String FFT = "fft";
+  public static final String MSE = "mse";
+  public static final String COMPARE = "compare";
+  // Counters
+  public static final String BYTES_READ = "bytesRead";
+  public static final String SAMPLES_DECODED = "samplesDecoded";
+  public static final String PAIRS_COMPARED = "pairsCompared";
+  public static final String FILE_CACHE_HITS = "fileCacheHits";
+  public static final String FILE_CACHE_MISSES = "fileCacheMisses";
+  public static final String FILE_CACHE_EVICTIONS = "fileCacheEvictions";
+  public static final String SPECTRUM_CACHE_HITS = "spectrumCacheHits";
+  public static final String STORE_HITS = "storeHits";
+  public static final String OFF_HEAP_FALLBACKS = "offHeapFallbacks";
+  public static final String HASH_MATCHES = "hashMatches";
+
+  // The order in which the stages and counters are printed
+  private static final String[] STAGES = {MAKE, READ_SAMPLES, DECODE, FFT,
+	  MSE, COMPARE};
+  private static final String[] COUNTERS = {BYTES_READ, SAMPLES_DECODED,
+	  PAIRS_COMPARED, FILE_CACHE_HITS, FILE_CACHE_MISSES, FILE_CACHE_EVICTIONS,
+	  SPECTRUM_CACHE_HITS, STORE_HITS, OFF_HEAP_FALLBACKS, HASH_MATCHES};
+  private static final double NANOS_PER_MILLI = 1e6;
+
+  private static volatile boolean enabled = false;
+  private static final Map<String, Latencies> latencies =
+		  new ConcurrentHashMap<String, Latencies>();
+  private static final Map<String, AtomicLong> counters =
+		  new ConcurrentHashMap<String, AtomicLong>();
+  private static final Map<Integer, AtomicLong> fftSizes =
+		  new ConcurrentHashMap<Integer, AtomicLong>();
+
+  static
+  {
+    for(String stage : STAGES)
+      latencies.put(stage, new Latencies());
+    for(String counter : COUNTERS)
+      counters.put(counter, new AtomicLong());
+  }
+
+  /**
+   * static enable : -> void
+   * @effect : Starts collecting the timings and counters. Until then every
+   *           other method of RunStats does nothing.
+   */
+  public static void enable()
+  {
+    enabled = true;
+  }
+
+  /**
+   * static isEnabled : -> boolean
+   * @return boolean : true iff the timings and counters are collected
+   */
+  public static boolean isEnabled()
+  {
+    return enabled;
+  }
+
+  /**
+   * static startTimer : -> long
+   * @return long : The time to pass to 'record' when the timed call ends,
+   *                0 if not enabled
+   */
+  public static long startTimer()
+  {
+    return enabled ? System.nanoTime() : 0;
+  }
+
+  /**
+   * static record : String, long -> void
+   * @param stage : One of the stages of RunStats
+   * @param startTime : The value 'startTimer' returned when the call began
+   * @effect : Adds the time since 'startTime' to the latencies of 'stage'
+   */
+  public static void record(String stage, long startTime)
+  {
+    if(enabled)
+      latencies.get(stage).add(System.nanoTime() - startTime);
+  }
+
+  /**
+   * static count : String, long -> void
+   * @param counter : One of the counters of RunStats
+   * @param amount : The amount to add to 'counter'
+   */
+  public static void count(String counter, long amount)
+  {
+    if(enabled)
+      counters.get(counter).addAndGet(amount);
+  }
+
+  /**
+   * static countFFTSize : int -> void
+   * @param size : The size of an FFT which was calculated
+   */
+  public static void countFFTSize(int size)
+  {
+    if(!enabled)
+      return;
+    AtomicLong count = fftSizes.get(size);
+    if(count == null)
+    {
+      synchronized(fftSizes)
+      {
+        count = fftSizes.get(size);
+        if(count == null)
+        {
+          count = new AtomicLong();
+          fftSizes.put(size, count);
+        }
+      }
+    }
+    count.incrementAndGet();
+  }
+
+  /**
+   * static printJSON : -> void
+   * @effect : Prints through standard error the JSON object
+   *           {"stages": {<stage>: {"count", "p50Ms", "p99Ms", "maxMs"}},
+   *            "counters": {<counter>: <count>},
+   *            "fftSizes": {<size>: <count>}}
+   *           The stages which were never timed are left out.
+   */
+  public static void printJSON()
+  {
+    StringBuilder json = new StringBuilder("{\"stages\": {");
+    String separator = "";
+    for(String stage : STAGES)
+    {
+      long[] sorted = latencies.get(stage).toSortedArray();
+      if(sorted.length == 0)
+        continue;
+      json.append(separator).append('"').append(stage).append("\": {")
+      		.append("\"count\": ").append(sorted.length)
+      		.append(", \"p50Ms\": ").append(toMillis(percentile(sorted, 50)))
+      		.append(", \"p99Ms\": ").append(toMillis(percentile(sorted, 99)))
+      		.append(", \"maxMs\": ")
+      		.append(toMillis(sorted[sorted.length - 1])).append('}');
+      separator = ", ";
+    }
+    json.append("}, \"counters\": {");
+    separator = "";
+    for(String counter : COUNTERS)
+    {
+      json.append(separator).append('"').append(counter).append("\": ")
+      		.append(counters.get(counter).get());
+      separator = ", ";
+    }
+    json.append("}, \"fftSizes\": {");
+    separator = "";
+    for(Map.Entry<Integer, AtomicLong> size :
+    	new TreeMap<Integer, AtomicLong>(fftSizes).entrySet())
+    {
+      json.append(separator).append('"').append(size.getKey()).append("\": ")
+      		.append(size.getValue().get());
+      separator = ", ";
+    }
+    json.append("}}");
+    System.err.println(json);
+  }
+
+  /**
+   * static percentile : long[], int -> long
+   * @param sorted : Latencies in ascending order, at least one
+   * @param percent : The percentile wanted, in (0, 100]
+   * @return long : The smallest latency which is at least as large as
+   *                'percent' percent of the 'sorted' latencies
+   */
+  private static long percentile(long[] sorted, int percent)
+  {
+    int rank = (int) Math.ceil(sorted.length * percent / 100.0);
+    return sorted[Math.max(rank, 1) - 1];
+  }
+
+  /**
+   * static toMillis : long -> String
+   * @return String : 'nanos' in milliseconds with 3 decimals
+   */
+  private static String toMillis(long nanos)
+  {
+    return String.format(Locale.ROOT, "%.3f", nanos / NANOS_PER_MILLI);
+  }
+
+  /**
+   * class Latencies
+   * Description: The latencies of the calls of one stage, in nanoseconds
+   */
+  private static class Latencies
+  {
+    private long[] values = new long[64];
+    private int size = 0;
+
+    /**
+     * add : long -> void
+     * @effect : Appends 'latency' to this
+     */
+    synchronized void add(long latency)
+    {
+      if(size == values.length)
+        values = Arrays.copyOf(values, size * 2);
+      values[size++] = latency;
+    }
+
+    /**
+     * toSortedArray : -> long[]
+     * @return long[] : The latencies of this in ascending order
+     */
+    synchronized long[] toSortedArray()
+    {
+      long[] sorted = Arrays.copyOf(values, size);
+      Arrays.sort(sorted);
+      return sorted;
+    }
+  }
+}
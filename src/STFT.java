@@ -0,0 +1,202 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * class STFT
+ * Description:
+ * This class calculates the Short Time Fourier Transform of audio samples.
+ * The samples are pulled from a SampleSource as they are needed and cut into
+ * overlapping frames of a fixed size. Every frame is windowed with a Hanning
+ * Window and transformed with the FFT. Only one frame is held in memory at a
+ * time, so the memory used does not depend on the length of the samples.
+ * Like FFT, only the bins 0 to frameSize/2 of every frame are calculated.
+ */
+public class STFT
+{
+  // Hanning Windows shared by all the STFTs of the same frame size
+  private static final Map<Integer, double[]> hanningWindowTables =
+		  new HashMap<Integer, double[]>();
+
+  private final SampleSource source;
+  private final int frameSize;
+  private final int hopSize;
+  private final double[] window;
+  private final float[] frameSamples;
+  private final double[] realParts;
+  private final double[] imaginaryParts;
+  private int samplesInFrame = 0;
+  private int frameIndex = -1;
+  private boolean endOfSamples = false;
+
+  /**
+   * Constructor: SampleSource, int, int -> STFT
+   * @param source : The source of the samples to transform
+   * @param frameSize : The number of samples in a frame, a power of 2
+   * @param hopSize : The number of samples between the starts of two frames,
+   *                  at most 'frameSize'
+   * @Effect: The constructor implicitly returns an instance of STFT. No
+   *          frame is transformed before nextFrame is called.
+   */
+  STFT(SampleSource source, int frameSize, int hopSize)
+  {
+    this.source = source;
+    this.frameSize = frameSize;
+    this.hopSize = hopSize;
+    window = getHanningWindow(frameSize);
+    frameSamples = new float[frameSize];
+    realParts = new double[FFT.getNoOfBins(frameSize)];
+    imaginaryParts = new double[FFT.getNoOfBins(frameSize)];
+  }
+
+  /**
+   * nextFrame : -> boolean
+   * @return boolean : true iff there was another frame, false at the end of
+   *                   the samples
+   * @effect : Moves this 'hopSize' samples ahead, reads the new samples of
+   *           the frame from the source and transforms the frame. The last
+   *           frame is padded with zeros.
+   */
+  public boolean nextFrame()
+  {
+    if(frameIndex >= 0)
+    {
+      int kept = Math.max(0, samplesInFrame - hopSize);
+      System.arraycopy(frameSamples, samplesInFrame - kept, frameSamples, 0,
+    		  kept);
+      samplesInFrame = kept;
+    }
+    int newSamples = 0;
+    while(!endOfSamples && samplesInFrame < frameSize)
+    {
+      int count = source.read(frameSamples, samplesInFrame,
+    		  frameSize - samplesInFrame);
+      if(count < 0)
+      {
+        endOfSamples = true;
+      }
+      else
+      {
+        samplesInFrame += count;
+        newSamples += count;
+      }
+    }
+    if(newSamples == 0)
+      return false;
+    frameIndex++;
+    // Packed as FFT.performRealFFT expects the samples
+    for(int i = 0; i<frameSize; i += 2)
+    {
+      realParts[i >> 1] = i < samplesInFrame ?
+    		  frameSamples[i] * window[i] : 0;
+      imaginaryParts[i >> 1] = i + 1 < samplesInFrame ?
+    		  frameSamples[i + 1] * window[i + 1] : 0;
+    }
+    FFT.performRealFFT(realParts, imaginaryParts, frameSize);
+    return true;
+  }
+
+  /**
+   * getFrameIndex : -> int
+   * @return int : The index of the current frame, 0 for the first frame
+   */
+  public int getFrameIndex()
+  {
+    return frameIndex;
+  }
+
+  /**
+   * getFrameSize : -> int
+   * @return int : The number of samples in a frame, the size of its FFT
+   */
+  public int getFrameSize()
+  {
+    return frameSize;
+  }
+
+  /**
+   * getRealParts : -> double[]
+   * @return double[] : The real parts of the bins 0 to frameSize/2 of the
+   *                    FFT of the current frame. The array is overwritten
+   *                    by the next call to nextFrame.
+   */
+  public double[] getRealParts()
+  {
+    return realParts;
+  }
+
+  /**
+   * getImaginaryParts : -> double[]
+   * @return double[] : The imaginary parts of the bins 0 to frameSize/2 of
+   *                    the FFT of the current frame. The array is
+   *                    overwritten by the next call to nextFrame.
+   */
+  public double[] getImaginaryParts()
+  {
+    return imaginaryParts;
+  }
+
+  /**
+   * static calculateSquaredError : STFT, STFT, double -> double
+   * @param first : The STFT of the first samples
+   * @param second : The STFT of the second samples, with the same frame size
+   *                 and hop size as 'first'
+   * @param limit : The error at which to stop comparing
+   * @return double : The sum over all the frames of the Mean Squared Error
+   *                  between the frames of 'first' and 'second'. If one of
+   *                  them has more frames, its extra frames are compared with
+   *                  silence. Once the sum reaches 'limit' the rest of the
+   *                  frames are not read and the sum so far is returned.
+   */
+  public static double calculateSquaredError(STFT first, STFT second,
+		  double limit)
+  {
+    int frameSize = first.frameSize;
+    double error = 0;
+    boolean firstHasFrame = first.nextFrame();
+    boolean secondHasFrame = second.nextFrame();
+    while((firstHasFrame || secondHasFrame) && error < limit)
+    {
+      double[] firstReal = first.realParts;
+      double[] firstImag = first.imaginaryParts;
+      double[] secondReal = second.realParts;
+      double[] secondImag = second.imaginaryParts;
+      double frameError = 0;
+      for(int bin = 0; bin<=frameSize / 2; bin++)
+      {
+        double realDiff = (firstHasFrame ? firstReal[bin] : 0) -
+        		(secondHasFrame ? secondReal[bin] : 0);
+        double imagDiff = (firstHasFrame ? firstImag[bin] : 0) -
+        		(secondHasFrame ? secondImag[bin] : 0);
+        // The bins between 0 and frameSize/2 also stand for their
+        // conjugates
+        double weight = bin == 0 || bin == frameSize / 2 ? 1 : 2;
+        frameError += weight * (realDiff * realDiff + imagDiff * imagDiff);
+      }
+      error += frameError / frameSize;
+      firstHasFrame = firstHasFrame && first.nextFrame();
+      secondHasFrame = secondHasFrame && second.nextFrame();
+    }
+    return error;
+  }
+
+  /**
+   * static getHanningWindow : int -> double[]
+   * @param frameSize : The number of samples in a frame
+   * @return double[] : The Hanning Window coefficients for 'frameSize'
+   *                    samples, computed once per size
+   */
+  private static synchronized double[] getHanningWindow(int frameSize)
+  {
+    double[] window = hanningWindowTables.get(frameSize);
+    if(window == null)
+    {
+      window = new double[frameSize];
+      for(int i = 0; i<frameSize; i++)
+      {
+        window[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / frameSize);
+      }
+      hanningWindowTables.put(frameSize, window);
+    }
+    return window;
+  }
+}
@@ -0,0 +1,20 @@
+public interface SampleSource 
+{
+  /**
+   * read : float[], int, int -> int
+   * @param buffer : The array into which the samples are read
+   * @param offset : The index of 'buffer' at which to put the first sample
+   * @param length : The maximum number of samples to read
+   * @return int : The number of samples read, which is only less than
+   *               'length' at the end of the samples, or -1 if there are no
+   *               samples left
+   */
+  int read(float[] buffer, int offset, int length);
+
+  /**
+   * close : -> void
+   * @effect : Gives back the file the samples are read from, if any, when
+   *           the samples left are not needed. Nothing is read after it.
+   */
+  void close();
+}
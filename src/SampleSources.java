@@ -0,0 +1,100 @@
+import java.nio.FloatBuffer;
+
+/**
+ * class SampleSources: Description: This class creates instances of
+ * SampleSource for samples which are already in memory.
+ */
+public abstract class SampleSources 
+{
+  /**
+   * static fromArray : float[] -> SampleSource
+   * @param samples : The samples to read
+   * @return SampleSource : A SampleSource which reads 'samples' from the
+   *                        first to the last
+   */
+  public static SampleSource fromArray(float[] samples)
+  {
+    return new ArraySampleSource(samples);
+  }
+
+  /**
+   * static fromBuffer : FloatBuffer -> SampleSource
+   * @param samples : The samples to read, from the start of the buffer to
+   *                  its limit, e.g. kept in an OffHeapArena
+   * @return SampleSource : A SampleSource which reads 'samples' from the
+   *                        first to the last, leaving 'samples' as it is
+   */
+  public static SampleSource fromBuffer(FloatBuffer samples)
+  {
+    return new BufferSampleSource(samples);
+  }
+
+  /** Implementation of SampleSource ADT over a FloatBuffer */
+  private static class BufferSampleSource implements SampleSource
+  {
+    private final FloatBuffer samples;
+
+    /**
+     * Constructor : FloatBuffer -> BufferSampleSource
+     * @param samples : The samples to read
+     * @effect : The constructor implicitly returns an instance of type
+     *           BufferSampleSource
+     */
+    BufferSampleSource(FloatBuffer samples)
+    {
+      this.samples = samples.duplicate();
+      this.samples.rewind();
+    }
+
+    /* @see SampleSource#read(float[], int, int) */
+    public int read(float[] buffer, int offset, int length)
+    {
+      if(!samples.hasRemaining())
+        return -1;
+      int count = Math.min(length, samples.remaining());
+      samples.get(buffer, offset, count);
+      return count;
+    }
+
+    /* @see SampleSource#close() */
+    public void close()
+    {
+      // Nothing is held open
+    }
+  }
+
+  /** Implementation of SampleSource ADT over a float[] */
+  private static class ArraySampleSource implements SampleSource
+  {
+    private final float[] samples;
+    private int nextSample = 0;
+
+    /**
+     * Constructor : float[] -> ArraySampleSource
+     * @param samples : The samples to read
+     * @effect : The constructor implicitly returns an instance of type
+     *           ArraySampleSource
+     */
+    ArraySampleSource(float[] samples)
+    {
+      this.samples = samples;
+    }
+
+    /* @see SampleSource#read(float[], int, int) */
+    public int read(float[] buffer, int offset, int length)
+    {
+      if(nextSample >= samples.length)
+        return -1;
+      int count = Math.min(length, samples.length - nextSample);
+      System.arraycopy(samples, nextSample, buffer, offset, count);
+      nextSample += count;
+      return count;
+    }
+
+    /* @see SampleSource#close() */
+    public void close()
+    {
+      // Nothing is held open
+    }
+  }
+}
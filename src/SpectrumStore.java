@@ -0,0 +1,744 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * class SpectrumStore
+ * Description: An on-disk store of the spectra and landmarks computed for
+ * audio files, so that later runs can skip decoding and transforming the
+ * files which did not change.
+ *
+ * The store is a file which starts with the magic number "DAMS" and a
+ * version, followed by records which are only ever appended. Every record
+ * is its length followed by:
+ *   the canonical path of the audio file (int length + UTF-8 bytes),
+ *   the size, the last modified time and the hash of the first
+ *   HEADER_BYTES bytes of the audio file, and of the analysis rate if one
+ *   is given through "--rate" (3 longs),
+ *   the length of the data of the audio file (long),
+ *   the ContentHash of the audio file (long, 0 if not stored),
+ *   the spectrum (int n, or -1 if not stored, + n real and n imaginary
+ *   doubles, the bins 0 to N/2 of an FFT of size N),
+ *   the landmarks (int m, or -1 if not stored, + m longs),
+ *   the features of the Prefilter (int f, or -1 if not stored, + f
+ *   doubles).
+ * A later record for the same path replaces an earlier one. A record is only
+ * used if the size, time and header hash still match the audio file.
+ *
+ * Opening the store only reads the start of every record. The spectra,
+ * landmarks and features are memory-mapped when they are asked for.
+ */
+public class SpectrumStore
+{
+  // Constants
+  private static final int MAGIC = 0x44414D53;
+  // Version 2 keeps only the bins 0 to N/2 of the spectra, version 3 adds
+  // the features of the Prefilter, version 4 has them windowed with the
+  // Hanning Window calculated in double precision, version 5 adds the
+  // ContentHash
+  private static final int VERSION = 5;
+  private static final int HEADER_BYTES = 4096;
+  // The most bytes of a record that are read to find its key
+  private static final int RECORD_START_BYTES = 4096;
+  private static final int NOT_STORED = -1;
+
+  private static SpectrumStore openStore = null;
+
+  private final File storeFile;
+  private RandomAccessFile storeAccess;
+  private FileChannel storeChannel;
+  // canonical path -> the latest record for it
+  private final Map<String, Record> records = new HashMap<String, Record>();
+  // path given to 'make' -> the key of the audio file at that path
+  private final Map<String, Key> keys = new HashMap<String, Key>();
+  // canonical path -> what was computed in this run, to be appended
+  private final Map<String, Pending> pending =
+		  new LinkedHashMap<String, Pending>();
+
+  /**
+   * static open : String -> SpectrumStore
+   * @param storePath : The path of the store file, created if missing
+   * @return SpectrumStore : The store at 'storePath', which is also
+   *                         returned by getOpenStore from now on
+   */
+  public static synchronized SpectrumStore open(String storePath)
+  {
+    openStore = new SpectrumStore(new File(storePath));
+    return openStore;
+  }
+
+  /**
+   * static getOpenStore : -> SpectrumStore
+   * @return SpectrumStore : The store opened for this run, else null
+   */
+  public static synchronized SpectrumStore getOpenStore()
+  {
+    return openStore;
+  }
+
+  /**
+   * static closeOpenStore : -> void
+   * @effect : Writes what was computed in this run to the open store, if
+   *           any, and closes it
+   */
+  public static synchronized void closeOpenStore()
+  {
+    if(openStore != null)
+      openStore.close();
+    openStore = null;
+  }
+
+  /**
+   * static flushOpenStore : -> void
+   * @effect : Writes what was computed since the open store was opened or
+   *           last flushed to it, if anything, keeping it open, so that a
+   *           long running process does not keep the computed spectra till
+   *           it ends
+   */
+  public static synchronized void flushOpenStore()
+  {
+    if(openStore != null)
+      openStore.flush();
+  }
+
+  /**
+   * Constructor : File -> SpectrumStore
+   * @param storeFile : The store file
+   * @effect : Reads the start of every record of 'storeFile'. If the file
+   *           is empty or a store of another version starts an empty
+   *           store in it, if it is not a store prints standard error and
+   *           starts an empty one in its place.
+   */
+  private SpectrumStore(File storeFile)
+  {
+    this.storeFile = storeFile;
+    try
+    {
+      storeAccess = new RandomAccessFile(storeFile, "rw");
+      storeChannel = storeAccess.getChannel();
+      // A store of another version is started again like a new one
+      boolean isNewStore = storeChannel.size() == 0 || hasOtherVersion();
+      if(isNewStore || !readRecords())
+      {
+        if(!isNewStore)
+          AssertTests.assertTrue(storeFile + " is not a valid store, it will"
+          		+ " be rewritten", false);
+        records.clear();
+        storeChannel.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        storeChannel.write(header, 0);
+      }
+    }
+    catch(IOException e)
+    {
+      AssertTests.assertTrue(storeFile + " cannot be opened as a store",
+    		  false);
+      storeChannel = null;
+    }
+  }
+
+  /**
+   * contains : String -> boolean
+   * @param filePath : The path of an audio file
+   * @return boolean : true iff this has a record for the file at 'filePath'
+   *                   which is still up to date
+   */
+  public synchronized boolean contains(String filePath)
+  {
+    return getRecord(filePath) != null;
+  }
+
+  /**
+   * getFileLength : String -> long
+   * @param filePath : The path of an audio file which this contains
+   * @return long : The stored length of the data of the audio file
+   */
+  public synchronized long getFileLength(String filePath)
+  {
+    Record record = getRecord(filePath);
+    return record == null ? 0 : record.fileLength;
+  }
+
+  /**
+   * getSpectrum : String -> FFT
+   * @param filePath : The path of an audio file
+   * @return FFT : The stored spectrum of the file at 'filePath', or null
+   *               if it is not stored or the file changed
+   */
+  public synchronized FFT getSpectrum(String filePath)
+  {
+    Record record = getRecord(filePath);
+    if(record == null || record.spectrumLength == NOT_STORED)
+      return null;
+    ByteBuffer data = map(record.spectrumOffset,
+    		16L * record.spectrumLength);
+    if(data == null)
+      return null;
+    double[] real = new double[record.spectrumLength];
+    double[] imag = new double[record.spectrumLength];
+    data.asDoubleBuffer().get(real);
+    data.position(8 * record.spectrumLength);
+    data.asDoubleBuffer().get(imag);
+    return new FFT(real, imag);
+  }
+
+  /**
+   * getLandmarks : String -> long[]
+   * @param filePath : The path of an audio file
+   * @return long[] : The stored landmarks of the file at 'filePath', or
+   *                  null if they are not stored or the file changed
+   */
+  public synchronized long[] getLandmarks(String filePath)
+  {
+    Record record = getRecord(filePath);
+    if(record == null || record.landmarksLength == NOT_STORED)
+      return null;
+    ByteBuffer data = map(record.landmarksOffset,
+    		8L * record.landmarksLength);
+    if(data == null)
+      return null;
+    long[] landmarks = new long[record.landmarksLength];
+    data.asLongBuffer().get(landmarks);
+    return landmarks;
+  }
+
+  /**
+   * getFeatures : String -> double[]
+   * @param filePath : The path of an audio file
+   * @return double[] : The stored features of the file at 'filePath' (see
+   *                    Prefilter.Features), or null if they are not stored
+   *                    or the file changed
+   */
+  public synchronized double[] getFeatures(String filePath)
+  {
+    Record record = getRecord(filePath);
+    if(record == null || record.featuresLength == NOT_STORED)
+      return null;
+    ByteBuffer data = map(record.featuresOffset,
+    		8L * record.featuresLength);
+    if(data == null)
+      return null;
+    double[] features = new double[record.featuresLength];
+    data.asDoubleBuffer().get(features);
+    return features;
+  }
+
+  /**
+   * getContentHash : String -> long
+   * @param filePath : The path of an audio file
+   * @return long : The stored ContentHash of the file at 'filePath', or 0
+   *                if it is not stored or the file changed
+   */
+  public synchronized long getContentHash(String filePath)
+  {
+    Record record = getRecord(filePath);
+    return record == null ? 0 : record.contentHash;
+  }
+
+  /**
+   * putSpectrum : String, long, FFT -> void
+   * @param filePath : The path of an audio file
+   * @param fileLength : The length of the data of the audio file
+   * @param spectrum : The spectrum computed for the audio file
+   * @effect : Remembers 'spectrum' to be written to the store on close,
+   *           as one of its owners till then
+   */
+  public synchronized void putSpectrum(String filePath, long fileLength,
+		  FFT spectrum)
+  {
+    Pending toWrite = getPending(filePath, fileLength);
+    if(toWrite == null)
+      return;
+    spectrum.retain();
+    if(toWrite.spectrum != null)
+      toWrite.spectrum.release();
+    toWrite.spectrum = spectrum;
+  }
+
+  /**
+   * putLandmarks : String, long, long[] -> void
+   * @param filePath : The path of an audio file
+   * @param fileLength : The length of the data of the audio file
+   * @param landmarks : The landmarks computed for the audio file
+   * @effect : Remembers 'landmarks' to be written to the store on close
+   */
+  public synchronized void putLandmarks(String filePath, long fileLength,
+		  long[] landmarks)
+  {
+    Pending toWrite = getPending(filePath, fileLength);
+    if(toWrite != null)
+      toWrite.landmarks = landmarks;
+  }
+
+  /**
+   * putFeatures : String, long, double[] -> void
+   * @param filePath : The path of an audio file
+   * @param fileLength : The length of the data of the audio file
+   * @param features : The features of the Prefilter computed for the
+   *                   audio file
+   * @effect : Remembers 'features' to be written to the store on close
+   */
+  public synchronized void putFeatures(String filePath, long fileLength,
+		  double[] features)
+  {
+    Pending toWrite = getPending(filePath, fileLength);
+    if(toWrite != null)
+      toWrite.features = features;
+  }
+
+  /**
+   * putContentHash : String, long, long -> void
+   * @param filePath : The path of an audio file
+   * @param fileLength : The length of the data of the audio file
+   * @param contentHash : The ContentHash computed for the audio file
+   * @effect : Remembers 'contentHash' to be written to the store on close,
+   *           unless the up to date record already has it
+   */
+  public synchronized void putContentHash(String filePath, long fileLength,
+		  long contentHash)
+  {
+    Record record = getRecord(filePath);
+    if(record != null && record.contentHash == contentHash)
+      return;
+    Pending toWrite = getPending(filePath, fileLength);
+    if(toWrite != null)
+      toWrite.contentHash = contentHash;
+  }
+
+  /**
+   * close : -> void
+   * @effect : Appends a record for every audio file something was computed
+   *           for in this run, keeping the part of the old record that was
+   *           not recomputed, and closes the store file
+   */
+  public synchronized void close()
+  {
+    if(storeChannel == null)
+      return;
+    try
+    {
+      writePending();
+      storeAccess.close();
+    }
+    catch(IOException e)
+    {
+      AssertTests.assertTrue(storeFile + " could not be written", false);
+    }
+    releasePending();
+    storeChannel = null;
+  }
+
+  /**
+   * flush : -> void
+   * @effect : Same as close, but keeps the store file open and reads the
+   *           records just appended, so that the files made with this
+   *           store find what was computed for them in it. The keys of the
+   *           audio files are worked out again from now on, as they may
+   *           have changed since.
+   */
+  public synchronized void flush()
+  {
+    keys.clear();
+    if(storeChannel == null || pending.isEmpty())
+      return;
+    try
+    {
+      long appendedFrom = storeChannel.size();
+      writePending();
+      readRecords(appendedFrom);
+    }
+    catch(IOException e)
+    {
+      AssertTests.assertTrue(storeFile + " could not be written", false);
+    }
+    releasePending();
+  }
+
+  /**
+   * writePending : -> void
+   * @effect : Appends a record for every audio file something was computed
+   *           for since the store was opened or flushed, keeping the part
+   *           of the old record that was not recomputed
+   */
+  private void writePending() throws IOException
+  {
+    for(Pending toWrite : pending.values())
+    {
+      Record old = records.get(toWrite.key.canonicalPath);
+      if(old != null && !old.key.equals(toWrite.key))
+        old = null;
+      if(toWrite.spectrum == null && old != null)
+        toWrite.spectrum = getSpectrum(toWrite.key.canonicalPath);
+      if(toWrite.landmarks == null && old != null)
+        toWrite.landmarks = getLandmarks(toWrite.key.canonicalPath);
+      if(toWrite.features == null && old != null)
+        toWrite.features = getFeatures(toWrite.key.canonicalPath);
+      if(toWrite.contentHash == 0 && old != null)
+        toWrite.contentHash = old.contentHash;
+    }
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+    		new FileOutputStream(storeFile, true), 1 << 16));
+    try
+    {
+      for(Pending toWrite : pending.values())
+      {
+        writeRecord(out, toWrite);
+      }
+    }
+    finally
+    {
+      out.close();
+    }
+  }
+
+  /**
+   * releasePending : -> void
+   * @effect : Forgets what was to be written, giving up the spectra
+   */
+  private void releasePending()
+  {
+    for(Pending written : pending.values())
+    {
+      if(written.spectrum != null)
+        written.spectrum.release();
+    }
+    pending.clear();
+  }
+
+  /**
+   * readRecords : -> boolean
+   * @return boolean : false iff the store file is not empty and is not a
+   *                   store
+   * @effect : Reads the start of every record of the store file. A
+   *           record cut short at the end of the file is ignored.
+   */
+  private boolean readRecords() throws IOException
+  {
+    long storeSize = storeChannel.size();
+    if(storeSize == 0)
+      return false;
+    ByteBuffer header = ByteBuffer.allocate(8);
+    if(storeChannel.read(header, 0) != 8)
+      return false;
+    header.flip();
+    if(header.getInt() != MAGIC || header.getInt() != VERSION)
+      return false;
+    readRecords(8);
+    return true;
+  }
+
+  /**
+   * readRecords : long -> void
+   * @param position : The position of the first record to read
+   * @effect : Reads the start of every record of the store file from
+   *           'position' on, a record replacing the one read before for
+   *           the same path. A record cut short at the end of the file is
+   *           ignored.
+   */
+  private void readRecords(long position) throws IOException
+  {
+    long storeSize = storeChannel.size();
+    ByteBuffer recordStart = ByteBuffer.allocate(RECORD_START_BYTES);
+    while(position + 4 <= storeSize)
+    {
+      recordStart.clear();
+      storeChannel.read(recordStart, position);
+      recordStart.flip();
+      int recordLength = recordStart.getInt();
+      long recordEnd = position + 4 + recordLength;
+      if(recordLength <= 0 || recordEnd > storeSize)
+        break;
+      int pathLength = recordStart.getInt();
+      if(pathLength < 0 || 8 + pathLength + 44 > recordStart.limit())
+        break;
+      byte[] pathBytes = new byte[pathLength];
+      recordStart.get(pathBytes);
+      Record record = new Record();
+      record.key = new Key(new String(pathBytes, "UTF-8"),
+    		  recordStart.getLong(), recordStart.getLong(),
+    		  recordStart.getLong());
+      record.fileLength = recordStart.getLong();
+      record.contentHash = recordStart.getLong();
+      record.spectrumLength = recordStart.getInt();
+      record.spectrumOffset = position + recordStart.position();
+      long landmarksStart = record.spectrumOffset + (record.spectrumLength ==
+    		  NOT_STORED ? 0 : 16L * record.spectrumLength);
+      ByteBuffer landmarksLength = ByteBuffer.allocate(4);
+      storeChannel.read(landmarksLength, landmarksStart);
+      landmarksLength.flip();
+      record.landmarksLength = landmarksLength.getInt();
+      record.landmarksOffset = landmarksStart + 4;
+      long featuresStart = record.landmarksOffset + (record.landmarksLength ==
+    		  NOT_STORED ? 0 : 8L * record.landmarksLength);
+      ByteBuffer featuresLength = ByteBuffer.allocate(4);
+      storeChannel.read(featuresLength, featuresStart);
+      featuresLength.flip();
+      record.featuresLength = featuresLength.getInt();
+      record.featuresOffset = featuresStart + 4;
+      records.put(record.key.canonicalPath, record);
+      position = recordEnd;
+    }
+  }
+
+  /**
+   * hasOtherVersion : -> boolean
+   * @return boolean : true iff the store file starts with the magic number
+   *                   followed by a version other than VERSION
+   */
+  private boolean hasOtherVersion() throws IOException
+  {
+    ByteBuffer header = ByteBuffer.allocate(8);
+    if(storeChannel.read(header, 0) != 8)
+      return false;
+    header.flip();
+    return header.getInt() == MAGIC && header.getInt() != VERSION;
+  }
+
+  /**
+   * writeRecord : DataOutputStream, Pending -> void
+   * @effect : Writes the record for 'toWrite' to 'out'
+   */
+  private static void writeRecord(DataOutputStream out, Pending toWrite)
+		  throws IOException
+  {
+    byte[] pathBytes = toWrite.key.canonicalPath.getBytes("UTF-8");
+    double[] real = toWrite.spectrum == null ? null :
+    	toWrite.spectrum.getRealParts();
+    double[] imag = toWrite.spectrum == null ? null :
+    	toWrite.spectrum.getImaginaryParts();
+    long recordLength = 4 + pathBytes.length + 40 + 4 + 4 + 4 +
+    		(real == null ? 0 : 16L * real.length) +
+    		(toWrite.landmarks == null ? 0 : 8L * toWrite.landmarks.length) +
+    		(toWrite.features == null ? 0 : 8L * toWrite.features.length);
+    if(recordLength > Integer.MAX_VALUE)
+      return;
+    out.writeInt((int) recordLength);
+    out.writeInt(pathBytes.length);
+    out.write(pathBytes);
+    out.writeLong(toWrite.key.size);
+    out.writeLong(toWrite.key.lastModified);
+    out.writeLong(toWrite.key.headerHash);
+    out.writeLong(toWrite.fileLength);
+    out.writeLong(toWrite.contentHash);
+    if(real == null)
+    {
+      out.writeInt(NOT_STORED);
+    }
+    else
+    {
+      out.writeInt(real.length);
+      for(double value : real)
+        out.writeDouble(value);
+      for(double value : imag)
+        out.writeDouble(value);
+    }
+    if(toWrite.landmarks == null)
+    {
+      out.writeInt(NOT_STORED);
+    }
+    else
+    {
+      out.writeInt(toWrite.landmarks.length);
+      for(long landmark : toWrite.landmarks)
+        out.writeLong(landmark);
+    }
+    if(toWrite.features == null)
+    {
+      out.writeInt(NOT_STORED);
+    }
+    else
+    {
+      out.writeInt(toWrite.features.length);
+      for(double feature : toWrite.features)
+        out.writeDouble(feature);
+    }
+  }
+
+  /**
+   * getRecord : String -> Record
+   * @return Record : The record of the audio file at 'filePath' if it is
+   *                  still up to date, else null
+   */
+  private Record getRecord(String filePath)
+  {
+    Key key = getKey(filePath);
+    if(key == null || storeChannel == null)
+      return null;
+    Record record = records.get(key.canonicalPath);
+    if(record == null || !record.key.equals(key))
+      return null;
+    return record;
+  }
+
+  /**
+   * getPending : String, long -> Pending
+   * @return Pending : What is to be written for the audio file at
+   *                   'filePath', else null if the file cannot be read
+   */
+  private Pending getPending(String filePath, long fileLength)
+  {
+    Key key = getKey(filePath);
+    if(key == null)
+      return null;
+    Pending toWrite = pending.get(key.canonicalPath);
+    if(toWrite == null)
+    {
+      toWrite = new Pending();
+      toWrite.key = key;
+      toWrite.fileLength = fileLength;
+      pending.put(key.canonicalPath, toWrite);
+    }
+    return toWrite;
+  }
+
+  /**
+   * getKey : String -> Key
+   * @return Key : The key of the audio file at 'filePath' as it is now,
+   *               worked out once per run, else null if it cannot be read
+   */
+  private Key getKey(String filePath)
+  {
+    if(keys.containsKey(filePath))
+      return keys.get(filePath);
+    Key key = null;
+    try
+    {
+      File audioFile = new File(filePath);
+      FileInputStream audioStream = FileHandles.open(audioFile);
+      try
+      {
+        long length = audioStream.getChannel().size();
+        byte[] header = new byte[(int) Math.min(HEADER_BYTES, length)];
+        new DataInputStream(audioStream).readFully(header);
+        // The spectra depend on the analysis rate as well
+        key = new Key(audioFile.getCanonicalPath(), length,
+        		audioFile.lastModified(), hash(header,
+        		RunOptions.getAnalysisRate()));
+      }
+      finally
+      {
+        FileHandles.close(audioStream);
+      }
+    }
+    catch(IOException e)
+    {
+      key = null;
+    }
+    keys.put(filePath, key);
+    return key;
+  }
+
+  /**
+   * map : long, long -> ByteBuffer
+   * @return ByteBuffer : The 'length' bytes of the store file starting at
+   *                      'offset', memory-mapped, else null
+   */
+  private ByteBuffer map(long offset, long length)
+  {
+    try
+    {
+      MappedByteBuffer data = storeChannel.map(FileChannel.MapMode.READ_ONLY,
+    		  offset, length);
+      return data;
+    }
+    catch(IOException e)
+    {
+      AssertTests.assertTrue(storeFile + " could not be read", false);
+      return null;
+    }
+  }
+
+  /**
+   * static hash : byte[], int -> long
+   * @return long : The 64 bit FNV-1a hash of 'bytes' followed by the 4
+   *                bytes of 'analysisRate', or of 'bytes' alone if
+   *                'analysisRate' is 0
+   */
+  private static long hash(byte[] bytes, int analysisRate)
+  {
+    long hash = 0xcbf29ce484222325L;
+    for(byte b : bytes)
+    {
+      hash ^= b & 0xFF;
+      hash *= 0x100000001b3L;
+    }
+    for(int shift = 24; analysisRate != 0 && shift >= 0; shift -= 8)
+    {
+      hash ^= (analysisRate >>> shift) & 0xFF;
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  /** The identity of an audio file as it was when a record was written */
+  private static class Key
+  {
+    final String canonicalPath;
+    final long size;
+    final long lastModified;
+    final long headerHash;
+
+    Key(String canonicalPath, long size, long lastModified, long headerHash)
+    {
+      this.canonicalPath = canonicalPath;
+      this.size = size;
+      this.lastModified = lastModified;
+      this.headerHash = headerHash;
+    }
+
+    @Override
+    public boolean equals(Object other)
+    {
+      if(!(other instanceof Key))
+        return false;
+      Key otherKey = (Key) other;
+      return canonicalPath.equals(otherKey.canonicalPath) &&
+    		  size == otherKey.size &&
+    		  lastModified == otherKey.lastModified &&
+    		  headerHash == otherKey.headerHash;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return canonicalPath.hashCode();
+    }
+  }
+
+  /** Where the parts of a record are in the store file */
+  private static class Record
+  {
+    Key key;
+    long fileLength;
+    long contentHash;
+    int spectrumLength;
+    long spectrumOffset;
+    int landmarksLength;
+    long landmarksOffset;
+    int featuresLength;
+    long featuresOffset;
+  }
+
+  /** What was computed for an audio file in this run */
+  private static class Pending
+  {
+    Key key;
+    long fileLength;
+    long contentHash;
+    FFT spectrum;
+    long[] landmarks;
+    double[] features;
+  }
+}
@@ -7,12 +7,31 @@ public class dam
   * Effect: The program starts execution from this method.
   *         If the 'args' is a valid command compares the two files
   *         else prints message through standard error and exits with 
-  *         status other than 0
+  *         status other than 0. With "--serve" and no pathname serves the
+  *         comparisons sent to a DamServer instead, with "--batch" and no
+  *         pathname compares the pairs of a manifest.
   */
   public static void main(String[] args)
   {
     String pattern = "-f|-d <pathname> -f|-d <pathname>";
-    CommandLineArgsParser.validateCommand(args, pattern);
-    CompareFiles cm = new CompareFiles(args);
+    String[] pathArgs = RunOptions.parse(args);
+    if(RunOptions.isSet("--serve"))
+    {
+      AssertTests.assertTrue("incorrect command line : --serve takes no " +
+      		"pathname", pathArgs.length == 0, true);
+      DamServer.serve(RunOptions.getInt("--serve", 0));
+      return;
+    }
+    if(RunOptions.isSet("--batch"))
+    {
+      AssertTests.assertTrue("incorrect command line : --batch takes no " +
+      		"pathname", pathArgs.length == 0, true);
+      CompareFiles batch = new CompareFiles();
+      batch.compareManifest(RunOptions.getString("--batch", "-"));
+      batch.finish();
+      return;
+    }
+    CommandLineArgsParser.validateCommand(pathArgs, pattern);
+    CompareFiles cm = new CompareFiles(pathArgs);
   }
 }
\ No newline at end of file